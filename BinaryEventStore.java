@@ -0,0 +1,266 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Binary file format for the Events of a Calendar, read through a memory mapping so single records can
+ * be looked at without decoding the whole file.
+ *
+ * The file starts with a 32 byte header (magic, version, record count, name heap offset and length),
+ * followed by one 24 byte record per Event (start minute, length in minutes, flags, name offset and name
+ * length) sorted by start and end minute, followed by the name heap holding every distinct title once in
+ * UTF-8. Because the records are sorted and fixed-width, a time range is found with a binary search.
+ * @author Alejandro Lopez
+ */
+class BinaryEventStore {
+    static final int MAGIC = 0x43414C42;
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 24;
+    static final int FLAG_HAS_END = 1;
+
+    private final MappedByteBuffer map;
+    private final int count;
+    private final int heapOffset;
+
+    private BinaryEventStore(MappedByteBuffer map) throws IOException
+    {
+        this.map = map;
+        map.order(ByteOrder.BIG_ENDIAN);
+        if (map.capacity() < HEADER_SIZE || map.getInt(0) != MAGIC)
+            throw new IOException("Not a binary event store");
+        if (map.getShort(4) != VERSION)
+            throw new IOException("Unsupported binary event store version " + map.getShort(4));
+        count = map.getInt(8);
+        long heap = map.getLong(12);
+        long heapLength = map.getLong(20);
+        if (heap != HEADER_SIZE + (long) count * RECORD_SIZE || heap + heapLength > map.capacity())
+            throw new IOException("Corrupt binary event store");
+        heapOffset = (int) heap;
+    }
+
+    /**
+     * Opens a binary store by mapping the whole file read-only
+     * @param file the file to be opened
+     * @return the opened store
+     * @throws IOException if the file cannot be read or is not a binary store
+     */
+    public static BinaryEventStore open(Path file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            return new BinaryEventStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes Events to a binary store. The file is written next to the target and then renamed over
+     * it, so a failed save leaves the previous store in place.
+     * @param file the file to be written
+     * @param sorted the Events in start-time order
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path file, Iterable<Event> sorted) throws IOException
+    {
+        ArrayList<Event> events = new ArrayList<>();
+        for (Event e : sorted)
+            events.add(e);
+
+        HashMap<String, Integer> offsets = new HashMap<>();
+        ArrayList<byte[]> heap = new ArrayList<>();
+        int[] nameOffsets = new int[events.size()];
+        int[] nameLengths = new int[events.size()];
+        int heapLength = 0;
+        for (int i = 0; i < events.size(); i++)
+        {
+            String name = events.get(i).storedName();
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            Integer offset = offsets.get(name);
+            if (offset == null)
+            {
+                offset = heapLength;
+                offsets.put(name, offset);
+                heap.add(bytes);
+                heapLength += bytes.length;
+            }
+            nameOffsets[i] = offset;
+            nameLengths[i] = bytes.length;
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+            buf.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putInt(events.size())
+                    .putLong(HEADER_SIZE + (long) events.size() * RECORD_SIZE).putLong(heapLength).putInt(0);
+            for (int i = 0; i < events.size(); i++)
+            {
+                if (buf.remaining() < RECORD_SIZE)
+                    drain(out, buf);
+                Event e = events.get(i);
+                buf.putLong(e.getStartMinute())
+                        .putInt((int) (e.getEndMinute() - e.getStartMinute()))
+                        .putInt(e.hasEndTime() ? FLAG_HAS_END : 0)
+                        .putInt(nameOffsets[i])
+                        .putInt(nameLengths[i]);
+            }
+            for (byte[] bytes : heap)
+            {
+                if (buf.remaining() < bytes.length)
+                    drain(out, buf);
+                if (bytes.length > buf.capacity())
+                    writeFully(out, ByteBuffer.wrap(bytes));
+                else
+                    buf.put(bytes);
+            }
+            drain(out, buf);
+            out.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Gets the number of Events in the store
+     * @return number of records
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * Gets the start of a record
+     * @param i record number
+     * @return minutes since 01/01/1970 00:00 in local time
+     */
+    public long startMinute(int i)
+    {
+        return map.getLong(HEADER_SIZE + i * RECORD_SIZE);
+    }
+
+    /**
+     * Gets the end of a record
+     * @param i record number
+     * @return minutes since 01/01/1970 00:00 in local time
+     */
+    public long endMinute(int i)
+    {
+        return startMinute(i) + map.getInt(HEADER_SIZE + i * RECORD_SIZE + 8);
+    }
+
+    /**
+     * Gets the title of a record, decoding only that record's name
+     * @param i record number
+     * @return the title
+     */
+    public String name(int i)
+    {
+        int record = HEADER_SIZE + i * RECORD_SIZE;
+        byte[] bytes = new byte[map.getInt(record + 20)];
+        map.get(heapOffset + map.getInt(record + 16), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Builds the Event of a record
+     * @param i record number
+     * @return a new Event holding the record
+     */
+    public Event event(int i)
+    {
+        int record = HEADER_SIZE + i * RECORD_SIZE;
+        return Event.restore(map.getLong(record), map.getInt(record + 8),
+                (map.getInt(record + 12) & FLAG_HAS_END) != 0, name(i));
+    }
+
+    /**
+     * Finds the first record starting at or after a minute
+     * @param minute minutes since 01/01/1970 00:00 in local time
+     * @return record number, or size() if every record starts earlier
+     */
+    public int lowerBound(long minute)
+    {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (startMinute(mid) < minute)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Builds the Events starting in the range [from, to) without decoding the rest of the store
+     * @param from first minute of the range
+     * @param to minute after the end of the range
+     * @return the Events in start-time order
+     */
+    public ArrayList<Event> eventsBetween(long from, long to)
+    {
+        ArrayList<Event> found = new ArrayList<>();
+        for (int i = lowerBound(from); i < count && startMinute(i) < to; i++)
+            found.add(event(i));
+        return found;
+    }
+
+    /**
+     * Builds every Event in the store
+     * @return the Events in start-time order
+     */
+    public ArrayList<Event> readAll()
+    {
+        ArrayList<Event> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            events.add(event(i));
+        return events;
+    }
+
+    private static void drain(FileChannel out, ByteBuffer buf) throws IOException
+    {
+        buf.flip();
+        writeFully(out, buf);
+        buf.clear();
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException
+    {
+        while (buf.hasRemaining())
+            out.write(buf);
+    }
+
+    /**
+     * Converts between the text and binary formats: "BinaryEventStore events.txt events.bin" builds a
+     * binary store from a text file and "BinaryEventStore events.bin events.txt" does the reverse.
+     * @param args the source and target files
+     * @throws IOException if a file cannot be read or written
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length != 2)
+        {
+            System.out.println("Usage: BinaryEventStore <source> <target>");
+            return;
+        }
+        Path source = Paths.get(args[0]);
+        Path target = Paths.get(args[1]);
+        if (args[0].endsWith(".txt"))
+            write(target, EventFileLoader.load(source));
+        else
+            CalendarModel.writeText(target, open(source).readAll());
+    }
+}
@@ -0,0 +1,241 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+/**
+ * Micro-benchmarks for the CalendarModel hot paths, run against synthetic calendars of 1k, 100k and 1M
+ * Events. Every benchmark is warmed up and then measured over several timed iterations. It reports the
+ * average time per operation, the bytes allocated per operation by the benchmark thread, the resulting
+ * allocation rate, and the collections the garbage collectors ran while it was measured.
+ *
+ * Run with "java CalendarBenchmark [filter] [sizes]", e.g. "java CalendarBenchmark getEvents 1000,100000".
+ * Warm-up and measurement can be tuned with -Dwarmup=iterations, -Diterations=count and
+ * -Dmillis=length of one iteration.
+ *
+ * The multi-threaded stress test of ConcurrentCalendarModel is StripedEventIndexTest.
+ * @author Alejandro Lopez
+ */
+public class CalendarBenchmark {
+    private static final int WARMUP = Integer.getInteger("warmup", 2);
+    private static final int ITERATIONS = Integer.getInteger("iterations", 5);
+    private static final long MILLIS = Long.getLong("millis", 1000);
+    private static final PrintStream OUT = System.out;
+    private static final PrintStream NULL = new PrintStream(OutputStream.nullOutputStream());
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static volatile long sink;
+
+    /**
+     * One invocation of a benchmarked operation
+     */
+    private interface Operation
+    {
+        /**
+         * Runs the operation once
+         * @param i number of the invocation, used to vary the input
+         * @throws Exception if the operation fails
+         */
+        void run(long i) throws Exception;
+    }
+
+    /**
+     * Runs the benchmarks
+     * @param args optional name filter and comma separated calendar sizes
+     * @throws Exception if a benchmark fails
+     */
+    public static void main(String[] args) throws Exception
+    {
+        String filter = args.length > 0 ? args[0] : "";
+        int[] sizes = {1_000, 100_000, 1_000_000};
+        if (args.length > 1)
+        {
+            String[] split = args[1].split(",");
+            sizes = new int[split.length];
+            for (int i = 0; i < split.length; i++)
+                sizes[i] = Integer.parseInt(split[i].trim());
+        }
+
+        OUT.printf("%-24s %9s %14s %12s %10s %6s %8s%n",
+                "Benchmark", "Events", "ns/op", "B/op", "MB/s", "GCs", "GC ms");
+        for (int size : sizes)
+            runAll(filter, size);
+    }
+
+    private static void runAll(String filter, int size) throws Exception
+    {
+        System.setOut(NULL);
+        CalendarModel model = new CalendarModel();
+        Event[] events = synthetic(size);
+        model.addAll(List.of(events));
+
+        // Pairs of Events on the same day for the conflict checks
+        Event[] probes = synthetic(Math.min(size, 4096));
+
+        Path text = Files.createTempFile("calendar-bench", ".txt");
+        Path out = Files.createTempFile("calendar-bench-out", ".txt");
+        ArrayList<Event> sorted = new ArrayList<>(List.of(events));
+        CalendarModel.writeText(text, sorted);
+        System.setOut(OUT);
+
+        try
+        {
+            run(filter, "add.conflict", size, i -> {
+                sink += model.add(events[(int) (i % size)]) ? 1 : 0;
+            });
+            long emptyDay = DayIndex.epochDay(3000, 0, 1);
+            run(filter, "add+removeAll", size, i -> {
+                Event e = new Event(emptyDay * Event.MINUTES_PER_DAY + 10 * 60, 60, true, "Benchmark");
+                model.add(e);
+                model.removeAll(e.getDate());
+            });
+            List<Event> batch = List.of(events);
+            run(filter, "import.add", size, i -> {
+                CalendarModel fresh = new CalendarModel();
+                for (Event e : batch)
+                    fresh.add(e);
+            });
+            run(filter, "import.addAll", size, i -> {
+                sink += new CalendarModel().addAll(batch).getAddedCount();
+            });
+            run(filter, "getEvents", size, i -> {
+                if (i % 64 == 0)
+                    model.prevMonth();
+                model.nextDay();
+                sink += model.getEvents().size();
+            });
+            long firstMinute = events[0].getStartMinute();
+            long spanMinutes = events[size - 1].getStartMinute() - firstMinute + 1;
+            run(filter, "query.week", size, i -> {
+                long from = firstMinute + (i * 7919 * Event.MINUTES_PER_DAY) % spanMinutes;
+                sink += model.query(from, from + 7 * Event.MINUTES_PER_DAY - 1).count();
+            });
+            run(filter, "printEventCalendar", size, i -> {
+                model.nextMonth();
+                model.printEventCalendar();
+            });
+            run(filter, "eventConflicts", size, i -> {
+                Event a = probes[(int) (i % probes.length)];
+                Event b = probes[(int) ((i * 7 + 1) % probes.length)];
+                sink += a.eventConflicts(b) ? 1 : 0;
+            });
+            run(filter, "timeConflicts", size, i -> {
+                Event a = probes[(int) (i % probes.length)];
+                Event b = probes[(int) ((i * 7 + 1) % probes.length)];
+                sink += a.timeConflicts(b) ? 1 : 0;
+            });
+            run(filter, "loadFromFile", size, i -> {
+                sink += EventFileLoader.load(text).size();
+            });
+            run(filter, "printToFile", size, i -> {
+                CalendarModel.writeText(out, sorted);
+            });
+        }
+        finally
+        {
+            System.setOut(OUT);
+            Files.deleteIfExists(text);
+            Files.deleteIfExists(out);
+        }
+    }
+
+    /**
+     * Builds non-overlapping Events centered on today, eight one-hour Events per day
+     * @param size number of Events
+     * @return the Events in start-time order
+     */
+    static Event[] synthetic(int size)
+    {
+        String[] names = {"Standup", "Lunch", "Review", "1:1", "Planning", "Gym", "Dentist", "Focus time"};
+        long today = DayIndex.epochDay(new GregorianCalendar());
+        long first = today - size / 16;
+        Event[] events = new Event[size];
+        for (int i = 0; i < size; i++)
+        {
+            long start = (first + i / 8) * Event.MINUTES_PER_DAY + 8 * 60 + (i % 8) * 90;
+            events[i] = new Event(start, 60, true, names[i % names.length]);
+        }
+        return events;
+    }
+
+    private static void run(String filter, String name, int size, Operation op) throws Exception
+    {
+        if (!name.contains(filter))
+            return;
+        long[] counter = {0};
+        for (int w = 0; w < WARMUP; w++)
+            iteration(op, counter);
+
+        long ops = 0;
+        long nanos = 0;
+        long bytes = 0;
+        long gcs = -gcCount();
+        long gcMillis = -gcMillis();
+        long thread = Thread.currentThread().getId();
+        for (int it = 0; it < ITERATIONS; it++)
+        {
+            long allocated = THREADS.getThreadAllocatedBytes(thread);
+            long begin = System.nanoTime();
+            ops += iteration(op, counter);
+            nanos += System.nanoTime() - begin;
+            bytes += THREADS.getThreadAllocatedBytes(thread) - allocated;
+        }
+        gcs += gcCount();
+        gcMillis += gcMillis();
+
+        OUT.printf("%-24s %9d %14.1f %12.1f %10.1f %6d %8d%n", name, size, (double) nanos / ops,
+                (double) bytes / ops, bytes / 1e6 / (nanos / 1e9), gcs, gcMillis);
+    }
+
+    /**
+     * Runs an operation repeatedly for one iteration's worth of time, at least once
+     * @return the number of operations that were run
+     */
+    private static long iteration(Operation op, long[] counter) throws Exception
+    {
+        PrintStream previous = System.out;
+        System.setOut(NULL);
+        try
+        {
+            long deadline = System.nanoTime() + MILLIS * 1_000_000;
+            long ops = 0;
+            int batch = 1;
+            do
+            {
+                // Batches grow so fast operations are not dominated by reading the clock
+                for (int b = 0; b < batch; b++)
+                    op.run(counter[0]++);
+                ops += batch;
+                batch = Math.min(batch * 2, 1024);
+            }
+            while (System.nanoTime() < deadline);
+            return ops;
+        }
+        finally
+        {
+            System.setOut(previous);
+        }
+    }
+
+    private static long gcCount()
+    {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(0, gc.getCollectionCount());
+        return count;
+    }
+
+    private static long gcMillis()
+    {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            millis += Math.max(0, gc.getCollectionTime());
+        return millis;
+    }
+}
@@ -0,0 +1,135 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Drives a running CalendarServer with many concurrent clients and reports the throughput and latency
+ * seen. Every client loops over a mix of requests on random days of the coming year: 70% range queries
+ * of one day, 15% adds of a one hour Event, 10% free-slot searches over a week and 5% removals of a day.
+ * The latency of each request is recorded by its client and all of them are merged at the end.
+ *
+ * Run as "java CalendarLoadTest [url] [clients] [seconds]", by default against http://localhost:8080
+ * with 64 clients for 10 seconds. The added Events are named "load-test" so they can be told apart.
+ * @author Alejandro Lopez
+ */
+public class CalendarLoadTest {
+    private static final String NAME = "load-test";
+
+    private final HttpClient client;
+    private final String base;
+    private final LocalDate today = LocalDate.now();
+
+    private CalendarLoadTest(String base, ExecutorService executor)
+    {
+        this.base = base.endsWith("/") ? base.substring(0, base.length() - 1) : base;
+        client = HttpClient.newBuilder().executor(executor).connectTimeout(Duration.ofSeconds(5)).build();
+    }
+
+    /**
+     * Runs one client until the deadline
+     * @return the latency of every request sent, in nanoseconds
+     */
+    private long[] run(long deadline) throws Exception
+    {
+        long[] latencies = new long[1024];
+        int count = 0;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < deadline)
+        {
+            HttpRequest request = next(random);
+            long sent = System.nanoTime();
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            long took = System.nanoTime() - sent;
+            if (response.statusCode() >= 400 && response.statusCode() != 409)
+                throw new IllegalStateException(response.statusCode() + " " + response.body());
+            if (count == latencies.length)
+                latencies = Arrays.copyOf(latencies, count * 2);
+            latencies[count++] = took;
+        }
+        return Arrays.copyOf(latencies, count);
+    }
+
+    private HttpRequest next(ThreadLocalRandom random)
+    {
+        LocalDate day = today.plusDays(random.nextInt(365));
+        int roll = random.nextInt(100);
+        if (roll < 70)
+            return get("/events?from=" + day + "T00:00&to=" + day + "T23:59");
+        if (roll < 85)
+        {
+            int hour = random.nextInt(23);
+            String start = String.format("%sT%02d:00", day, hour);
+            String end = String.format("%sT%02d:00", day, hour + 1);
+            return HttpRequest.newBuilder(URI.create(base + "/events?start=" + start + "&end=" + end + "&name=" + NAME))
+                    .POST(HttpRequest.BodyPublishers.noBody()).build();
+        }
+        if (roll < 95)
+            return get("/free?from=" + day + "T08:00&to=" + day.plusDays(7) + "T18:00&duration=60&limit=5");
+        return HttpRequest.newBuilder(URI.create(base + "/events?day=" + day + "&name=" + NAME)).DELETE().build();
+    }
+
+    private HttpRequest get(String path)
+    {
+        return HttpRequest.newBuilder(URI.create(base + path)).GET().build();
+    }
+
+    /**
+     * Runs the load test and prints requests per second and latency percentiles
+     * @param args optional server url, number of clients and seconds to run
+     * @throws Exception if a client fails
+     */
+    public static void main(String[] args) throws Exception
+    {
+        String url = args.length > 0 ? args[0] : "http://localhost:" + CalendarServer.DEFAULT_PORT;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        ExecutorService executor = CalendarServer.newRequestExecutor();
+        CalendarLoadTest test = new CalendarLoadTest(url, executor);
+        // A short warm-up so the JIT has compiled both ends before measuring
+        test.run(System.nanoTime() + 1_000_000_000L);
+
+        long started = System.nanoTime();
+        long deadline = started + seconds * 1_000_000_000L;
+        List<Future<long[]>> runs = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++)
+            runs.add(executor.submit(() -> test.run(deadline)));
+        long[][] results = new long[clients][];
+        int total = 0;
+        for (int i = 0; i < clients; i++)
+        {
+            results[i] = runs.get(i).get();
+            total += results[i].length;
+        }
+        long elapsed = System.nanoTime() - started;
+        executor.shutdown();
+
+        long[] all = new long[total];
+        int at = 0;
+        for (long[] r : results)
+        {
+            System.arraycopy(r, 0, all, at, r.length);
+            at += r.length;
+        }
+        Arrays.sort(all);
+        System.out.printf("%d requests from %d clients in %.1f s: %.0f requests/s%n", total, clients,
+                elapsed / 1e9, total / (elapsed / 1e9));
+        if (total > 0)
+            System.out.printf("latency p50 %.2f ms, p99 %.2f ms, max %.2f ms%n", percentile(all, 0.50) / 1e6,
+                    percentile(all, 0.99) / 1e6, all[total - 1] / 1e6);
+    }
+
+    private static long percentile(long[] sorted, double p)
+    {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+}
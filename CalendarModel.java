@@ -1,16 +1,30 @@
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.Comparator;
-import java.util.Date;
 import java.util.GregorianCalendar;
-import java.util.Scanner;
-import javax.swing.event.ChangeEvent;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import javax.swing.event.ChangeListener;
 
 enum MONTHS
@@ -26,46 +40,166 @@ enum DAYS
  * Represent a Calendar Object. Used to display a calendar and allow a user to browse through the days, months,
  * and years. It also allows users to create and store events within the calendar. Events and the current date
  * are highlighted. 
+ *
+ * Events are held by an EventIndex, created by newIndex(). This class uses the single-threaded
+ * PlainEventIndex; ConcurrentCalendarModel swaps in the lock-striped StripedEventIndex so the model can be
+ * shared between threads.
+ * The current date is replaced as a whole on every move rather than changed in place, so it can always be
+ * read without locking.
+ *
+ * The index hands out frozen snapshots in O(1). Saves and exports are written from a snapshot on a
+ * background thread, so edits carry on against the live index while the file is being written.
+ *
+ * A model can host several named calendars (e.g. personal, team, rooms), each a NamedCalendar with its
+ * own index and files. The default calendar uses events.txt and takes the changes made without a calendar
+ * name. The day, month and range views combine the visible calendars by merging their sorted Events
+ * lazily, so nothing is concatenated or re-sorted, and hiding a calendar costs no reload.
+ *
+ * Adds, day lookups, removals, loads, saves and listener deliveries are counted and timed by
+ * CalendarMetrics, which is published over JMX once the model has loaded its files.
  * @author Alejandro Lopez
  */
 public class CalendarModel {
-    private ArrayList<Event> myEvents = new ArrayList();
-    private GregorianCalendar currentCal = new GregorianCalendar();
+    private final EventIndex index = newIndex();
+    static final String DEFAULT_CALENDAR = "default";
+    private volatile GregorianCalendar currentCal = new GregorianCalendar();
     private MONTHS[] monthArray = MONTHS.values();
     private DAYS[] dayArray = DAYS.values();
-    private SimpleDateFormat sdf = new SimpleDateFormat("EEEEEEEEEE, d MMMMMMMMM yyyy HH:mm");
-    private ArrayList<ChangeListener> listeners = new ArrayList<>();
+    private final ChangeDispatcher dispatcher = new ChangeDispatcher();
+    private final CalendarMetrics metrics = new CalendarMetrics(this, dispatcher);
+    static final String TEXT_FILE = "events.txt";
+    static final String BINARY_FILE = "events.bin";
+    static final String MONTH_FILE = "events.months";
+    static final String JOURNAL_FILE = "events.journal";
+    static final String AUDIT = System.getProperty("calendar.audit", "");
+    private final NamedCalendar primary = new NamedCalendar(DEFAULT_CALENDAR, index, TEXT_FILE, BINARY_FILE,
+            MONTH_FILE, JOURNAL_FILE);
+    private volatile NamedCalendar[] calendars = {primary};
+    private volatile CompletableFuture<Void> loading = CompletableFuture.completedFuture(null);
+    private volatile CompletableFuture<Void> saving = CompletableFuture.completedFuture(null);
+    private boolean shutdownHooked;
+    static final long SHUTDOWN_WAIT_SECONDS = 30;
+    private static final ExecutorService BACKGROUND = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "calendar-save");
+        t.setDaemon(true);
+        return t;
+    });
     
     
     
     /**
-     * Used to add an event to the Calendar. Checks if the ArrayList of Events is empty or if it has any 
-     * conflicts. It then calls on sort after the Event is added.
+     * Creates the index holding the Events of this Calendar. Called once while the model is being
+     * constructed, so overrides must not depend on the subclass's own fields.
+     * @return an empty index
+     */
+    protected EventIndex newIndex()
+    {
+        return new PlainEventIndex();
+    }
+    
+    /**
+     * Used to add an event to the Calendar. Asks the index for any Event overlapping the new
+     * one, which only visits the part of the index near its start and end times. The index keeps the
+     * Events ordered, so no sort is needed after the Event is added.
      * @param e Event object to be stored in Calendar
+     * @return true if the Event was added, false if it conflicts with a stored Event
      * Precondition: e is a valid (non-null) Event object
      * Postcondition: the Event will be added to the Calendar
      */
     public boolean add(Event e)
     {
-        int hits = 0;
-        if(myEvents.size() == 0)
-            myEvents.add(e);
+        return add(primary, e);
+    }
+    
+    /**
+     * Adds an event to one of the hosted calendars. It is only checked for conflicts with the Events
+     * of that calendar.
+     * @param calendar name of the calendar
+     * @param e Event object to be stored
+     * @return true if the Event was added, false if it conflicts with an Event of that calendar
+     * @throws IllegalArgumentException if there is no calendar with that name
+     */
+    public boolean add(String calendar, Event e)
+    {
+        return add(calendar(calendar), e);
+    }
+    
+    private boolean add(NamedCalendar calendar, Event e)
+    {
+        long began = System.nanoTime();
+        boolean added = calendar.index().add(e);
+        if (added)
+        {
+            calendar.compactIfNeeded();
+            dispatcher.post(ModelChangeEvent.eventsChanged(this, e.getEpochDay(), e.getLastEpochDay()));
+        }
         else
+            metrics.addConflicts.incrementAndGet();
+        metrics.add.recordSince(began);
+        return added;
+    }
+    
+    /**
+     * Adds an Event that repeats by a rule. The series is stored as one Event and checked against the
+     * stored Events and series without expanding it; its occurrences show up in every day, month and
+     * range lookup. Removing the Events of a day skips the series on that day.
+     * @param first the first occurrence
+     * @param rule how the Event repeats
+     * @return true if the series was added, false if any occurrence conflicts with a stored Event
+     */
+    public boolean addRecurring(Event first, Recurrence rule)
+    {
+        return add(new RecurringEvent(first, rule));
+    }
+    
+    /**
+     * Adds a batch of Events, e.g. an import. The batch is sorted once and checked in a single
+     * sweep against itself and the stored Events, so this costs O((n + k) log n) instead of one
+     * conflict query and notification per Event. When two Events of the batch overlap, the one
+     * starting first is kept. Recurring series in the batch are added one by one after the rest.
+     * Listeners are notified once for the whole batch.
+     * @param events the Events to be added
+     * @return the number of added Events and every rejected Event with the Event it conflicts with
+     */
+    public ImportReport addAll(Collection<Event> events)
+    {
+        ArrayList<Event> sorted = new ArrayList<>(events.size());
+        ArrayList<Event> series = new ArrayList<>();
+        for (Event e : events)
         {
-            for (int i = 0; i < myEvents.size(); i++)
-            {
-                if (myEvents.get(i).eventConflicts(e))
-                    hits++;
-            }
-            if(hits == 0)
-                myEvents.add(e);
-            else 
-                return false;
+            if (e instanceof RecurringEvent)
+                series.add(e);
+            else
+                sorted.add(e);
         }
-
-        Collections.sort(myEvents,eventComparator);
-        notifyListeners();
-        return true;
+        sorted.sort(eventComparator);
+        
+        ImportReport report = new ImportReport();
+        for (Event e : index.addAll(sorted, report))
+            report.added(e);
+        for (Event s : series)
+        {
+            if (index.add(s))
+                report.added(s);
+            else
+                report.reject(s, null);
+        }
+        primary.compactIfNeeded();
+        if (report.getAddedCount() > 0)
+            dispatcher.post(ModelChangeEvent.bulkImport(this, report.getFirstDay(), report.getLastDay()));
+        return report;
+    }
+    
+    /**
+     * Adds the events of a file in the events.txt format through addAll(), so unlike importText()
+     * the events are checked for conflicts
+     * @param file the file to be read
+     * @return the number of added Events and every rejected Event
+     * @throws IOException if the file cannot be read
+     */
+    public ImportReport importFrom(Path file) throws IOException
+    {
+        return addAll(EventFileLoader.load(file));
     }
     
     /**
@@ -77,60 +211,241 @@ public class CalendarModel {
          * Compare method for each Event in the ArrayList data structure
          * @param e1 first event to be compared
          * @param e2 second event to be compared
-         * @return negative value if e1's date comes before e2, otherwise returns e2
+         * @return negative value if e1 starts before e2 (or ends first when both start together)
          * Precondition: There is at least one event object to be compared
          * Postcondition: The ArrayList will be able to be sorted 
          */
         @Override
         public int compare(Event e1, Event e2)
         {            
-            return e1.getDate().getTime().compareTo(e2.getDate().getTime());
+            int cmp = Long.compare(e1.getStartMinute(), e2.getStartMinute());
+            return cmp != 0 ? cmp : Long.compare(e1.getEndMinute(), e2.getEndMinute());
         }
     };
 
     /**
-     * Reads the text file and parses any data within it and adds events with the given
-     * input to the ArrayList of Events. After it stores all of the elements, it calls 
-     * Collections' sort method to sort the ArrayList
+     * Reads the events file and adds its events to the index of Events. The month store (see
+     * MonthStore) is used when one is present, then the binary store, otherwise the text file is parsed
+     * by EventFileLoader. All of them hand back the Events already sorted so the index can be built in one pass. The changes journaled
+     * since the last save are then replayed on top, and the journal is kept open so that every
+     * later change is written to disk as it happens. With -Dcalendar.audit=report the loaded Events are
+     * first checked for conflicts by ConflictAudit, and with -Dcalendar.audit=repair the Events it
+     * drops are left out. Only the default calendar is read here; addCalendar() reads the others.
      */
     public void loadFromFile()
     {
-        String fromFile;
-        try
+        hookShutdown();
+        metrics.publish();
+        long began = System.nanoTime();
+        primary.load(AUDIT);
+        metrics.load.recordSince(began);
+        if(index.size() == 0)
+            System.out.println("There are no events stored in this file.");
+    }
+    
+    /**
+     * Loads the events file like loadFromFile() without blocking the caller, for a window that should
+     * show up at once. The file is read on a background thread and its Events are added on the event
+     * dispatch thread by ProgressiveLoad: the month of the current date first, then the rest in chunks
+     * outward from it. Listeners are told about each chunk as it lands, so the month grid fills in while
+     * the rest streams in. The journal is opened once every Event is in; Events added before then are
+     * neither checked against the unloaded Events nor journaled, so callers should hold edits until the
+     * returned future completes. A save requested in the meantime waits for the load.
+     * @return completes on the event dispatch thread once every Event is loaded
+     */
+    public CompletableFuture<Void> loadInBackground()
+    {
+        hookShutdown();
+        metrics.publish();
+        long began = System.nanoTime();
+        long first = getCurrentEpochDay() - getDay() + 1;
+        CompletableFuture<Void> load = ProgressiveLoad.start(primary, AUDIT, first, first + getMaxDays() - 1,
+                BACKGROUND, chunk -> dispatcher.post(ModelChangeEvent.bulkImport(this,
+                        chunk.get(0).getEpochDay(), lastDay(chunk))));
+        loading = load;
+        return load.whenComplete((v, t) -> {
+            metrics.load.recordSince(began);
+            if (t != null)
+                System.err.println(t);
+            else if (index.size() == 0)
+                System.out.println("There are no events stored in this file.");
+        });
+    }
+    
+    private static long lastDay(List<Event> events)
+    {
+        long last = Long.MIN_VALUE;
+        for (Event e : events)
+            last = Math.max(last, e.getLastEpochDay());
+        return last;
+    }
+    
+    /**
+     * Makes sure the journals are closed cleanly when the program exits: a save still being written
+     * is waited for (up to SHUTDOWN_WAIT_SECONDS), then every journal is written out and closed. One hook
+     * per model does both in order, so a save is never cut off by its journal closing under it.
+     */
+    private synchronized void hookShutdown()
+    {
+        if (shutdownHooked)
+            return;
+        shutdownHooked = true;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try
+            {
+                saving.get(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException | ExecutionException | TimeoutException e)
+            {
+                System.err.println("Exiting before the save finished: " + e);
+            }
+            for (NamedCalendar c : calendars)
+                c.close();
+        }, "calendar-shutdown"));
+    }
+    
+    /**
+     * Hosts another calendar, reading its Events from its own files: name.events.txt, or
+     * name.events.months or name.events.bin when present, and name.events.journal. The calendar starts out visible.
+     * @param name name of the calendar, made of letters, digits, '-' and '_'
+     * @throws IllegalArgumentException if the name is not valid or already taken
+     */
+    public void addCalendar(String name)
+    {
+        if (!name.matches("[A-Za-z0-9_-]+"))
+            throw new IllegalArgumentException("Invalid calendar name: " + name);
+        NamedCalendar added = new NamedCalendar(name, newIndex(), name + ".events.txt", name + ".events.bin",
+                name + ".events.months", name + ".events.journal");
+        synchronized (this)
         {
-            File file = new File("events.txt");
-            Scanner in = new Scanner(file);
-            while(in.hasNextLine())
+            for (NamedCalendar c : calendars)
             {
-                fromFile = in.nextLine();
-                if (fromFile != null)
-                {
-                    String [] split = fromFile.split("-|;");
-                    split[0] = split[0].trim();
-                    split[1] = split[1].trim();
-
-                    if (split.length == 3)
-                    {
-                        split[2] = split[2].trim();
-                        myEvents.add(new Event(split[0],split[1],split[2]));
-                    }
-                    else
-                        myEvents.add(new Event(split[0],split[1]));
-                }
+                if (c.getName().equals(name))
+                    throw new IllegalArgumentException("Calendar already exists: " + name);
             }
+            NamedCalendar[] more = Arrays.copyOf(calendars, calendars.length + 1);
+            more[calendars.length] = added;
+            calendars = more;
         }
-        catch(FileNotFoundException e)
+        hookShutdown();
+        metrics.publish();
+        long began = System.nanoTime();
+        added.load(AUDIT);
+        metrics.load.recordSince(began);
+        dispatcher.post(ModelChangeEvent.bulkImport(this, Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+    
+    /**
+     * Lists the calendars that could not be read. They stay in memory but are never saved, so a damaged
+     * file is left for repair instead of being overwritten.
+     * @return one "calendar: error" line per read-only calendar, empty if every calendar loaded
+     */
+    public List<String> getLoadErrors()
+    {
+        ArrayList<String> errors = new ArrayList<>();
+        for (NamedCalendar c : calendars)
         {
-            System.err.println(e);
-            System.out.println("There is no existing file.");
+            if (c.getReadOnlyReason() != null)
+                errors.add(c.getName() + ": " + c.getReadOnlyReason());
+        }
+        return errors;
+    }
+    
+    /**
+     * Gets the names of the hosted calendars, the default calendar first
+     * @return the names in the order the calendars were added
+     */
+    public List<String> getCalendarNames()
+    {
+        ArrayList<String> names = new ArrayList<>();
+        for (NamedCalendar c : calendars)
+            names.add(c.getName());
+        return names;
+    }
+    
+    /**
+     * Shows or hides a calendar in the combined views. Its Events stay loaded, so this costs no I/O;
+     * listeners are told that every day changed.
+     * @param name name of the calendar
+     * @param visible true to show its Events
+     * @throws IllegalArgumentException if there is no calendar with that name
+     */
+    public void setCalendarVisible(String name, boolean visible)
+    {
+        NamedCalendar calendar = calendar(name);
+        if (calendar.isVisible() == visible)
+            return;
+        calendar.setVisible(visible);
+        dispatcher.post(ModelChangeEvent.eventsChanged(this, Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+    
+    /**
+     * Checks if a calendar is shown in the combined views
+     * @param name name of the calendar
+     * @return true if its Events are shown
+     * @throws IllegalArgumentException if there is no calendar with that name
+     */
+    public boolean isCalendarVisible(String name)
+    {
+        return calendar(name).isVisible();
+    }
+    
+    private NamedCalendar calendar(String name)
+    {
+        for (NamedCalendar c : calendars)
+        {
+            if (c.getName().equals(name))
+                return c;
+        }
+        throw new IllegalArgumentException("No such calendar: " + name);
+    }
+    
+    /**
+     * Gets the visible calendars
+     * @return the calendars shown in the combined views
+     */
+    private NamedCalendar[] visible()
+    {
+        NamedCalendar[] all = calendars;
+        int shown = 0;
+        for (NamedCalendar c : all)
+        {
+            if (c.isVisible())
+                shown++;
         }
-        if(myEvents.isEmpty())
-            System.out.println("There are no events stored in this text file.");
-        Collections.sort(myEvents,eventComparator);
+        if (shown == all.length)
+            return all;
+        NamedCalendar[] visible = new NamedCalendar[shown];
+        int i = 0;
+        for (NamedCalendar c : all)
+        {
+            if (c.isVisible())
+                visible[i++] = c;
+        }
+        return visible;
     }
     
     /**
-     * Removes the selected Event from the Calendar.
+     * Gets the Events of a day across the visible calendars. With one visible calendar its list is
+     * returned as is; otherwise the calendars' sorted lists are merged.
+     * @param day epoch day to look up
+     * @return read-only list of the day's Events in start-time order
+     */
+    private List<Event> eventsOn(long day)
+    {
+        NamedCalendar[] shown = visible();
+        if (shown.length == 1)
+            return shown[0].index().eventsOn(day);
+        ArrayList<Iterator<Event>> sources = new ArrayList<>(shown.length);
+        for (NamedCalendar c : shown)
+            sources.add(c.index().eventsOn(day).iterator());
+        ArrayList<Event> merged = new ArrayList<>();
+        new MergingIterator(sources).forEachRemaining(merged::add);
+        return merged;
+    }
+    
+    /**
+     * Removes the selected Event from the visible calendars. Only the Events of the given date are looked at.
      * @param gc the date that the event is held on
      * @param inp the title of the event to be deleted
      * Precondition: the event exists and the user inputs the arguments correctly
@@ -138,30 +453,78 @@ public class CalendarModel {
      */
     public void removeSelected(GregorianCalendar gc, String inp)
     {
-        for (int i = 0; i < myEvents.size(); i++)
+        long began = System.nanoTime();
+        long day = DayIndex.epochDay(gc);
+        for (NamedCalendar c : visible())
         {
-            if(myEvents.get(i).getDate().get(Calendar.DATE) == gc.get(Calendar.DATE) && myEvents.get(i).getName().equalsIgnoreCase(inp))
-                myEvents.remove(i);
+            c.index().removeNamed(day, inp);
+            c.compactIfNeeded();
         }
+        dispatcher.post(ModelChangeEvent.eventsChanged(this, day, day));
+        metrics.remove.recordSince(began);
         System.out.println("Slected event was removed from that day.");
     }
     
     /**
-     * Removes all Events from the given day
+     * Removes all Events of the visible calendars from the given day
      * @param gc the date to have Events cleared from
      * Precondition: the day has Events
      * Postcondition: Events on that day are cleared
      */
     public void removeAll(GregorianCalendar gc)
     {
-        for (int i = myEvents.size() - 1; i >= 0; i--)
+        long began = System.nanoTime();
+        long day = DayIndex.epochDay(gc);
+        for (NamedCalendar c : visible())
         {
-            if(myEvents.get(i).getDate().get(Calendar.DATE) == gc.get(Calendar.DATE))
-                myEvents.remove(i);
+            c.index().removeDay(day);
+            c.compactIfNeeded();
         }
+        dispatcher.post(ModelChangeEvent.eventsChanged(this, day, day));
+        metrics.remove.recordSince(began);
         System.out.println("All events were removed from that day.");
     }
     
+    /**
+     * Removes a whole recurring series from the visible calendars, every occurrence at once. Removing
+     * the series' Events from a day with removeSelected() or removeAll() only skips that day.
+     * @param gc a date the series occurs on
+     * @param inp the title of the series to be deleted
+     */
+    public void removeSeries(GregorianCalendar gc, String inp)
+    {
+        long began = System.nanoTime();
+        long day = DayIndex.epochDay(gc);
+        for (NamedCalendar c : visible())
+        {
+            c.index().removeSeries(day, inp);
+            c.compactIfNeeded();
+        }
+        dispatcher.post(ModelChangeEvent.eventsChanged(this, Long.MIN_VALUE, Long.MAX_VALUE));
+        metrics.remove.recordSince(began);
+        System.out.println("The selected series was removed.");
+    }
+    
+    /**
+     * Removes Events from a day of one calendar without printing anything, e.g. for a service
+     * @param calendar name of the calendar
+     * @param day epoch day of the Events
+     * @param name title of the Events to remove, compared ignoring case, or null to clear the whole day
+     * @throws IllegalArgumentException if there is no calendar with that name
+     */
+    public void remove(String calendar, long day, String name)
+    {
+        long began = System.nanoTime();
+        NamedCalendar c = calendar(calendar);
+        if (name == null)
+            c.index().removeDay(day);
+        else
+            c.index().removeNamed(day, name);
+        c.compactIfNeeded();
+        dispatcher.post(ModelChangeEvent.eventsChanged(this, day, day));
+        metrics.remove.recordSince(began);
+    }
+    
     
     /**
      * Prints all Events on a specific day (defined by the user)
@@ -171,27 +534,17 @@ public class CalendarModel {
      */
     public void getSelectedEvent(GregorianCalendar gc)
     {
-        Date tempDate = new Date();
+        SimpleDateFormat sdf = new SimpleDateFormat("EEEEEEEEEE, d MMMMMMMMM yyyy HH:mm");
+        SimpleDateFormat time = new SimpleDateFormat("HH:mm");
         int counter = 0;
-        for (int i = 0; i < myEvents.size(); i++)
+        for (Event ev : eventsOn(DayIndex.epochDay(gc)))
         {
-            tempDate = myEvents.get(i).getDate().getTime();
-            if(gc.get(Calendar.YEAR) == myEvents.get(i).getDate().get(Calendar.YEAR))
-                if(gc.get(Calendar.MONTH) == myEvents.get(i).getDate().get(Calendar.MONTH))
-                    if(gc.get(Calendar.DATE) == myEvents.get(i).getDate().get(Calendar.DATE))
-                    {
-                        System.out.print(sdf.format(myEvents.get(i).getDate().getTime()));
-                        if(myEvents.get(i).hasEndTime())
-                        {
-                            sdf = new SimpleDateFormat("HH:mm");
-                            tempDate = myEvents.get(i).getEndTime().getTime();
-                            System.out.println(" - " + sdf.format(tempDate.getTime()) + ";" + myEvents.get(i).getName());
-                            sdf = new SimpleDateFormat("EEEEEEEEEE, d MMMMMMMMM yyyy HH:mm");
-                        }
-                        else
-                            System.out.println(" " + myEvents.get(i).getName() + "\n");
-                        counter++;
-                    }
+            System.out.print(sdf.format(ev.getDate().getTime()));
+            if(ev.hasEndTime())
+                System.out.println(" - " + time.format(ev.getEndTime().getTime()) + ";" + ev.getName());
+            else
+                System.out.println(" " + ev.getName() + "\n");
+            counter++;
         }
         if (counter == 0)
             System.out.println("There are no events on that day.\n");
@@ -202,6 +555,7 @@ public class CalendarModel {
      */
     public void printCalendar()
     {
+        GregorianCalendar currentCal = this.currentCal;
         String frontSpace = "";
         GregorianCalendar today = new GregorianCalendar();
         GregorianCalendar temp = new GregorianCalendar(currentCal.get(Calendar.YEAR), currentCal.get(Calendar.MONTH), 1);
@@ -231,56 +585,114 @@ public class CalendarModel {
     
     /**
      * Prints Calendar while highlighting the current day and all events held in the current month.
+     * The days with Events come from the month's occupancy mask, so this costs O(days in month).
      * Precondition: There are Events in the given month
      * Postcondition: All days in month with an Event are highlighted
      */
     public void printEventCalendar()
     {
-        String frontSpace = "";
-        GregorianCalendar today = new GregorianCalendar();
-        GregorianCalendar temp = new GregorianCalendar(currentCal.get(Calendar.YEAR), currentCal.get(Calendar.MONTH), 1);
-        
-        for (int i = 0; i < temp.get(Calendar.DAY_OF_WEEK)-1; i++)
-            frontSpace += "     ";
+        GregorianCalendar currentCal = this.currentCal;
+        System.out.print(formatMonth(currentCal.get(Calendar.YEAR), currentCal.get(Calendar.MONTH)));
+    }
+    
+    /**
+     * Prints all twelve months of the current year, highlighting the days that hold Events. Each
+     * month costs one mask lookup.
+     */
+    public void printYearCalendar()
+    {
+        int year = currentCal.get(Calendar.YEAR);
+        StringBuilder out = new StringBuilder();
+        for (int month = 0; month < 12; month++)
+            out.append(formatMonth(year, month)).append('\n');
+        System.out.print(out);
+    }
+    
+    /**
+     * Formats one month in the layout of printEventCalendar()
+     * @param year the year
+     * @param month the month, 0 based like Calendar.MONTH
+     * @return the month grid with the days holding Events in braces
+     */
+    private String formatMonth(int year, int month)
+    {
+        GregorianCalendar first = new GregorianCalendar(year, month, 1);
+        int skipped = first.get(Calendar.DAY_OF_WEEK) - 1;
+        int length = first.getActualMaximum(Calendar.DAY_OF_MONTH);
+        int mask = monthMask(year, month);
         
-        System.out.printf("\t%10s %s\n   Su   Mo   Tu   We   Th   Fr   Sa\n%s",monthArray[currentCal.get(Calendar.MONTH)], currentCal.get(Calendar.YEAR),frontSpace);
-
-        for (int i = 0; i < currentCal.getActualMaximum(Calendar.DAY_OF_MONTH); i++)
+        StringBuilder out = new StringBuilder(256);
+        out.append(String.format("\t%10s %s\n   Su   Mo   Tu   We   Th   Fr   Sa\n", monthArray[month], year));
+        for (int i = 0; i < skipped; i++)
+            out.append("     ");
+        for (int i = 0; i < length; i++)
         {
-            if(hasEvent(i+1))
-            {
-                System.out.printf("%2s%2d}","{", 1 + i);
-                temp.add(Calendar.DATE,1);
-            }
+            if ((mask & (1 << i)) != 0)
+                out.append(String.format("%2s%2d}", "{", 1 + i));
             else 
-            {
-                System.out.printf("%5d", 1 + i);
-                temp.add(Calendar.DATE,1);
-            }
-            if(temp.get(Calendar.DAY_OF_WEEK) == 1)
-                System.out.print("\n");
+                out.append(String.format("%5d", 1 + i));
+            if ((skipped + i + 1) % 7 == 0)
+                out.append('\n');
         }
-        System.out.println();
+        out.append(System.lineSeparator());
+        return out.toString();
+    }
+    
+    /**
+     * Gets the days of the current month that hold Events
+     * @return mask with bit d-1 set if an Event starts on day d
+     */
+    public int getEventMask()
+    {
+        GregorianCalendar cal = currentCal;
+        return monthMask(cal.get(Calendar.YEAR), cal.get(Calendar.MONTH));
+    }
+    
+    private int monthMask(int year, int month)
+    {
+        int mask = 0;
+        for (NamedCalendar c : visible())
+            mask |= c.index().monthMask(year, month);
+        return mask;
     }
     
     /**
-     * Checks if a given day has an Event.
-     * @param iter the iterator going through each day of the month
-     * @return true if the given day has an Event
-     * Precondition: There are Events in that month
-     * Postcondition: Event(s) will be highlighted in month view
+     * Gets the number of Events on each day of the current month, e.g. for heat shading
+     * @return array whose element d-1 is the number of Events starting on day d
      */
-    private boolean hasEvent(int iter)
+    public int[] getEventCounts()
     {
-        for (int i = 0; i < myEvents.size(); i++)
+        return getEventCounts(currentCal);
+    }
+    
+    /**
+     * Gets the number of Events on each day of a month
+     * @param cal any date in the month
+     * @return array whose element d-1 is the number of Events starting on day d
+     */
+    public int[] getEventCounts(GregorianCalendar cal)
+    {
+        NamedCalendar[] shown = visible();
+        int[] counts = new int[31];
+        for (NamedCalendar c : shown)
         {
-            if(currentCal.get(Calendar.MONTH) ==  myEvents.get(i).getDate().get(Calendar.MONTH))
-            {
-                if (myEvents.get(i).getDate().get(Calendar.DATE) == iter)
-                    return true;
-            }
+            int[] more = c.index().monthCounts(cal.get(Calendar.YEAR), cal.get(Calendar.MONTH));
+            if (shown.length == 1)
+                return more;
+            for (int d = 0; d < counts.length; d++)
+                counts[d] += more[d];
         }
-        return false;
+        return counts;
+    }
+    
+    /**
+     * Checks if a day of the current month has an Event
+     * @param day day of the month
+     * @return true if an Event starts on that day
+     */
+    public boolean hasEvent(int day)
+    {
+        return (getEventMask() & (1 << (day - 1))) != 0;
     }
     
     /**
@@ -290,32 +702,21 @@ public class CalendarModel {
      */
     public void printDayCalendar()
     {
+        GregorianCalendar currentCal = this.currentCal;
         System.out.println("Day view");
-        sdf = new SimpleDateFormat("EEEEEEEEEE, d MMMMMMMMM yyyy");
+        SimpleDateFormat sdf = new SimpleDateFormat("EEEEEEEEEE, d MMMMMMMMM yyyy");
         System.out.println("Current date: " + sdf.format(currentCal.getTime()));
         
-        Date tempDate = new Date();
-        
-        
-        for (int i = 0; i < myEvents.size(); i++)
+        sdf = new SimpleDateFormat("HH:mm");
+        for (Event ev : eventsOn(DayIndex.epochDay(currentCal)))
         {
-            if (myEvents.get(i).getDate().get(Calendar.DATE) == currentCal.get(Calendar.DATE))
-            {
-                sdf = new SimpleDateFormat("HH:mm");
-                
-                System.out.print(myEvents.get(i).getName() + " ");
-                System.out.print(sdf.format(myEvents.get(i).getDate().getTime()));
-                tempDate = myEvents.get(i).getDate().getTime();
-                if (myEvents.get(i).hasEndTime())
-                {
-                    tempDate = myEvents.get(i).getEndTime().getTime();
-                    System.out.println(" - " + sdf.format(tempDate.getTime()));
-                }
-                else
-                    System.out.println();
-            }
+            System.out.print(ev.getName() + " ");
+            System.out.print(sdf.format(ev.getDate().getTime()));
+            if (ev.hasEndTime())
+                System.out.println(" - " + sdf.format(ev.getEndTime().getTime()));
+            else
+                System.out.println();
         }
-        sdf = new SimpleDateFormat("EEEEEEEEEE, d MMMMMMMMM yyyy HH:mm");
     }
     
     /**
@@ -325,23 +726,19 @@ public class CalendarModel {
      */
     public void printAll()
     {
-        if (myEvents.size() != 0)
+        List<Event> events = snapshot();
+        if (events.size() != 0)
         {
-            Date tempDate = new Date();
+            SimpleDateFormat sdf = new SimpleDateFormat("EEEEEEEEEE, d MMMMMMMMM yyyy HH:mm");
+            SimpleDateFormat time = new SimpleDateFormat("HH:mm");
             System.out.println();
-            for(int i = 0; i < myEvents.size(); i++)
+            for (Event ev : events)
             {
-                tempDate = myEvents.get(i).getDate().getTime();
-                System.out.print(sdf.format(myEvents.get(i).getDate().getTime()));
-                if (myEvents.get(i).hasEndTime())
-                {
-                    sdf = new SimpleDateFormat("HH:mm");
-                    tempDate = myEvents.get(i).getEndTime().getTime();
-                    System.out.println(" - " + sdf.format(tempDate.getTime()) + ";" + myEvents.get(i).getName());
-                    sdf = new SimpleDateFormat("EEEEEEEEEE, d MMMMMMMMM yyyy HH:mm");
-                }
+                System.out.print(sdf.format(ev.getDate().getTime()));
+                if (ev.hasEndTime())
+                    System.out.println(" - " + time.format(ev.getEndTime().getTime()) + ";" + ev.getName());
                 else
-                    System.out.println("; " + myEvents.get(i).getName());
+                    System.out.println("; " + ev.getName());
             }
             System.out.println();
         }
@@ -354,8 +751,7 @@ public class CalendarModel {
      */
     public void prevMonth()
     {
-        currentCal.add(Calendar.MONTH,-1);
-        notifyListeners();
+        move(Calendar.MONTH, -1);
     }
     
     /**
@@ -363,8 +759,7 @@ public class CalendarModel {
      */
     public void nextMonth()
     {
-        currentCal.add(Calendar.MONTH,1);
-        notifyListeners();
+        move(Calendar.MONTH, 1);
     }
     
     /**
@@ -372,8 +767,7 @@ public class CalendarModel {
      */
     public void prevDay()
     {
-        currentCal.add(Calendar.DATE,-1);
-        notifyListeners();
+        move(Calendar.DATE, -1);
     }
     
     /**
@@ -381,51 +775,128 @@ public class CalendarModel {
      */
     public void nextDay()
     {
-        currentCal.add(Calendar.DATE,1);
-        notifyListeners();
+        move(Calendar.DATE, 1);
     }
     
     /**
-     * Prints all events to a text file to be stored for later use
+     * Moves the current date. A moved copy replaces the current date, so readers on other threads
+     * always see either the old or the new date in full.
+     * @param field the Calendar field to change
+     * @param amount the amount to add to the field
+     */
+    private void move(int field, int amount)
+    {
+        synchronized (this)
+        {
+            GregorianCalendar moved = (GregorianCalendar) currentCal.clone();
+            moved.add(field, amount);
+            currentCal = moved;
+        }
+        dispatcher.post(ModelChangeEvent.dateMoved(this));
+    }
+    
+    /**
+     * Prints all events to a file to be stored for later use, waiting until the file is written.
+     * The month store is written when one is present, rewriting only the months changed since the
+     * last save, then the binary store, otherwise the text file. Must not be called
+     * on the event dispatch thread while loadInBackground() is running, since the save waits for it.
      * Precondition: there are Events stored in the Calendar
-     * Postcondition: text file is populated with the Events
+     * Postcondition: the events file is populated with the Events
      */
     public void printToFile()
     {
-        FileOutputStream fout;
-        try{
-            fout = new FileOutputStream("events.txt");
+        saveInBackground().join();
+    }
+    
+    /**
+     * Saves a snapshot of all events to the events file on a background thread, every hosted calendar
+     * to its own file. Edits made while the file is written are not part of it; they stay in the
+     * journal until the next save. While loadInBackground() is running the save waits for it, so a
+     * half-loaded calendar never overwrites its file.
+     * @return completes once the file is written; a failed save is reported and completes normally
+     */
+    public CompletableFuture<Void> saveInBackground()
+    {
+        long began = System.nanoTime();
+        CompletableFuture<Void> save = loading.exceptionally(t -> null).thenCompose(v -> {
+            NamedCalendar[] all = calendars;
+            CompletableFuture<?>[] saves = new CompletableFuture<?>[all.length];
+            for (int i = 0; i < all.length; i++)
+                saves[i] = all[i].save(BACKGROUND);
+            return CompletableFuture.allOf(saves);
+        }).whenComplete((v, t) -> metrics.save.recordSince(began));
+        saving = save;
+        return save;
+    }
+    
+    /**
+     * Prints the events of the visible calendars to a text file in the events.txt format. The file is
+     * written from a snapshot on a background thread.
+     * @param fileName the file to be written
+     * @return completes once the file is written; a failed export is reported and completes normally
+     */
+    public CompletableFuture<Void> exportText(String fileName)
+    {
+        List<Event> events = snapshot();
+        return CompletableFuture.runAsync(() -> {
+            try
+            {
+                writeText(Paths.get(fileName), events);
+            }
+            catch(IOException e)
+            {
+                System.err.println(e);
+                System.out.println("Error creating output text file.");
+            }
+        }, BACKGROUND);
+    }
+    
+    /**
+     * Adds the events of a text file in the events.txt format to the Calendar. Like loadFromFile(),
+     * the events are not checked for conflicts. They are not journaled either; the next save writes
+     * them out.
+     * @param fileName the file to be read
+     */
+    public void importText(String fileName)
+    {
+        try
+        {
+            List<Event> imported = EventFileLoader.load(Paths.get(fileName));
+            primary.insertAll(imported);
+            if (!imported.isEmpty())
+                dispatcher.post(ModelChangeEvent.bulkImport(this, imported.get(0).getEpochDay(),
+                        imported.get(imported.size() - 1).getEpochDay()));
         }
-        catch(FileNotFoundException e)
+        catch(IOException e)
         {
             System.err.println(e);
-            System.out.println("Error creating output text file.");
-            return;
+            System.out.println("Error reading the events text file.");
         }
-
-        PrintWriter prntWriter = new PrintWriter(fout, true);
-        
-        for (int i = 0; i < myEvents.size(); i++)
+    }
+    
+    /**
+     * Writes events to a text file, one event per line
+     * @param file the file to be written
+     * @param events the events to be written
+     * @throws IOException if the file cannot be written
+     */
+    static void writeText(Path file, Iterable<Event> events) throws IOException
+    {
+        SimpleDateFormat full = new SimpleDateFormat("EEEEEEEEEE, d MMMMMMMMM yyyy HH:mm");
+        SimpleDateFormat time = new SimpleDateFormat("HH:mm");
+        try (PrintWriter prntWriter = new PrintWriter(Files.newBufferedWriter(file, Charset.defaultCharset())))
         {
-            Date tempDate = new Date();
-            
-            tempDate = myEvents.get(i).getDate().getTime();
-            sdf.setCalendar(currentCal);
-            
-            prntWriter.print(sdf.format(tempDate.getTime()));
-            
-            if (myEvents.get(i).hasEndTime())
+            for (Event ev : events)
             {
-                sdf = new SimpleDateFormat("HH:mm");
-                tempDate = myEvents.get(i).getEndTime().getTime();
-                prntWriter.println(" - " + sdf.format(tempDate.getTime()) + ";" + myEvents.get(i).getName());
-                sdf = new SimpleDateFormat("EEEEEEEEEE, d MMMMMMMMM yyyy HH:mm");
+                prntWriter.print(full.format(ev.getDate().getTime()));
+                if (ev.hasEndTime())
+                    prntWriter.println(" - " + time.format(ev.getEndTime().getTime()) + ";" + ev.storedName());
+                else
+                    prntWriter.println(";" + ev.storedName());
             }
-            else
-                prntWriter.println(";" + myEvents.get(i).getName());
+            if (prntWriter.checkError())
+                throw new IOException("Error writing " + file);
         }
-        
-        prntWriter.close();
     }
     
     /**
@@ -434,22 +905,159 @@ public class CalendarModel {
      */
     public ArrayList<Event> getEvents()
     {
-        Date tempDate = new Date();
-
-        ArrayList<Event> eventList = new ArrayList<>();
-        
-        for (int i = 0; i < myEvents.size(); i++)
+        return getEvents(currentCal);
+    }
+    
+    /**
+     * Gets all of the events on a given day.
+     * @param gc the date to look up
+     * @return an arraylist containing all events on that day
+     */
+    public ArrayList<Event> getEvents(GregorianCalendar gc)
+    {
+        long began = System.nanoTime();
+        ArrayList<Event> events = new ArrayList<>(eventsOn(DayIndex.epochDay(gc)));
+        metrics.getEvents.recordSince(began);
+        return events;
+    }
+    
+    /**
+     * Freezes every Event of the visible calendars, each in O(1). The returned list does not change
+     * when the Calendar does; with several visible calendars it merges their snapshots as it is read.
+     * @return the Events in start-time order
+     */
+    public List<Event> snapshot()
+    {
+        NamedCalendar[] shown = visible();
+        if (shown.length == 1)
+            return shown[0].index().snapshot();
+        ArrayList<List<Event>> parts = new ArrayList<>(shown.length);
+        for (NamedCalendar c : shown)
+            parts.add(c.index().snapshot());
+        return new MergedSnapshot(parts);
+    }
+    
+    /**
+     * Gets the number of Events in every hosted calendar, visible or not
+     * @return the counts by calendar name, the default calendar first
+     */
+    Map<String, Integer> getIndexSizes()
+    {
+        LinkedHashMap<String, Integer> sizes = new LinkedHashMap<>();
+        for (NamedCalendar c : calendars)
+            sizes.put(c.getName(), c.index().size());
+        return sizes;
+    }
+    
+    /**
+     * Gets the number of Events stored in the visible calendars
+     * @return number of Events
+     */
+    public int getEventCount()
+    {
+        int count = 0;
+        for (NamedCalendar c : visible())
+            count += c.index().size();
+        return count;
+    }
+    
+    /**
+     * Streams the Events sharing at least one minute with a range, in start-time order. The stream
+     * is lazy: Events are pulled from the index as it is consumed, nothing is copied, and the current
+     * date is not touched. It reads the version of the Calendar current at this call.
+     * @param fromMinute first minute of the range, in minutes since 01/01/1970 00:00 local time
+     * @param toMinute last minute of the range
+     * @return ordered stream of the overlapping Events
+     */
+    public Stream<Event> query(long fromMinute, long toMinute)
+    {
+        NamedCalendar[] shown = visible();
+        Iterator<Event> events;
+        if (shown.length == 1)
+            events = shown[0].index().query(fromMinute, toMinute);
+        else
         {
-            tempDate = myEvents.get(i).getDate().getTime();
-            if(currentCal.get(Calendar.YEAR) == myEvents.get(i).getDate().get(Calendar.YEAR))
-                if(currentCal.get(Calendar.MONTH) == myEvents.get(i).getDate().get(Calendar.MONTH))
-                    if(currentCal.get(Calendar.DATE) == myEvents.get(i).getDate().get(Calendar.DATE))
-                    {
-                        eventList.add(myEvents.get(i));
-                    }
-            
+            ArrayList<Iterator<Event>> sources = new ArrayList<>(shown.length);
+            for (NamedCalendar c : shown)
+                sources.add(c.index().query(fromMinute, toMinute));
+            events = new MergingIterator(sources);
         }
-        return eventList;
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(events,
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE), false);
+    }
+    
+    /**
+     * Streams the Events of one calendar sharing at least one minute with a range, in start-time
+     * order, whether the calendar is visible or not
+     * @param calendar name of the calendar
+     * @param fromMinute first minute of the range, in minutes since 01/01/1970 00:00 local time
+     * @param toMinute last minute of the range
+     * @return ordered stream of the overlapping Events
+     * @throws IllegalArgumentException if there is no calendar with that name
+     */
+    public Stream<Event> query(String calendar, long fromMinute, long toMinute)
+    {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                calendar(calendar).index().query(fromMinute, toMinute),
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE), false);
+    }
+    
+    /**
+     * Streams the Events taking place between two dates, e.g. the days of a week or an agenda page
+     * @param from start of the range
+     * @param to end of the range, excluded
+     * @return ordered stream of the Events sharing at least one minute with [from, to)
+     */
+    public Stream<Event> query(GregorianCalendar from, GregorianCalendar to)
+    {
+        return query(Event.toMinute(from), Event.toMinute(to) - 1);
+    }
+    
+    /**
+     * Finds the first times at which every given calendar is free for a while, e.g. to book a meeting
+     * for several people and a room. Hidden calendars are searched too when named. Each calendar's
+     * Events are read once, in order, from a range query, and the search stops after limit slots.
+     * @param calendars names of the calendars that must all be free
+     * @param fromMinute first minute of the search, in minutes since 01/01/1970 00:00 local time
+     * @param toMinute last minute of the search
+     * @param duration length of the Event to place, in minutes
+     * @param limit the most slots to return
+     * @return up to limit slots in time order, each long enough for the Event and clipped to the range
+     * @throws IllegalArgumentException if a calendar does not exist
+     */
+    public List<FreeSlot> findFreeSlots(Collection<String> calendars, long fromMinute, long toMinute, int duration,
+            int limit)
+    {
+        ArrayList<Iterator<Event>> sources = new ArrayList<>(calendars.size());
+        for (String name : calendars)
+            sources.add(calendar(name).index().query(fromMinute, toMinute));
+        return FreeSlotFinder.find(sources, fromMinute, toMinute, duration, limit);
+    }
+    
+    /**
+     * Finds the first times between two dates at which every given calendar is free for a while
+     * @param calendars names of the calendars that must all be free
+     * @param from start of the search
+     * @param to end of the search, excluded
+     * @param duration length of the Event to place, in minutes
+     * @param limit the most slots to return
+     * @return up to limit slots in time order
+     * @throws IllegalArgumentException if a calendar does not exist
+     */
+    public List<FreeSlot> findFreeSlots(Collection<String> calendars, GregorianCalendar from, GregorianCalendar to,
+            int duration, int limit)
+    {
+        return findFreeSlots(calendars, Event.toMinute(from), Event.toMinute(to) - 1, duration, limit);
+    }
+    
+    /**
+     * Gets the Events of the current day without copying them when the index allows it. The list
+     * must not be changed and is only meant to be read until the next change notification.
+     * @return the current day's Events in start-time order
+     */
+    public List<Event> getDayEvents()
+    {
+        return eventsOn(DayIndex.epochDay(currentCal));
     }
     
     /**
@@ -458,32 +1066,19 @@ public class CalendarModel {
      */
     public String getEventName()
     {
-        Date tempDate = new Date();
+        SimpleDateFormat sdf = new SimpleDateFormat("EEEEEEEEEE, d MMMMMMMMM yyyy HH:mm");
+        SimpleDateFormat time = new SimpleDateFormat("HH:mm");
         int counter = 0;
         String toReturn = "";
-        for (int i = 0; i < myEvents.size(); i++)
+        for (Event ev : eventsOn(DayIndex.epochDay(currentCal)))
         {
-            tempDate = myEvents.get(i).getDate().getTime();
-            if(currentCal.get(Calendar.YEAR) == myEvents.get(i).getDate().get(Calendar.YEAR))
-                if(currentCal.get(Calendar.MONTH) == myEvents.get(i).getDate().get(Calendar.MONTH))
-                    if(currentCal.get(Calendar.DATE) == myEvents.get(i).getDate().get(Calendar.DATE))
-                    {
-                        System.out.print(sdf.format(myEvents.get(i).getDate().getTime()));
-                        if(myEvents.get(i).hasEndTime())
-                        {
-                            
-                            sdf = new SimpleDateFormat("HH:mm");
-                            tempDate = myEvents.get(i).getEndTime().getTime();
-                            System.out.println(" - " + sdf.format(tempDate.getTime()) + ";" + myEvents.get(i).getName());
-                            sdf = new SimpleDateFormat("EEEEEEEEEE, d MMMMMMMMM yyyy HH:mm");
-                            
-                        }
-                        else
-                            System.out.println(" " + myEvents.get(i).getName() + "\n");
-                        counter++;
-                        toReturn += myEvents.get(i).getName() + "\n";
-                    }
-            
+            System.out.print(sdf.format(ev.getDate().getTime()));
+            if(ev.hasEndTime())
+                System.out.println(" - " + time.format(ev.getEndTime().getTime()) + ";" + ev.getName());
+            else
+                System.out.println(" " + ev.getName() + "\n");
+            counter++;
+            toReturn += ev.getName() + "\n";
         }
         if (counter == 0)
             toReturn += "No events today";
@@ -496,8 +1091,13 @@ public class CalendarModel {
      */
     public void setCurrentDay(String d)
     {
-        currentCal.set(getIntYear(), currentCal.get(Calendar.MONTH), Integer.valueOf(d));
-        notifyListeners();
+        synchronized (this)
+        {
+            GregorianCalendar moved = (GregorianCalendar) currentCal.clone();
+            moved.set(Calendar.DAY_OF_MONTH, Integer.valueOf(d));
+            currentCal = moved;
+        }
+        dispatcher.post(ModelChangeEvent.dateMoved(this));
     }
     
     /**
@@ -506,11 +1106,7 @@ public class CalendarModel {
      */
     public int getIntYear()
     {
-        int year = 0;
-        sdf = new SimpleDateFormat("yyyy");
-        year = Integer.valueOf(sdf.format(currentCal.getTime()));
-        sdf = new SimpleDateFormat("EEEEEEEEEE, d MMMMMMMMM yyyy HH:mm");
-        return year;
+        return currentCal.get(Calendar.YEAR);
     }
     
     /**
@@ -537,7 +1133,12 @@ public class CalendarModel {
      */
     public String getDayName()
     {
-        return dayArray[currentCal.get(Calendar.DAY_OF_WEEK) - 1].toString();
+        return dayName(currentCal);
+    }
+    
+    private String dayName(GregorianCalendar cal)
+    {
+        return dayArray[cal.get(Calendar.DAY_OF_WEEK) - 1].toString();
     }
     
     /**
@@ -555,7 +1156,17 @@ public class CalendarModel {
      */
     public String getTitle()
     {
-        return getMonthName() + " " + getYear();
+        return getTitle(currentCal);
+    }
+    
+    /**
+     * Gets the month and year of a date
+     * @param cal the date
+     * @return String representation of the month + year
+     */
+    public String getTitle(GregorianCalendar cal)
+    {
+        return monthArray[cal.get(Calendar.MONTH)] + " " + cal.get(Calendar.YEAR);
     }
     
     /**
@@ -568,12 +1179,24 @@ public class CalendarModel {
     }
     
     /**
-     * Gets the amount of days to be skipped for formatting 
-     * @return number of days to skip
+     * Gets the amount of days to be skipped for formatting, i.e. the weekday the current month starts on
+     * @return number of days to skip before the 1st in a week starting on Sunday
      */
     public int getSkippedDays()
     {
-        return currentCal.getFirstDayOfWeek();
+        GregorianCalendar cal = currentCal;
+        GregorianCalendar first = new GregorianCalendar(cal.get(Calendar.YEAR), cal.get(Calendar.MONTH), 1);
+        return first.get(Calendar.DAY_OF_WEEK) - 1;
+    }
+    
+    /**
+     * Gets the current date as one copy, so everything read from it belongs to the same day even if
+     * another thread moves the current date meanwhile
+     * @return the current date
+     */
+    public GregorianCalendar getCurrentDate()
+    {
+        return (GregorianCalendar) currentCal.clone();
     }
     
     /**
@@ -582,10 +1205,7 @@ public class CalendarModel {
      */
     public String getCurrDate()
     {
-        sdf = new SimpleDateFormat("MM/dd/yyyy");
-        String formatted = sdf.format(currentCal.getTime());
-        sdf = new SimpleDateFormat("EEEEEEEEEE, d MMMMMMMMM yyyy HH:mm");
-        return formatted;
+        return new SimpleDateFormat("MM/dd/yyyy").format(currentCal.getTime());
     }
     
     /**
@@ -594,29 +1214,53 @@ public class CalendarModel {
      */
     public String getDayDate()
     {
-        sdf = new SimpleDateFormat("MM/dd");
-        String formatted = getDayName() + " " + sdf.format(currentCal.getTime());
-        sdf = new SimpleDateFormat("EEEEEEEEEE, d MMMMMMMMM yyyy HH:mm");
-        return formatted;
+        GregorianCalendar cal = currentCal;
+        return dayName(cal) + " " + new SimpleDateFormat("MM/dd").format(cal.getTime());
     }
     
     /**
-     * Attaches a ChangeListener object to this model
+     * Attaches a ChangeListener object to this model. It is called on the event dispatch thread with
+     * a ModelChangeEvent saying what changed; changes made within one frame arrive as one event.
      * @param cl ChangeListener to be attached
      */
     public void attach(ChangeListener cl)
     {
-        listeners.add(cl);
+        dispatcher.attach(cl);
     }
     
     /**
-     * Notifies the view, telling it to reload its interface with the new data
+     * Notifies the view that anything may have changed, telling it to reload its interface
      */
     public void notifyListeners()
     {
-        listeners.forEach((cl) -> {
-            cl.stateChanged(new ChangeEvent(this));
-        });
+        dispatcher.post(new ModelChangeEvent(this, ModelChangeEvent.DATE_MOVED | ModelChangeEvent.EVENTS_CHANGED,
+                Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+    
+    /**
+     * Starts a batch of changes, e.g. an import done one Event at a time. Listeners hear nothing
+     * until the matching endBatch(), and then get one event covering the whole batch.
+     */
+    public void beginBatch()
+    {
+        dispatcher.beginBatch();
+    }
+    
+    /**
+     * Ends a batch started with beginBatch()
+     */
+    public void endBatch()
+    {
+        dispatcher.endBatch();
+    }
+    
+    /**
+     * Gets the current date as a day number
+     * @return days since 01/01/1970
+     */
+    public long getCurrentEpochDay()
+    {
+        return DayIndex.epochDay(currentCal);
     }
     
 
@@ -0,0 +1,283 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Runs a CalendarModel without a window as a shared service for many clients, over HTTP on the loopback
+ * interface. The model is a ConcurrentCalendarModel, so requests on different months run in parallel.
+ * Every request is handled on its own virtual thread when the JVM has them (Java 21 and later) and on a
+ * cached thread pool otherwise.
+ *
+ * Times are local date-times like 2026-11-02T09:30 and days are dates like 2026-11-02. Every operation
+ * takes an optional calendar parameter, the default calendar when left out; an unknown calendar is 404
+ * and a missing or malformed parameter 400. Responses are plain text:
+ * <pre>
+ * POST   /events?start=..&amp;end=..&amp;name=..   201 "added", or 409 "conflict"; end is optional
+ * DELETE /events?day=..&amp;name=..            200 "removed"; without name the whole day is cleared
+ * GET    /events?from=..&amp;to=..             200, one "start end name" line per Event in the range
+ * GET    /free?calendars=a,b&amp;from=..&amp;to=..&amp;duration=minutes&amp;limit=k
+ *                                         200, one "start end" line per free slot
+ * </pre>
+ * Run as "java CalendarServer [port] [calendar ...]"; the listed calendars are hosted besides the default
+ * one. CalendarLoadTest drives a running server.
+ * @author Alejandro Lopez
+ */
+public class CalendarServer {
+    static final int DEFAULT_PORT = 8080;
+
+    private final CalendarModel model;
+    private final HttpServer server;
+    private final ExecutorService executor = newRequestExecutor();
+
+    /**
+     * Creates a service for a model, listening on the loopback interface
+     * @param model the model to serve, which must be thread-safe
+     * @param port the port, 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public CalendarServer(CalendarModel model, int port) throws IOException
+    {
+        this.model = model;
+        // Headers and body go out as separate writes; without TCP_NODELAY every reply waits for a delayed ACK
+        if (System.getProperty("sun.net.httpserver.nodelay") == null)
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 128);
+        server.createContext("/events", this::handle);
+        server.createContext("/free", this::handle);
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Starts answering requests
+     */
+    public void start()
+    {
+        server.start();
+    }
+
+    /**
+     * Stops answering requests, letting running ones finish for up to a second
+     */
+    public void stop()
+    {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * Gets the port the service listens on
+     * @return the port
+     */
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Creates the executor running the requests: one virtual thread per request where the JVM
+     * supports them. Looked up by reflection so the service still builds and runs on older JVMs.
+     * @return the executor
+     */
+    static ExecutorService newRequestExecutor()
+    {
+        try
+        {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "calendar-request");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        int status;
+        String body;
+        try
+        {
+            Map<String, String> params = parameters(exchange.getRequestURI().getRawQuery());
+            String calendar = params.getOrDefault("calendar", CalendarModel.DEFAULT_CALENDAR);
+            String method = exchange.getRequestMethod();
+            if (exchange.getHttpContext().getPath().equals("/free"))
+            {
+                if (!method.equals("GET"))
+                {
+                    status = 405;
+                    body = "method not allowed\n";
+                }
+                else if (!model.getCalendarNames().containsAll(calendars(params)))
+                {
+                    status = 404;
+                    body = "no such calendar\n";
+                }
+                else
+                {
+                    status = 200;
+                    body = free(params);
+                }
+            }
+            else if (!model.getCalendarNames().contains(calendar))
+            {
+                status = 404;
+                body = "no such calendar\n";
+            }
+            else if (method.equals("GET"))
+            {
+                status = 200;
+                body = events(calendar, params);
+            }
+            else if (method.equals("POST"))
+            {
+                long start = minute(required(params, "start"));
+                String end = params.get("end");
+                int span = end == null ? 0 : (int) Math.floorMod(minute(end) - start, (long) Event.MINUTES_PER_DAY);
+                Event e = new Event(start, span, end != null, required(params, "name"));
+                boolean added = model.add(calendar, e);
+                status = added ? 201 : 409;
+                body = added ? "added\n" : "conflict\n";
+            }
+            else if (method.equals("DELETE"))
+            {
+                model.remove(calendar, LocalDate.parse(required(params, "day")).toEpochDay(), params.get("name"));
+                status = 200;
+                body = "removed\n";
+            }
+            else
+            {
+                status = 405;
+                body = "method not allowed\n";
+            }
+        }
+        catch (IllegalArgumentException | java.time.DateTimeException e)
+        {
+            status = 400;
+            body = e.getMessage() + "\n";
+        }
+        catch (RuntimeException e)
+        {
+            // Answered rather than dropping the exchange, which would leave the client waiting
+            e.printStackTrace();
+            status = 500;
+            body = "internal error\n";
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(bytes);
+        }
+    }
+
+    private String events(String calendar, Map<String, String> params)
+    {
+        long from = minute(required(params, "from"));
+        long to = minute(required(params, "to"));
+        StringBuilder out = new StringBuilder();
+        try (Stream<Event> events = model.query(calendar, from, to))
+        {
+            for (Iterator<Event> it = events.iterator(); it.hasNext();)
+            {
+                Event e = it.next();
+                out.append(format(e.getStartMinute())).append(' ').append(format(e.getEndMinute())).append(' ')
+                        .append(e.getName()).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    private String free(Map<String, String> params)
+    {
+        List<String> calendars = calendars(params);
+        long from = minute(required(params, "from"));
+        long to = minute(required(params, "to"));
+        int duration = Integer.parseInt(required(params, "duration"));
+        int limit = Integer.parseInt(params.getOrDefault("limit", "10"));
+        StringBuilder out = new StringBuilder();
+        for (FreeSlot slot : model.findFreeSlots(calendars, from, to, duration, limit))
+            out.append(format(slot.getStartMinute())).append(' ').append(format(slot.getEndMinute())).append('\n');
+        return out.toString();
+    }
+
+    private static List<String> calendars(Map<String, String> params)
+    {
+        return Arrays.asList(params.getOrDefault("calendars", CalendarModel.DEFAULT_CALENDAR).split(","));
+    }
+
+    private static String required(Map<String, String> params, String name)
+    {
+        String value = params.get(name);
+        if (value == null)
+            throw new IllegalArgumentException("missing parameter " + name);
+        return value;
+    }
+
+    private static Map<String, String> parameters(String query)
+    {
+        HashMap<String, String> params = new HashMap<>();
+        if (query == null)
+            return params;
+        for (String pair : query.split("&"))
+        {
+            int eq = pair.indexOf('=');
+            if (eq > 0)
+                params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    /**
+     * Reads a local date-time such as 2026-11-02T09:30 as minutes since 01/01/1970 00:00 local time
+     */
+    static long minute(String dateTime)
+    {
+        return LocalDateTime.parse(dateTime).toEpochSecond(ZoneOffset.UTC) / 60;
+    }
+
+    static String format(long minute)
+    {
+        return LocalDateTime.ofEpochSecond(minute * 60, 0, ZoneOffset.UTC).toString();
+    }
+
+    /**
+     * Runs the service until the process is stopped. The Events are loaded first and every change is
+     * journaled as it is made, so stopping the process loses nothing.
+     * @param args optional port, then the names of extra calendars to host
+     * @throws IOException if the port cannot be bound
+     */
+    public static void main(String[] args) throws IOException
+    {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        CalendarModel model = new ConcurrentCalendarModel();
+        model.loadFromFile();
+        for (int i = 1; i < args.length; i++)
+            model.addCalendar(args[i]);
+        CalendarServer service = new CalendarServer(model, port);
+        // Every change is already in the journal, which is flushed by its own shutdown hook
+        Runtime.getRuntime().addShutdownHook(new Thread(service::stop));
+        service.start();
+        System.out.println("Calendar service listening on http://localhost:" + service.getPort() + "/");
+    }
+}
@@ -2,9 +2,15 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
+import java.awt.Font;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
-import java.util.ArrayList;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.List;
 import javax.swing.*;
 import javax.swing.event.*;
 
@@ -12,6 +18,14 @@ import javax.swing.event.*;
  * This class creates a calendar using a calendar model. It shows the current month, day, and year. The
  * dates can be changed by clicking on a particular day or using the arrows in the top. The user can also
  * create their own events.
+ *
+ * The month grid is built once from a fixed set of 42 day cells (six weeks); a change only updates their
+ * text, colors and event markers. The day's Events are shown in a JList backed by the model's slice of
+ * that day, which only renders the rows in view, so days with many thousands of Events scroll smoothly.
+ * The list is only refilled when the current day or its Events change.
+ *
+ * The window never waits on the disk. It shows up empty, loadEvents() fills it in the background with
+ * the shown month first, and quitting saves in the background behind a progress bar, then exits.
  * @author Alejandro Lopez
  */
 public class CalendarView implements ChangeListener{    
@@ -25,7 +39,64 @@ public class CalendarView implements ChangeListener{
     private final JButton right = new JButton(">");
     private final JButton create = new JButton("Create");
     private final JButton quit = new JButton("Quit");
-    private ArrayList<JButton> days = new ArrayList<>();
+    private final JLabel monthYear = new JLabel("", SwingConstants.RIGHT);
+    private final JButton[] cells = new JButton[42];
+    private static final Color[] HEAT = new Color[8];
+    static
+    {
+        for (int i = 0; i < HEAT.length; i++)
+            HEAT[i] = new Color(255, 235 - i * 20, 235 - i * 20);
+    }
+    private Font plainFont;
+    private Font eventFont;
+    private long shownDay = Long.MIN_VALUE;
+    private final JLabel dayDate = new JLabel();
+    private final JLabel noEvents = new JLabel("There are no events on this day.");
+    private final DayListModel dayEvents = new DayListModel();
+    private final JList<Event> dayList = new JList<>(dayEvents);
+    private final JPanel statusPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+    private final JLabel status = new JLabel();
+    private final JProgressBar progress = new JProgressBar();
+    
+    /**
+     * List model over the Events of one day. Swapping in another day only fires two range events,
+     * so the JList never walks the rows that are out of view. The model keeps its own copy of the day,
+     * since the model's day list may change before the next setEvents() and the removed range must be
+     * the one the JList last saw.
+     */
+    private static final class DayListModel extends AbstractListModel<Event>
+    {
+        private static final long serialVersionUID = 1L;
+        private List<Event> events = Collections.emptyList();
+
+        /**
+         * Shows the Events of another day
+         * @param day the day's Events in start-time order
+         */
+        void setEvents(List<Event> day)
+        {
+            int removed = events.size();
+            events = Collections.emptyList();
+            if (removed > 0)
+                fireIntervalRemoved(this, 0, removed - 1);
+            day = List.copyOf(day);
+            events = day;
+            if (!day.isEmpty())
+                fireIntervalAdded(this, 0, day.size() - 1);
+        }
+
+        @Override
+        public int getSize()
+        {
+            return events.size();
+        }
+
+        @Override
+        public Event getElementAt(int index)
+        {
+            return events.get(index);
+        }
+    }
     
     /**
      * Constructor that builds this Calendar. It takes a CalendarModel object and creates a calendar that
@@ -35,7 +106,6 @@ public class CalendarView implements ChangeListener{
     CalendarView(CalendarModel m)
     {
         model = m;
-        model.loadFromFile();
         
         create.setBackground(Color.red);
         create.setForeground(Color.white);
@@ -62,95 +132,192 @@ public class CalendarView implements ChangeListener{
         });
         
         quit.addActionListener((ActionEvent e) -> {
-            model.printToFile();
-            System.exit(0);
+            quit();
         });
         
         buildMonthView();
+        updateMonthView();
         buildDayView();
+        updateDayView();
         monthPanel.setLayout(new GridLayout(0,7));
+        progress.setIndeterminate(true);
+        statusPanel.add(progress);
+        statusPanel.add(status);
+        statusPanel.setVisible(false);
         
         frame.add(topPanel, BorderLayout.PAGE_START);
         frame.add(monthPanel, BorderLayout.WEST);
         frame.add(dayPanel, BorderLayout.CENTER);
+        frame.add(statusPanel, BorderLayout.PAGE_END);
         frame.setSize(900, 400);
         frame.setVisible(true);
-        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+        frame.addWindowListener(new WindowAdapter()
+        {
+            @Override
+            public void windowClosing(WindowEvent e)
+            {
+                quit();
+            }
+        });
 
         
         
     }
     
+    /**
+     * Loads the stored events in the background. The month grid and day list update as the Events
+     * arrive; creating Events is held off until everything is loaded. Call once the view is attached
+     * to the model, so it hears about the first chunk. Calendars that could not be read are listed in an error
+     * dialog once the load is done.
+     */
+    public void loadEvents()
+    {
+        create.setEnabled(false);
+        showBusy("Loading events...");
+        model.loadInBackground().whenComplete((v, t) -> SwingUtilities.invokeLater(() -> {
+            create.setEnabled(true);
+            statusPanel.setVisible(false);
+            List<String> errors = model.getLoadErrors();
+            if (!errors.isEmpty())
+                JOptionPane.showMessageDialog(frame, "These calendars could not be read and will not be saved:\n"
+                        + String.join("\n", errors), "Load Error", JOptionPane.ERROR_MESSAGE);
+        }));
+    }
+    
+    /**
+     * Saves the events in the background, showing a progress bar until the file is written, and then
+     * exits. The window keeps painting while the save runs; a second quit is ignored.
+     */
+    private void quit()
+    {
+        if (!quit.isEnabled())
+            return;
+        quit.setEnabled(false);
+        create.setEnabled(false);
+        showBusy("Saving events...");
+        model.saveInBackground().whenComplete((v, t) -> SwingUtilities.invokeLater(() -> {
+            frame.dispose();
+            System.exit(0);
+        }));
+    }
+    
+    private void showBusy(String text)
+    {
+        status.setText(text);
+        statusPanel.setVisible(true);
+        frame.revalidate();
+    }
+    
     /**
      * Builds the month view panel that lists shows the current month and every calendar
-     * day in the month. Each individual day can be clicked on to go to that day.
+     * day in the month. Each individual day can be clicked on to go to that day. The cells are
+     * created once here and filled in by updateMonthView().
      */
     private void buildMonthView()
     {       
-        JLabel monthYear = new JLabel(model.getTitle() + " ", SwingConstants.RIGHT);
         monthPanel.add(monthYear);   
         for (int i = 0; i < 6; i++)
-        {
-            JLabel skip = new JLabel("");
-            JButton k = new JButton();
-            monthPanel.add(skip);
-        }
+            monthPanel.add(new JLabel(""));
         
-        JLabel [] days = new JLabel[7];
-        days[0] = new JLabel("Su", SwingConstants.CENTER);
-        days[1] = new JLabel("Mo", SwingConstants.CENTER);
-        days[2] = new JLabel("Tu", SwingConstants.CENTER);
-        days[3] = new JLabel("We", SwingConstants.CENTER);
-        days[4] = new JLabel("Th", SwingConstants.CENTER);
-        days[5] = new JLabel("Fr", SwingConstants.CENTER);
-        days[6] = new JLabel("Sa", SwingConstants.CENTER);
+        String[] names = {"Su", "Mo", "Tu", "We", "Th", "Fr", "Sa"};
         for (int i = 0; i < 7; i++)
         {            
-            monthPanel.add(days[i]);
+            monthPanel.add(new JLabel(names[i], SwingConstants.CENTER));
         }        
         
-        for(int i = 0; i <= model.getSkippedDays(); i++)
+        for (int i = 0; i < cells.length; i++)
         {
-            JLabel skip = new JLabel();
-            monthPanel.add(skip);
+            JButton cell = new JButton();
+            cell.addActionListener((ActionEvent e) -> {
+                model.setCurrentDay(cell.getText());
+            });
+            cell.setBorderPainted(false);
+            cells[i] = cell;
+            monthPanel.add(cell);
         }
-        for(int i = 0; i < model.getMaxDays(); i++)
+        plainFont = cells[0].getFont();
+        eventFont = plainFont.deriveFont(Font.BOLD);
+    }
+    
+    /**
+     * Fills the month grid with the current month: day numbers, the current day and the days that
+     * have Events, shaded by how many they have. Cells outside the month are hidden but keep their
+     * place in the grid. Everything is read from one copy of the current date and one set of counts,
+     * since another thread may move the date or change the Events in between.
+     */
+    private void updateMonthView()
+    {
+        GregorianCalendar shown = model.getCurrentDate();
+        monthYear.setText(model.getTitle(shown) + " ");
+        int skipped = new GregorianCalendar(shown.get(Calendar.YEAR), shown.get(Calendar.MONTH), 1)
+                .get(Calendar.DAY_OF_WEEK) - 1;
+        int maxDays = shown.getActualMaximum(Calendar.DAY_OF_MONTH);
+        int today = shown.get(Calendar.DAY_OF_MONTH);
+        int[] counts = model.getEventCounts(shown);
+        for (int i = 0; i < cells.length; i++)
         {
-            JButton addDate = new JButton(Integer.toString(i+1));
-            addDate.addActionListener((ActionEvent e) -> {
-                model.setCurrentDay(addDate.getText());
-            });
-            addDate.setBorderPainted(false);
-            if(model.getDay() == i + 1)
-                addDate.setForeground(Color.gray);
-            else 
-                addDate.setBackground(Color.white);
-            monthPanel.add(addDate);
-        }    
+            JButton cell = cells[i];
+            int day = i - skipped + 1;
+            if (day < 1 || day > maxDays)
+            {
+                cell.setVisible(false);
+                continue;
+            }
+            cell.setText(Integer.toString(day));
+            boolean busy = counts[day - 1] > 0;
+            cell.setFont(busy ? eventFont : plainFont);
+            if (day == today)
+            {
+                cell.setForeground(Color.gray);
+                cell.setBackground(null);
+            }
+            else
+            {
+                cell.setForeground(null);
+                cell.setBackground(busy ? HEAT[Math.min(counts[day - 1], HEAT.length) - 1] : Color.white);
+            }
+            cell.setVisible(true);
+        }
     }
     
     /**
      * Builds the day view panel. This panel shows the current day, the date, and 
-     * any events on the given day. 
+     * any events on the given day. The components are created once here and filled in by
+     * updateDayView().
      */
     public void buildDayView()
     {
-        JLabel day = new JLabel(model.getDayDate());      
-        ArrayList<Event> events = model.getEvents();
-        
-        dayPanel.add(day);
-        
-        for(int i = 0; i < events.size(); i++)
-        {
-            JTextField eventField = new JTextField(events.get(i).toString());
-            eventField.setEditable(false);            
-            dayPanel.add(eventField);
-        }
-        
-        if (events.size() == 0)
-            dayPanel.add(new JLabel("There are no events on this day."));
+        // Fixed cell sizes taken from a prototype keep the list from measuring every row
+        dayList.setPrototypeCellValue(new Event(0, 60, true, "A fairly long event title for sizing"));
+        dayList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        dayList.setLayoutOrientation(JList.VERTICAL);
+        dayList.setVisibleRowCount(-1);
+        JScrollPane scroll = new JScrollPane(dayList);
+        scroll.setAlignmentX(JComponent.LEFT_ALIGNMENT);
+        dayDate.setAlignmentX(JComponent.LEFT_ALIGNMENT);
+        noEvents.setAlignmentX(JComponent.LEFT_ALIGNMENT);
         
         dayPanel.setLayout(new BoxLayout(dayPanel, BoxLayout.PAGE_AXIS));
+        dayPanel.add(dayDate);
+        dayPanel.add(noEvents);
+        dayPanel.add(scroll);
+    }
+    
+    /**
+     * Shows the current day and its Events in the day view
+     */
+    private void updateDayView()
+    {
+        long day = model.getCurrentEpochDay();
+        boolean moved = day != shownDay;
+        shownDay = day;
+        dayDate.setText(model.getDayDate());
+        List<Event> events = model.getDayEvents();
+        dayEvents.setEvents(events);
+        noEvents.setVisible(events.isEmpty());
+        if (moved)
+            dayList.ensureIndexIsVisible(0);
     }
     
     /**
@@ -209,19 +376,28 @@ public class CalendarView implements ChangeListener{
     }
 
     /**
-     * Repaints the frame when the current day is changed or if an event is added.
-     * @param e 
+     * Updates the frame when the current day is changed or if an event is added. Changes to Events
+     * outside the shown month are skipped, and the day's Event list is only rebuilt when the current
+     * day or its Events changed.
+     * @param e the change, a ModelChangeEvent when it comes from the model
      */
     @Override
     public void stateChanged(ChangeEvent e) {        
-        frame.validate();
+        long current = model.getCurrentEpochDay();
+        boolean dayChanged = current != shownDay;
+        if (e instanceof ModelChangeEvent)
+        {
+            ModelChangeEvent change = (ModelChangeEvent) e;
+            long first = current - model.getDay() + 1;
+            if (!change.isDateMoved() && !change.affects(first, first + model.getMaxDays() - 1))
+                return;
+            dayChanged |= change.affects(current, current);
+        }
+        else
+            dayChanged = true;
 
-        monthPanel.removeAll();
-        dayPanel.removeAll();        
-        buildMonthView();
-        buildDayView();
-        
-        frame.revalidate();
-        frame.repaint();
+        updateMonthView();
+        if (dayChanged)
+            updateDayView();
     }
 }
@@ -0,0 +1,121 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.ChangeListener;
+
+/**
+ * Delivers the change events of a CalendarModel to its listeners on the Swing event dispatch thread.
+ * Changes posted within one frame (FRAME_MILLIS) are merged and delivered once, so holding down an
+ * arrow key or adding thousands of Events costs one repaint per frame instead of one per change.
+ * Between beginBatch() and endBatch() nothing is delivered; the whole batch arrives as one event.
+ * The number of changes posted and the time each delivery spends in the listeners are kept for
+ * CalendarMetrics.
+ * @author Alejandro Lopez
+ */
+class ChangeDispatcher {
+    static final int FRAME_MILLIS = 16;
+
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+    final LatencyHistogram delivered = new LatencyHistogram();
+    private long posted;
+    private ModelChangeEvent pending;
+    private int batches;
+    private boolean scheduled;
+    private Timer timer;
+
+    /**
+     * Attaches a listener
+     * @param cl listener to be called on the event dispatch thread
+     */
+    public void attach(ChangeListener cl)
+    {
+        listeners.add(cl);
+    }
+
+    /**
+     * Gets the number of attached listeners
+     * @return the count
+     */
+    int listenerCount()
+    {
+        return listeners.size();
+    }
+
+    /**
+     * Gets the number of changes posted so far, merged or not
+     * @return the count
+     */
+    synchronized long postedCount()
+    {
+        return posted;
+    }
+
+    /**
+     * Queues a change to be delivered with the other changes of the current frame
+     * @param change the change
+     */
+    public synchronized void post(ModelChangeEvent change)
+    {
+        posted++;
+        if (listeners.isEmpty())
+            return;
+        pending = pending == null ? change : pending.merge(change);
+        schedule();
+    }
+
+    /**
+     * Holds back deliveries until the matching endBatch(). Batches may be nested.
+     */
+    public synchronized void beginBatch()
+    {
+        batches++;
+    }
+
+    /**
+     * Ends a batch started with beginBatch(), delivering everything it changed as one event
+     */
+    public synchronized void endBatch()
+    {
+        if (batches > 0)
+            batches--;
+        schedule();
+    }
+
+    private void schedule()
+    {
+        if (batches > 0 || scheduled || pending == null)
+            return;
+        scheduled = true;
+        SwingUtilities.invokeLater(() -> {
+            if (timer == null)
+            {
+                timer = new Timer(FRAME_MILLIS, e -> deliver());
+                timer.setRepeats(false);
+            }
+            timer.restart();
+        });
+    }
+
+    /**
+     * Hands the merged change to every listener, on the event dispatch thread
+     */
+    private void deliver()
+    {
+        ModelChangeEvent change;
+        synchronized (this)
+        {
+            scheduled = false;
+            if (batches > 0)
+                return;
+            change = pending;
+            pending = null;
+        }
+        if (change == null)
+            return;
+        long began = System.nanoTime();
+        for (ChangeListener cl : listeners)
+            cl.stateChanged(change);
+        delivered.recordSince(began);
+    }
+}
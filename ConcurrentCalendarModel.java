@@ -0,0 +1,20 @@
+/**
+ * CalendarModel that can be shared by several threads, e.g. importers, a reminder thread and the Swing
+ * view. Events are kept in a StripedEventIndex, which locks them by month: changes to one month never
+ * wait for readers or writers of another, and the month view's event markers are read optimistically.
+ *
+ * Changes made on any thread reach the listeners on the event dispatch thread, merged per frame.
+ * @author Alejandro Lopez
+ */
+public class ConcurrentCalendarModel extends CalendarModel {
+
+    /**
+     * Creates the lock-striped index holding the Events of this Calendar
+     * @return an empty index
+     */
+    @Override
+    protected EventIndex newIndex()
+    {
+        return new StripedEventIndex();
+    }
+}
@@ -0,0 +1,243 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the Events of a whole Calendar that overlap each other, e.g. in an events file that was edited
+ * by hand or merged from two Calendars, since loading does not check for conflicts. The Events are
+ * walked once in start-time order: an Event starting before the latest end seen so far overlaps the
+ * group being built, otherwise it starts a new group. Finding every group costs O(n), plus a check
+ * against each recurring series, on top of the sort the loaders already do, and only the current group
+ * is held in memory besides the Events.
+ *
+ * Repairing keeps the largest set of Events of each group that do not overlap (picking by earliest
+ * end) and drops the rest. Single Events overlapping a recurring series are dropped, and of two
+ * overlapping series the later one is.
+ *
+ * Run as "java ConflictAudit [--repair] [file]" to audit the events file (events.months or events.bin
+ * when present, otherwise events.txt) from the command line; with --repair the file is rewritten without the
+ * dropped Events. Set -Dcalendar.audit=report or -Dcalendar.audit=repair to audit on every load.
+ * @author Alejandro Lopez
+ */
+public class ConflictAudit {
+    private final PrintStream out;
+    private final boolean repair;
+    private final SimpleDateFormat full = new SimpleDateFormat("EEEEEEEEEE, d MMMMMMMMM yyyy HH:mm");
+    private final SimpleDateFormat time = new SimpleDateFormat("HH:mm");
+    private int groups;
+    private long conflicting;
+    private long dropped;
+
+    private ConflictAudit(boolean repair, PrintStream out)
+    {
+        this.repair = repair;
+        this.out = out;
+    }
+
+    /**
+     * Audits a list of Events, printing every group of overlapping Events and a summary
+     * @param sorted the Events, sorted with CalendarModel.eventComparator
+     * @param repair true to drop Events until no two overlap
+     * @param out where the groups are printed
+     * @return the Events to keep in start-time order: sorted itself when nothing was dropped
+     */
+    public static List<Event> check(List<Event> sorted, boolean repair, PrintStream out)
+    {
+        ConflictAudit audit = new ConflictAudit(repair, out);
+        List<Event> kept = audit.run(sorted);
+        out.println(audit.groups + " conflict groups holding " + audit.conflicting + " of " + sorted.size()
+                + " events" + (repair ? ", " + audit.dropped + " events dropped" : ""));
+        return kept;
+    }
+
+    private List<Event> run(List<Event> sorted)
+    {
+        ArrayList<RecurringEvent> series = new ArrayList<>();
+        for (Event e : sorted)
+        {
+            if (e instanceof RecurringEvent)
+                addSeries((RecurringEvent) e, series);
+        }
+        SeriesSet occurrences = SeriesSet.EMPTY;
+        for (RecurringEvent s : series)
+            occurrences = occurrences.with(s);
+
+        // Marks the Events to drop by position, so nothing is copied unless something is dropped
+        boolean[] drop = null;
+        ArrayList<Integer> group = new ArrayList<>();
+        long groupEnd = Long.MIN_VALUE;
+        for (int i = 0; i <= sorted.size(); i++)
+        {
+            Event e = i < sorted.size() ? sorted.get(i) : null;
+            if (e instanceof RecurringEvent)
+            {
+                if (!series.contains(e))
+                    drop = mark(drop, sorted.size(), i);
+                continue;
+            }
+            if (e != null && occurrences.overlaps(e))
+            {
+                report(Arrays.asList(e), "overlaps a recurring series");
+                conflicting++;
+                drop = mark(drop, sorted.size(), i);
+                continue;
+            }
+            if (e != null && e.getStartMinute() <= groupEnd)
+            {
+                group.add(i);
+                groupEnd = Math.max(groupEnd, e.getEndMinute());
+                continue;
+            }
+            if (group.size() > 1)
+                drop = closeGroup(sorted, group, drop);
+            group.clear();
+            if (e != null)
+            {
+                group.add(i);
+                groupEnd = e.getEndMinute();
+            }
+        }
+        if (drop == null || !repair)
+            return sorted;
+        ArrayList<Event> kept = new ArrayList<>(sorted.size());
+        for (int i = 0; i < sorted.size(); i++)
+        {
+            if (!drop[i])
+                kept.add(sorted.get(i));
+        }
+        return kept;
+    }
+
+    /**
+     * Keeps a series unless it overlaps a series kept before it
+     */
+    private void addSeries(RecurringEvent s, List<RecurringEvent> series)
+    {
+        for (RecurringEvent kept : series)
+        {
+            if (kept.eventConflicts(s))
+            {
+                report(Arrays.asList(kept, s), "recurring series overlap");
+                conflicting++;
+                if (repair)
+                    return;
+                break;
+            }
+        }
+        series.add(s);
+    }
+
+    /**
+     * Reports a group of overlapping Events and, when repairing, picks the ones to drop
+     */
+    private boolean[] closeGroup(List<Event> sorted, List<Integer> group, boolean[] drop)
+    {
+        ArrayList<Event> events = new ArrayList<>(group.size());
+        for (int i : group)
+            events.add(sorted.get(i));
+        report(events, group.size() + " events");
+        conflicting += group.size();
+        if (!repair)
+            return drop;
+        // Earliest end first keeps the most Events that do not overlap
+        Integer[] byEnd = group.toArray(new Integer[0]);
+        Arrays.sort(byEnd, (a, b) -> Long.compare(sorted.get(a).getEndMinute(), sorted.get(b).getEndMinute()));
+        long lastEnd = Long.MIN_VALUE;
+        for (int i : byEnd)
+        {
+            Event e = sorted.get(i);
+            if (e.getStartMinute() > lastEnd)
+                lastEnd = e.getEndMinute();
+            else
+                drop = mark(drop, sorted.size(), i);
+        }
+        return drop;
+    }
+
+    private boolean[] mark(boolean[] drop, int size, int i)
+    {
+        if (drop == null)
+            drop = new boolean[size];
+        drop[i] = true;
+        dropped++;
+        return drop;
+    }
+
+    private void report(List<Event> events, String what)
+    {
+        groups++;
+        out.println("Conflict " + groups + ": " + what);
+        for (Event ev : events)
+        {
+            out.print("  " + full.format(ev.getDate().getTime()));
+            if (ev.hasEndTime())
+                out.println(" - " + time.format(ev.getEndTime().getTime()) + ";" + ev.storedName());
+            else
+                out.println(";" + ev.storedName());
+        }
+    }
+
+    /**
+     * Audits an events file from the command line
+     * @param args optional --repair, then the file to audit
+     * @throws IOException if the file cannot be read or written
+     */
+    public static void main(String[] args) throws IOException
+    {
+        boolean repair = args.length > 0 && args[0].equals("--repair");
+        int next = repair ? 1 : 0;
+        Path file;
+        if (args.length > next)
+            file = Paths.get(args[next]);
+        else if (Files.exists(Paths.get(CalendarModel.MONTH_FILE)))
+            file = Paths.get(CalendarModel.MONTH_FILE);
+        else if (Files.exists(Paths.get(CalendarModel.BINARY_FILE)))
+            file = Paths.get(CalendarModel.BINARY_FILE);
+        else
+            file = Paths.get(CalendarModel.TEXT_FILE);
+        boolean binary = file.getFileName().toString().endsWith(".bin");
+        boolean months = file.getFileName().toString().endsWith(".months");
+
+        long started = System.nanoTime();
+        List<Event> events;
+        if (months)
+        {
+            try (MonthStore store = MonthStore.open(file))
+            {
+                events = store.readAll();
+            }
+        }
+        else
+            events = binary ? BinaryEventStore.open(file).readAll() : EventFileLoader.load(file);
+        long loaded = System.nanoTime();
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+        List<Event> kept = check(events, repair, out);
+        out.flush();
+        long audited = System.nanoTime();
+        System.out.printf("Loaded in %d ms, audited in %d ms%n", (loaded - started) / 1_000_000,
+                (audited - loaded) / 1_000_000);
+
+        if (kept != events)
+        {
+            if (months)
+                MonthStore.write(file, kept);
+            else if (binary)
+                BinaryEventStore.write(file, kept);
+            else
+            {
+                Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+                CalendarModel.writeText(temp, kept);
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            System.out.println("Wrote " + kept.size() + " events to " + file);
+        }
+    }
+}
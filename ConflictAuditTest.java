@@ -0,0 +1,69 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the repair of ConflictAudit against brute force. In each of 500 random calendars of up to 300
+ * Events over 20 days the Events kept must not overlap each other, there must be as many of them as
+ * the largest set of non-overlapping Events found by picking the earliest end over the whole calendar,
+ * and adding them to an EventIndex in one batch must not reject any.
+ *
+ * Run as "java ConflictAuditTest". Throws an AssertionError, and so exits with status 1, if any check fails.
+ * @author Alejandro Lopez
+ */
+public class ConflictAuditTest {
+    /**
+     * Runs every calendar
+     * @param args not used
+     */
+    public static void main(String[] args)
+    {
+        Random random = new Random(3);
+        PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+        int calendars = 500;
+        for (int t = 0; t < calendars; t++)
+        {
+            ArrayList<Event> events = new ArrayList<>();
+            for (int i = random.nextInt(300); i > 0; i--)
+            {
+                long start = (20000L + random.nextInt(20)) * Event.MINUTES_PER_DAY + random.nextInt(Event.MINUTES_PER_DAY);
+                events.add(new Event(start, random.nextInt(200), true, "e"));
+            }
+            events.sort(CalendarModel.eventComparator);
+            List<Event> kept = ConflictAudit.check(events, true, quiet);
+            for (int i = 0; i < kept.size(); i++)
+            {
+                for (int j = i + 1; j < kept.size(); j++)
+                    check(!kept.get(i).eventConflicts(kept.get(j)), "repair kept " + kept.get(i) + " and " + kept.get(j));
+            }
+
+            ArrayList<Event> byEnd = new ArrayList<>(events);
+            byEnd.sort(Comparator.comparingLong(Event::getEndMinute));
+            long lastEnd = Long.MIN_VALUE;
+            int most = 0;
+            for (Event e : byEnd)
+            {
+                if (e.getStartMinute() > lastEnd)
+                {
+                    most++;
+                    lastEnd = e.getEndMinute();
+                }
+            }
+            check(kept.size() == most, "repair kept " + kept.size() + " Events, " + most + " can be kept");
+
+            ImportReport report = new ImportReport();
+            new PlainEventIndex().addAll(kept, report);
+            check(report.getRejected().isEmpty(), "the index rejected Events the repair kept");
+        }
+        System.out.println(calendars + " calendars: OK");
+    }
+
+    private static void check(boolean condition, String message)
+    {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,75 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Sweep-line conflict checks over Events in start-time order. The sweep keeps the set of Events that
+ * are still running at the current start minute; since no Event lasts a day, that set stays small, and
+ * a whole batch is checked in one pass over the batch and the stored Events it reaches.
+ * @author Alejandro Lopez
+ */
+class ConflictSweep {
+    private ConflictSweep()
+    {
+    }
+
+    /**
+     * Picks the Events of a batch that can be added. Each Event is checked against the stored Events
+     * and against the Events of the batch admitted before it, so when two Events of the batch overlap
+     * the earlier one wins, as if they had been added one at a time in start-time order.
+     * @param sorted the batch, sorted with CalendarModel.eventComparator
+     * @param stored the stored Events from the start of the batch on, in start-time order
+     * @param report receives the rejected Events
+     * @return the admitted Events in start-time order
+     */
+    static List<Event> admit(List<Event> sorted, Iterator<Event> stored, ImportReport report)
+    {
+        ArrayList<Event> admitted = new ArrayList<>(sorted.size());
+        ArrayList<Event> running = new ArrayList<>();
+        Event next = stored.hasNext() ? stored.next() : null;
+        for (Event e : sorted)
+        {
+            long start = e.getStartMinute();
+            long end = e.getEndMinute();
+            while (next != null && next.getStartMinute() <= end)
+            {
+                running.add(next);
+                next = stored.hasNext() ? stored.next() : null;
+            }
+            Event conflict = null;
+            for (int i = running.size() - 1; i >= 0; i--)
+            {
+                Event r = running.get(i);
+                if (r.getEndMinute() < start)
+                {
+                    // Later Events start no earlier, so this one can never conflict again
+                    running.set(i, running.get(running.size() - 1));
+                    running.remove(running.size() - 1);
+                }
+                else if (conflict == null && r.getStartMinute() <= end)
+                    conflict = r;
+            }
+            if (conflict != null)
+                report.reject(e, conflict);
+            else
+            {
+                admitted.add(e);
+                running.add(e);
+            }
+        }
+        return admitted;
+    }
+
+    /**
+     * Gets the latest end minute of a list of Events
+     * @param events the Events
+     * @return end minute, Long.MIN_VALUE for an empty list
+     */
+    static long lastEnd(List<Event> events)
+    {
+        long max = Long.MIN_VALUE;
+        for (Event e : events)
+            max = Math.max(max, e.getEndMinute());
+        return max;
+    }
+}
@@ -0,0 +1,88 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks batch imports against adding the same Events one at a time. 300 random batches, of up to 400
+ * Events packed into a few weeks next to up to 200 stored Events and a daily series, are added with
+ * addAll() to both kinds of EventIndex, which must admit exactly the Events that add() admits when they
+ * are offered in start-time order, report every other Event together with an Event it really overlaps,
+ * and leave the day lookups in step with the stored Events.
+ *
+ * Run as "java ConflictSweepTest". Throws an AssertionError, and so exits with status 1, if any check fails.
+ * @author Alejandro Lopez
+ */
+public class ConflictSweepTest {
+    /**
+     * Runs every batch
+     * @param args not used
+     */
+    public static void main(String[] args)
+    {
+        Random random = new Random(7);
+        int batches = 300;
+        for (int t = 0; t < batches; t++)
+        {
+            int days = 5 + random.nextInt(30);
+            List<Event> stored = randomEvents(random, random.nextInt(200), days);
+            List<Event> batch = randomEvents(random, random.nextInt(400), days);
+            batch.sort(CalendarModel.eventComparator);
+            RecurringEvent series = new RecurringEvent(new Event(20000L * Event.MINUTES_PER_DAY + 600, 30, true, "s"),
+                    Recurrence.daily(3));
+            compare(new PlainEventIndex(), new PlainEventIndex(), series, stored, batch);
+            compare(new StripedEventIndex(), new StripedEventIndex(), series, stored, batch);
+        }
+        System.out.println(batches + " batches: OK");
+    }
+
+    private static void compare(EventIndex single, EventIndex bulk, RecurringEvent series, List<Event> stored,
+            List<Event> batch)
+    {
+        single.add(series);
+        bulk.add(series);
+        for (Event e : stored)
+        {
+            single.add(e);
+            bulk.add(e);
+        }
+        int admitted = 0;
+        for (Event e : batch)
+        {
+            if (single.add(e))
+                admitted++;
+        }
+        ImportReport report = new ImportReport();
+        List<Event> added = bulk.addAll(batch, report);
+        check(added.size() == admitted, "addAll admitted " + added.size() + " Events, add() " + admitted);
+        check(report.getRejected().size() == batch.size() - admitted, "rejected " + report.getRejected().size());
+        for (ImportReport.Rejection rejection : report.getRejected())
+        {
+            check(rejection.getEvent().eventConflicts(rejection.getConflict()),
+                    rejection.getEvent() + " was reported to overlap " + rejection.getConflict());
+        }
+        check(bulk.snapshot().equals(single.snapshot()) && bulk.size() == single.size(),
+                "addAll stored other Events than add()");
+        for (Event e : bulk.snapshot())
+        {
+            check(e instanceof RecurringEvent || bulk.eventsOn(e.getEpochDay()).contains(e),
+                    e + " is missing from its day");
+        }
+    }
+
+    private static List<Event> randomEvents(Random random, int count, int days)
+    {
+        ArrayList<Event> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            long start = (20000L + random.nextInt(days)) * Event.MINUTES_PER_DAY + random.nextInt(Event.MINUTES_PER_DAY);
+            events.add(new Event(start, random.nextInt(8) == 0 ? 0 : random.nextInt(300), true, "e"));
+        }
+        return events;
+    }
+
+    private static void check(boolean condition, String message)
+    {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,295 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Groups Events into buckets by the day they start on. Days are keyed by their epoch day (days since
+ * 01/01/1970) in an open-addressing hash table with primitive long keys, so finding a day's Events costs
+ * one probe sequence plus the size of the result. Each bucket is kept in start-time order.
+ *
+ * Every month also has a 31-bit occupancy mask (bit d-1 set when day d has an Event) and the number of
+ * Events on each of its days, kept up to date on every add and remove. A month view reads one mask
+ * instead of looking up each day, and a year view reads twelve.
+ * @author Alejandro Lopez
+ */
+class DayIndex {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys = newKeys(64);
+    private ArrayList<ArrayList<Event>> buckets = newBuckets(64);
+    private int used;
+    private long[] monthKeys = newKeys(16);
+    private int[][] monthDays = new int[16][];
+    private int months;
+
+    /**
+     * Gets the epoch day of the date held by a Calendar
+     * @param c calendar holding the date
+     * @return days since 01/01/1970
+     */
+    public static long epochDay(Calendar c)
+    {
+        return epochDay(c.get(Calendar.YEAR), c.get(Calendar.MONTH), c.get(Calendar.DAY_OF_MONTH));
+    }
+
+    /**
+     * Gets the epoch day of a date
+     * @param year the year
+     * @param month the month, 0 based like Calendar.MONTH
+     * @param day the day of the month
+     * @return days since 01/01/1970
+     */
+    public static long epochDay(int year, int month, int day)
+    {
+        return LocalDate.of(year, month + 1, day).toEpochDay();
+    }
+
+    /**
+     * Adds an Event to the bucket of the day it starts on
+     * @param e Event to be stored
+     */
+    public void add(Event e)
+    {
+        long day = e.getEpochDay();
+        int slot = find(day);
+        ArrayList<Event> bucket;
+        if (keys[slot] == EMPTY)
+        {
+            if ((used + 1) * 4 > keys.length * 3)
+            {
+                grow();
+                slot = find(day);
+            }
+            keys[slot] = day;
+            bucket = new ArrayList<>(4);
+            buckets.set(slot, bucket);
+            used++;
+        }
+        else
+            bucket = buckets.get(slot);
+
+        int pos = Collections.binarySearch(bucket, e, CalendarModel.eventComparator);
+        bucket.add(pos < 0 ? -pos - 1 : pos + 1, e);
+        count(day, 1);
+    }
+
+    /**
+     * Removes the given Event object (matched by identity) from its day
+     * @param e Event to be removed
+     * @return true if the Event was found and removed
+     */
+    public boolean remove(Event e)
+    {
+        int slot = find(e.getEpochDay());
+        if (keys[slot] == EMPTY)
+            return false;
+        ArrayList<Event> bucket = buckets.get(slot);
+        for (int i = 0; i < bucket.size(); i++)
+        {
+            if (bucket.get(i) == e)
+            {
+                bucket.remove(i);
+                if (bucket.isEmpty())
+                    removeSlot(slot);
+                count(e.getEpochDay(), -1);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the Events starting on a given day
+     * @param day epoch day to look up
+     * @return read-only list of the day's Events in start-time order
+     */
+    public List<Event> eventsOn(long day)
+    {
+        int slot = find(day);
+        if (keys[slot] == EMPTY)
+            return Collections.emptyList();
+        return Collections.unmodifiableList(buckets.get(slot));
+    }
+
+    /**
+     * Checks if any Event starts on a given day
+     * @param day epoch day to look up
+     * @return true if the day has an Event
+     */
+    public boolean hasEvents(long day)
+    {
+        return keys[find(day)] != EMPTY;
+    }
+
+    /**
+     * Gets the days of a month that have Events
+     * @param year the year
+     * @param month the month, 0 based like Calendar.MONTH
+     * @return mask with bit d-1 set if an Event starts on day d
+     */
+    public int monthMask(int year, int month)
+    {
+        int[] days = monthDays[findMonth(year * 12L + month)];
+        return days == null ? 0 : days[0];
+    }
+
+    /**
+     * Gets the number of Events on each day of a month
+     * @param year the year
+     * @param month the month, 0 based like Calendar.MONTH
+     * @return array whose element d-1 is the number of Events starting on day d
+     */
+    public int[] monthCounts(int year, int month)
+    {
+        int[] days = monthDays[findMonth(year * 12L + month)];
+        return days == null ? new int[31] : Arrays.copyOfRange(days, 1, 32);
+    }
+
+    /**
+     * Removes every Event from the index
+     */
+    public void clear()
+    {
+        keys = newKeys(64);
+        buckets = newBuckets(64);
+        used = 0;
+        monthKeys = newKeys(16);
+        monthDays = new int[16][];
+        months = 0;
+    }
+
+    /**
+     * Updates the month summary of a day after an Event was added to or removed from it
+     * @param day epoch day of the Event
+     * @param delta 1 for an add, -1 for a remove
+     */
+    private void count(long day, int delta)
+    {
+        // Civil date from the epoch day without allocating, after H. Hinnant's days_from_civil inverse
+        long z = day + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int dayOfMonth = (int) (doy - (153 * mp + 2) / 5 + 1);
+        long month = mp < 10 ? mp + 2 : mp - 10;
+        long year = yoe + era * 400 + (month < 2 ? 1 : 0);
+
+        long key = year * 12 + month;
+        int slot = findMonth(key);
+        int[] days = monthDays[slot];
+        if (days == null)
+        {
+            if ((months + 1) * 4 > monthKeys.length * 3)
+            {
+                growMonths();
+                slot = findMonth(key);
+            }
+            days = new int[32];
+            monthKeys[slot] = key;
+            monthDays[slot] = days;
+            months++;
+        }
+        days[dayOfMonth] += delta;
+        if (days[dayOfMonth] > 0)
+            days[0] |= 1 << (dayOfMonth - 1);
+        else
+            days[0] &= ~(1 << (dayOfMonth - 1));
+    }
+
+    private int findMonth(long key)
+    {
+        int mask = monthKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (monthKeys[slot] != EMPTY && monthKeys[slot] != key)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void growMonths()
+    {
+        long[] oldKeys = monthKeys;
+        int[][] oldDays = monthDays;
+        monthKeys = newKeys(oldKeys.length * 2);
+        monthDays = new int[oldKeys.length * 2][];
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldKeys[i] != EMPTY)
+            {
+                int slot = findMonth(oldKeys[i]);
+                monthKeys[slot] = oldKeys[i];
+                monthDays[slot] = oldDays[i];
+            }
+        }
+    }
+
+    private int find(long day)
+    {
+        int mask = keys.length - 1;
+        int slot = hash(day) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != day)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private static int hash(long day)
+    {
+        long h = day * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void removeSlot(int slot)
+    {
+        // Backward-shift deletion keeps every probe sequence unbroken without tombstones
+        int mask = keys.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (keys[next] != EMPTY)
+        {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask))
+            {
+                keys[hole] = keys[next];
+                buckets.set(hole, buckets.get(next));
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = EMPTY;
+        buckets.set(hole, null);
+        used--;
+    }
+
+    private void grow()
+    {
+        long[] oldKeys = keys;
+        ArrayList<ArrayList<Event>> oldBuckets = buckets;
+        keys = newKeys(oldKeys.length * 2);
+        buckets = newBuckets(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldKeys[i] != EMPTY)
+            {
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                buckets.set(slot, oldBuckets.get(i));
+            }
+        }
+    }
+
+    private static long[] newKeys(int capacity)
+    {
+        long[] k = new long[capacity];
+        Arrays.fill(k, EMPTY);
+        return k;
+    }
+
+    private static ArrayList<ArrayList<Event>> newBuckets(int capacity)
+    {
+        return new ArrayList<>(Collections.nCopies(capacity, (ArrayList<Event>) null));
+    }
+}
@@ -1,5 +1,6 @@
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
@@ -7,23 +8,29 @@ import java.util.Scanner;
 
 /**
  * Represents an Event object. Stores the name, date, start, and end times to be used within
- * the Calendar. 
+ * the Calendar. The start is kept as a minute count since 01/01/1970 in local time and the end
+ * as a length in minutes, so an Event takes about 32 bytes of heap. Its name is taken from NamePool,
+ * so Events with the same title share one String. GregorianCalendar views of the times are only built
+ * when getDate() or getEndTime() is called.
  * @author Alejandro Lopez
  */
 public class Event {
+    static final int MINUTES_PER_DAY = 24 * 60;
+    private static final byte HAS_END = 1;
+    private static Scanner console;
     private String name;
-    private GregorianCalendar date = new GregorianCalendar();
-    private GregorianCalendar endTime = new GregorianCalendar();
-    private Scanner sc = new Scanner(System.in);
-    private boolean hasEnd = false;
+    private long start;
+    private int span;
+    private byte flags;
     
     /**
-     * Default Constructor: Initializes name to an empty string to prevent null exceptions
+     * Default Constructor: Initializes name to an empty string to prevent null exceptions and
+     * the start to the current minute
      */
     Event()
     {
-        name = new String("");
-        hasEnd = false;
+        name = "";
+        start = toMinute(new GregorianCalendar());
     }
     
     /**
@@ -36,13 +43,14 @@ public class Event {
      */
     Event(String in, String name)
     {
+        this();
         try {
             Date aDate = new SimpleDateFormat("EEEEEEEEEE, d MMMMMMMMM yyyy HH:mm").parse(in);
-            date.setTime(aDate);
+            start = toMinute(aDate);
         } catch (ParseException ex) {
             System.err.println(ex);
         }
-        this.name = name;
+        this.name = NamePool.intern(name);
     }
     
     /**
@@ -58,16 +66,61 @@ public class Event {
      */
     Event(String in, String end, String name)
     {
+        this();
         try {
             Date aDate = new SimpleDateFormat("EEEEEEEEEE, d MMMMMMMMM yyyy HH:mm").parse(in);
-            date.setTime(aDate);
+            start = toMinute(aDate);
 
             updateEndTime(end);
 
         } catch (ParseException ex) {
             System.err.println(ex);
         }
-        this.name = name;
+        this.name = NamePool.intern(name);
+    }
+    
+    /**
+     * Constructor: Constructs an Event object from times that were already parsed, as done by the
+     * file loaders
+     * @param start the start as minutes since 01/01/1970 00:00 in local time
+     * @param span the length of the Event in minutes
+     * @param hasEnd true if the Event has an end time
+     * @param name the title of the event
+     */
+    Event(long start, int span, boolean hasEnd, String name)
+    {
+        this.name = NamePool.intern(name);
+        this.start = start;
+        this.span = span;
+        if (hasEnd)
+            flags = HAS_END;
+    }
+    
+    /**
+     * Rebuilds an Event read back from a file or the journal. A title carrying a recurrence rule, as
+     * written by storedName(), gives back a RecurringEvent.
+     * @param start the start as minutes since 01/01/1970 00:00 in local time
+     * @param span the length of the Event in minutes
+     * @param hasEnd true if the Event has an end time
+     * @param stored the title as returned by storedName()
+     * @return the Event
+     */
+    static Event restore(long start, int span, boolean hasEnd, String stored)
+    {
+        int marker = stored.lastIndexOf(RecurringEvent.RULE_MARKER);
+        if (marker >= 0)
+        {
+            try
+            {
+                Recurrence rule = Recurrence.parse(stored.substring(marker + RecurringEvent.RULE_MARKER.length()));
+                return new RecurringEvent(start, span, hasEnd, stored.substring(0, marker), rule);
+            }
+            catch (IllegalArgumentException e)
+            {
+                System.err.println("Keeping unreadable recurrence as part of the title: " + e.getMessage());
+            }
+        }
+        return new Event(start, span, hasEnd, stored);
     }
     
     /**
@@ -82,13 +135,13 @@ public class Event {
         boolean valid = false;
         System.out.println("Please enter the title of your event:");
         do{
-            input = sc.nextLine();
+            input = console().nextLine();
             if (input == null || input == "")
                 System.out.println("Please enter a valid title.");
             else
             {
                 valid = true;
-                name = input;
+                name = NamePool.intern(input);
             }
         }while(!valid);
         
@@ -96,7 +149,7 @@ public class Event {
         
         System.out.println("Please enter the date of your event (MM/DD/YYYY):");
         do{
-            input = sc.nextLine();
+            input = console().nextLine();
             if (input == null || input == "")
                 System.out.println("Please enter a valid date.");
             else
@@ -111,7 +164,7 @@ public class Event {
         System.out.println("Please enter the time of your event (24-hr clock (06:00 for 6:00am 13:00 for 1:00pm)");
         System.out.println("NOTE: To enter an end time just put a dash in between the two times (i.e., 12:00 - 16:00)");
         do{
-            input = sc.nextLine();
+            input = console().nextLine();
             if (input == null || input == "")
                 System.out.println("Please enter a valid time.");
             else
@@ -136,7 +189,7 @@ public class Event {
      */
     public void createEvent(String name, String day, String start, String end)
     {
-        this.name = name;
+        this.name = NamePool.intern(name);
         updateDate(day);
         if (end == null || end == "")
             updateTime(start);
@@ -154,15 +207,17 @@ public class Event {
     public void updateDate(String in)
     {
         String [] split = in.split("/");
-        date.set(Integer.parseInt(split[2]), Integer.parseInt(split[0])-1, Integer.parseInt(split[1]));
+        long day = LocalDate.of(Integer.parseInt(split[2]), Integer.parseInt(split[0]),
+                Integer.parseInt(split[1])).toEpochDay();
+        start = day * MINUTES_PER_DAY + Math.floorMod(start, MINUTES_PER_DAY);
     }
     
     /**
-     * Updates the start time specified by the User. Takes the formatted String input and adds the time 
-     * to the GregorianCalendar instance variable holding the date of the Event
+     * Updates the start time specified by the User. Takes the formatted String input and sets the time 
+     * of day of the Event, keeping its date
      * @param in user's time-formatted input (HH:mm)
      * Precondition: in is formatted properly
-     * Postcondition: Date (GregorianCalendar instance variable) gets updated with the proper start time
+     * Postcondition: the Event's start (and end, if given) gets updated with the proper time
      */
     public void updateTime(String in)
     {
@@ -179,23 +234,18 @@ public class Event {
             t = convertAMPM(in);
             
         
-        Date someDate = new Date();
         t = t.replaceAll("\\s+", "");
         String [] split = t.split(":|-");
         
-        date.set(Calendar.HOUR_OF_DAY, Integer.valueOf(split[0]));
-        date.set(Calendar.MINUTE, Integer.valueOf(split[1]));
+        start = Math.floorDiv(start, MINUTES_PER_DAY) * MINUTES_PER_DAY
+                + Integer.valueOf(split[0]) * 60 + Integer.valueOf(split[1]);
 
         if (split.length >= 3)
-        {
-            endTime.set(Calendar.HOUR_OF_DAY, Integer.valueOf(split[2]));
-            endTime.set(Calendar.MINUTE, Integer.valueOf(split[3]));
-            hasEnd = true;
-        }
+            setEnd(Integer.valueOf(split[2]) * 60 + Integer.valueOf(split[3]));
         else 
         {
-            endTime = date;
-            hasEnd = false;
+            span = 0;
+            flags &= ~HAS_END;
         }
     }
     
@@ -246,9 +296,20 @@ public class Event {
     public void updateEndTime(String in)
     {
         String [] split = in.split(":");
-        endTime.set(Calendar.HOUR_OF_DAY, Integer.valueOf(split[0]));
-        endTime.set(Calendar.MINUTE, Integer.valueOf(split[1]));
-        hasEnd = true;
+        setEnd(Integer.valueOf(split[0]) * 60 + Integer.valueOf(split[1]));
+    }
+    
+    /**
+     * Sets the end time of the Event. An end time earlier than the start time runs past midnight
+     * into the next day.
+     * @param minuteOfDay end time as minutes since midnight
+     */
+    private void setEnd(int minuteOfDay)
+    {
+        span = minuteOfDay - Math.floorMod(start, MINUTES_PER_DAY);
+        if (span < 0)
+            span += MINUTES_PER_DAY;
+        flags |= HAS_END;
     }
     
     /**
@@ -258,50 +319,51 @@ public class Event {
      */
     public boolean eventConflicts(Event e)
     {
-        if (this.getDate().get(Calendar.YEAR) == (e.getDate().get(Calendar.YEAR)))
-        {
-            if (this.getDate().get(Calendar.MONTH) == (e.getDate().get(Calendar.MONTH)))
-            {
-                if (this.getDate().get(Calendar.DATE) == (e.getDate().get(Calendar.DATE)))
-                {
-                    if(timeConflicts(e))
-                        return true;
-                }
-            }
-        }
-        
-        return false;
+        return getStartMinute() <= e.getEndMinute() && e.getStartMinute() <= getEndMinute();
     }
     
     /**
-     * Checks for any time conflicts between Events and the Event to be added
+     * Checks for any time conflicts between Events and the Event to be added, looking only at the
+     * time of day. Events without an end time occupy the single minute they start on, and an Event
+     * touching another Event's start or end time counts as a conflict.
      * @param e the event who's being checked 
      * @return true if there is a time conflict
      */
     public boolean timeConflicts(Event e)
     {
-        if(this.getDate().get(Calendar.HOUR_OF_DAY) < e.getDate().get(Calendar.HOUR_OF_DAY) && this.getEndTime().get(Calendar.HOUR_OF_DAY) > e.getDate().get(Calendar.HOUR_OF_DAY))
-        {
-            return true;
-        }
-        else if (this.getDate().get(Calendar.HOUR_OF_DAY) == e.getEndTime().get(Calendar.HOUR_OF_DAY))
-        {
-            if(this.getDate().get(Calendar.MINUTE) <= e.getEndTime().get(Calendar.MINUTE))
-                return true;
-        }
-        else if (this.getEndTime().get(Calendar.HOUR_OF_DAY) == e.getDate().get(Calendar.HOUR_OF_DAY))
-        {
-            if(this.getEndTime().get(Calendar.MINUTE) < e.getDate().get(Calendar.MINUTE))
-                return false;
-        }
-        else if(this.getDate().get(Calendar.HOUR_OF_DAY) == e.getDate().get(Calendar.HOUR_OF_DAY))
-        {
-            if(this.getDate().get(Calendar.MINUTE) <= e.getDate().get(Calendar.MINUTE))
-            {
-                return true;
-            }
-        }
-        return false;
+        long thisStart = Math.floorMod(getStartMinute(), MINUTES_PER_DAY);
+        long otherStart = Math.floorMod(e.getStartMinute(), MINUTES_PER_DAY);
+        return thisStart <= otherStart + e.getEndMinute() - e.getStartMinute()
+                && otherStart <= thisStart + getEndMinute() - getStartMinute();
+    }
+    
+    /**
+     * Gets the start of the Event as the number of minutes since 01/01/1970 00:00 in local time.
+     * @return start minute
+     */
+    public long getStartMinute()
+    {
+        return start;
+    }
+    
+    /**
+     * Gets the day the Event starts on as the number of days since 01/01/1970.
+     * @return start day
+     */
+    public long getEpochDay()
+    {
+        return Math.floorDiv(getStartMinute(), MINUTES_PER_DAY);
+    }
+    
+    /**
+     * Gets the end of the Event as the number of minutes since 01/01/1970 00:00 in local time. Events
+     * without an end time end on their start minute, and an end time earlier than the start time runs
+     * past midnight into the next day.
+     * @return end minute
+     */
+    public long getEndMinute()
+    {
+        return start + span;
     }
     
     /**
@@ -311,22 +373,36 @@ public class Event {
     public String getName(){return name;}
     
     /**
-     * To get the Event's Date
+     * Gets the title as written to the events file and the journal, read back by restore()
+     * @return the title, plus the recurrence rule for a RecurringEvent
+     */
+    String storedName(){return name;}
+    
+    /**
+     * Gets the last day the Event takes place on, which is the day it starts on unless it repeats
+     * @return epoch day
+     */
+    long getLastEpochDay(){return getEpochDay();}
+    
+    /**
+     * To get the Event's Date. A new calendar is built on every call, so changing it does not change
+     * the Event.
      * @return Start date/time
      */
-    public GregorianCalendar getDate(){return date;}
+    public GregorianCalendar getDate(){return toCalendar(start);}
     
     /**
-     * To get the Event's end time
+     * To get the Event's end time. Events without an end time end on their start time. A new calendar
+     * is built on every call, so changing it does not change the Event.
      * @return End time
      */
-    public GregorianCalendar getEndTime(){return endTime;}
+    public GregorianCalendar getEndTime(){return toCalendar(start + span);}
     
     /**
      * To check if the Event has an end time specified
      * @return true if Event has an end time
      */
-    public boolean hasEndTime(){return hasEnd;}
+    public boolean hasEndTime(){return (flags & HAS_END) != 0;}
     
     /**
      * Returns a String representation of the given event
@@ -334,19 +410,76 @@ public class Event {
      */
     public String toString()
     {
-        SimpleDateFormat sdf = new SimpleDateFormat("HH:mm");
         String text = "";
         if(hasEndTime())
         {
-            text += sdf.format(date.getTime())  + " - " + sdf.format(endTime.getTime());
+            text += formatTime(start) + " - " + formatTime(start + span);
             text += "\t" + getName();
         }
         else
         {
-            text += sdf.format(date.getTime());
+            text += formatTime(start);
             text += "\t" + getName();
         }
-        sdf = new SimpleDateFormat("EEEEEEEEEE, d MMMMMMMMM yyyy HH:mm");
         return text;
     }
+    
+    /**
+     * Formats the time of day of a minute count as HH:mm
+     * @param minute minutes since 01/01/1970 00:00
+     * @return formatted time
+     */
+    private static String formatTime(long minute)
+    {
+        int ofDay = Math.floorMod(minute, MINUTES_PER_DAY);
+        return String.format("%02d:%02d", ofDay / 60, ofDay % 60);
+    }
+    
+    /**
+     * Converts a date to a minute count since 01/01/1970 00:00 in local time
+     * @param d the date to be converted
+     * @return minutes since 01/01/1970 00:00
+     */
+    private static long toMinute(Date d)
+    {
+        GregorianCalendar c = new GregorianCalendar();
+        c.setTime(d);
+        return toMinute(c);
+    }
+    
+    /**
+     * Converts the date and time held by a calendar to a minute count since 01/01/1970 00:00 in local time
+     * @param c the calendar to be converted
+     * @return minutes since 01/01/1970 00:00
+     */
+    static long toMinute(GregorianCalendar c)
+    {
+        long day = LocalDate.of(c.get(Calendar.YEAR), c.get(Calendar.MONTH) + 1,
+                c.get(Calendar.DAY_OF_MONTH)).toEpochDay();
+        return day * MINUTES_PER_DAY + c.get(Calendar.HOUR_OF_DAY) * 60 + c.get(Calendar.MINUTE);
+    }
+    
+    /**
+     * Builds a calendar holding the date and time of a minute count
+     * @param minute minutes since 01/01/1970 00:00 in local time
+     * @return a new calendar set to that minute
+     */
+    private static GregorianCalendar toCalendar(long minute)
+    {
+        LocalDate day = LocalDate.ofEpochDay(Math.floorDiv(minute, MINUTES_PER_DAY));
+        int ofDay = Math.floorMod(minute, MINUTES_PER_DAY);
+        return new GregorianCalendar(day.getYear(), day.getMonthValue() - 1, day.getDayOfMonth(),
+                ofDay / 60, ofDay % 60);
+    }
+    
+    /**
+     * Gets the Scanner reading the console, shared by every Event so that only makeEvent() pays for it
+     * @return Scanner on System.in
+     */
+    private static synchronized Scanner console()
+    {
+        if (console == null)
+            console = new Scanner(System.in);
+        return console;
+    }
 }
@@ -0,0 +1,277 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact encoding of blocks of Events in start-time order, used for the sections of a MonthStore.
+ * Titles are not stored with the Events: every distinct title gets a number in a Dictionary shared by all
+ * blocks of a file, and the Events refer to it by number. Start minutes are stored as the difference to
+ * the previous Event's start and lengths as a number of minutes, all as variable-length integers (7 bits
+ * per byte, high bit set on every byte but the last). A typical Event then takes 3 to 5 bytes instead of
+ * the 40 or so of an events.txt line.
+ *
+ * Optionally a block is also compressed with Deflate, which pays off on the regular schedules most
+ * calendars hold. The first byte of a block says whether it is; a reader handles both.
+ * <pre>
+ * block:      flags (1 = deflated), [raw length if deflated], raw bytes, deflated if flagged
+ * Events:     Event count, (start delta, length * 2 + has end, name number) per Event
+ * Dictionary: name count, (name length, UTF-8 name) per name
+ * </pre>
+ * The first start delta is zig-zag encoded from 0 so starts before 1970 still fit.
+ * @author Alejandro Lopez
+ */
+class EventCodec {
+    static final int FLAG_DEFLATED = 1;
+
+    private byte[] buf;
+    private int pos;
+
+    private EventCodec(byte[] buf, int pos)
+    {
+        this.buf = buf;
+        this.pos = pos;
+    }
+
+    /**
+     * The titles of a file, numbered in the order they were first stored. Numbers never change, so
+     * blocks written earlier stay readable as more titles are added.
+     */
+    static final class Dictionary
+    {
+        private final HashMap<String, Integer> numbers = new HashMap<>();
+        private final ArrayList<String> names = new ArrayList<>();
+
+        /**
+         * Gets the number of a title, adding it if it is new
+         * @param name the title
+         * @return its number
+         */
+        int number(String name)
+        {
+            Integer n = numbers.get(name);
+            if (n == null)
+            {
+                n = names.size();
+                numbers.put(name, n);
+                names.add(name);
+            }
+            return n;
+        }
+
+        /**
+         * Gets a title by number
+         * @param n the number
+         * @return the title
+         * @throws IOException if there is no such number
+         */
+        String name(int n) throws IOException
+        {
+            if (n < 0 || n >= names.size())
+                throw new IOException("Corrupt event block: unknown name " + n);
+            return names.get(n);
+        }
+
+        /**
+         * Gets the number of titles
+         * @return the count
+         */
+        int size()
+        {
+            return names.size();
+        }
+
+        /**
+         * Encodes every title as a block
+         * @param deflate true to also compress the block with Deflate
+         * @return the encoded block
+         */
+        byte[] encode(boolean deflate)
+        {
+            EventCodec out = new EventCodec(new byte[16 + names.size() * 16], 0);
+            out.putVarint(names.size());
+            for (String name : names)
+            {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                out.putVarint(bytes.length);
+                out.ensure(bytes.length);
+                System.arraycopy(bytes, 0, out.buf, out.pos, bytes.length);
+                out.pos += bytes.length;
+            }
+            return out.pack(deflate);
+        }
+
+        /**
+         * Decodes a block written by encode()
+         * @param block the array holding the block
+         * @param offset where the block starts
+         * @param length length of the block
+         * @return the titles
+         * @throws IOException if the block is corrupt
+         */
+        static Dictionary decode(byte[] block, int offset, int length) throws IOException
+        {
+            try
+            {
+                EventCodec in = unpack(block, offset, length);
+                Dictionary dictionary = new Dictionary();
+                int count = (int) in.getVarint();
+                for (int i = 0; i < count; i++)
+                {
+                    int size = (int) in.getVarint();
+                    dictionary.number(new String(in.buf, in.pos, size, StandardCharsets.UTF_8));
+                    in.pos += size;
+                }
+                return dictionary;
+            }
+            catch (RuntimeException e)
+            {
+                throw new IOException("Corrupt dictionary block", e);
+            }
+        }
+    }
+
+    /**
+     * Encodes a block of Events
+     * @param sorted the Events in start-time order
+     * @param names numbers the titles; new titles are added to it
+     * @param deflate true to also compress the block with Deflate
+     * @return the encoded block
+     */
+    static byte[] encode(List<Event> sorted, Dictionary names, boolean deflate)
+    {
+        EventCodec out = new EventCodec(new byte[10 + sorted.size() * 6], 0);
+        out.putVarint(sorted.size());
+        long previous = 0;
+        for (int i = 0; i < sorted.size(); i++)
+        {
+            Event e = sorted.get(i);
+            long start = e.getStartMinute();
+            out.putVarint(i == 0 ? (start << 1) ^ (start >> 63) : start - previous);
+            out.putVarint((e.getEndMinute() - start) << 1 | (e.hasEndTime() ? 1 : 0));
+            out.putVarint(names.number(e.storedName()));
+            previous = start;
+        }
+        return out.pack(deflate);
+    }
+
+    /**
+     * Decodes a block written by encode()
+     * @param block the array holding the block
+     * @param offset where the block starts
+     * @param length length of the block
+     * @param names the titles of the file
+     * @return the Events in start-time order
+     * @throws IOException if the block is corrupt
+     */
+    static List<Event> decode(byte[] block, int offset, int length, Dictionary names) throws IOException
+    {
+        try
+        {
+            EventCodec in = unpack(block, offset, length);
+            int count = (int) in.getVarint();
+            ArrayList<Event> events = new ArrayList<>(count);
+            long start = 0;
+            for (int i = 0; i < count; i++)
+            {
+                long delta = in.getVarint();
+                start = i == 0 ? (delta >>> 1) ^ -(delta & 1) : start + delta;
+                long span = in.getVarint();
+                events.add(Event.restore(start, (int) (span >>> 1), (span & 1) != 0, names.name((int) in.getVarint())));
+            }
+            return events;
+        }
+        catch (RuntimeException e)
+        {
+            throw new IOException("Corrupt event block", e);
+        }
+    }
+
+    /**
+     * Frames the bytes written so far as a block, deflating them if asked to
+     */
+    private byte[] pack(boolean deflate)
+    {
+        if (!deflate)
+        {
+            byte[] block = new byte[pos + 1];
+            System.arraycopy(buf, 0, block, 1, pos);
+            return block;
+        }
+        ByteArrayOutputStream packed = new ByteArrayOutputStream(pos / 2 + 16);
+        EventCodec header = new EventCodec(new byte[11], 0);
+        header.buf[header.pos++] = FLAG_DEFLATED;
+        header.putVarint(pos);
+        packed.write(header.buf, 0, header.pos);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        deflater.setInput(buf, 0, pos);
+        deflater.finish();
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished())
+            packed.write(chunk, 0, deflater.deflate(chunk));
+        deflater.end();
+        return packed.toByteArray();
+    }
+
+    /**
+     * Opens a block for reading, inflating it if it is deflated
+     */
+    private static EventCodec unpack(byte[] block, int offset, int length) throws IOException
+    {
+        if ((block[offset] & FLAG_DEFLATED) == 0)
+            return new EventCodec(block, offset + 1);
+        EventCodec header = new EventCodec(block, offset + 1);
+        byte[] raw = new byte[(int) header.getVarint()];
+        Inflater inflater = new Inflater();
+        try
+        {
+            inflater.setInput(block, header.pos, offset + length - header.pos);
+            if (inflater.inflate(raw) != raw.length)
+                throw new IOException("Corrupt event block: short inflate");
+        }
+        catch (DataFormatException e)
+        {
+            throw new IOException("Corrupt event block", e);
+        }
+        finally
+        {
+            inflater.end();
+        }
+        return new EventCodec(raw, 0);
+    }
+
+    private void ensure(int bytes)
+    {
+        if (pos + bytes > buf.length)
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + bytes));
+    }
+
+    private void putVarint(long v)
+    {
+        ensure(10);
+        while ((v & ~0x7FL) != 0)
+        {
+            buf[pos++] = (byte) (v | 0x80);
+            v >>>= 7;
+        }
+        buf[pos++] = (byte) v;
+    }
+
+    private long getVarint()
+    {
+        long v = 0;
+        for (int shift = 0; ; shift += 7)
+        {
+            byte b = buf[pos++];
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return v;
+        }
+    }
+}
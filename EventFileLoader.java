@@ -0,0 +1,356 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Month;
+import java.time.YearMonth;
+import java.time.format.TextStyle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Reads the events.txt format written by CalendarModel.printToFile(), one Event per line:
+ * "Wednesday, 5 March 2025 14:30 - 15:30;Title" or "Wednesday, 5 March 2025 14:30;Title".
+ * Lines are read from a FileChannel in large blocks and parsed byte by byte without regular
+ * expressions or date formatters. Large files are cut into chunks on line boundaries that are
+ * parsed in parallel on the common fork-join pool, and the sorted chunks are merged back together.
+ * @author Alejandro Lopez
+ */
+class EventFileLoader {
+    private static final int BLOCK_SIZE = 1 << 16;
+    private static final long PARALLEL_THRESHOLD = 4L << 20;
+    private static final byte[][] MONTH_NAMES = new byte[12][];
+
+    static
+    {
+        for (Month month : Month.values())
+            MONTH_NAMES[month.ordinal()] = month.getDisplayName(TextStyle.FULL, Locale.ENGLISH)
+                    .getBytes(Charset.defaultCharset());
+    }
+
+    private EventFileLoader()
+    {
+    }
+
+    /**
+     * Loads every Event stored in a text file.
+     * @param file the file to be read
+     * @return the Events of the file sorted with CalendarModel.eventComparator
+     * @throws IOException if the file cannot be read
+     */
+    public static ArrayList<Event> load(Path file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            if (size < PARALLEL_THRESHOLD)
+            {
+                ArrayList<Event> events = parseRange(channel, 0, size);
+                events.sort(CalendarModel.eventComparator);
+                return events;
+            }
+
+            int chunks = ForkJoinPool.getCommonPoolParallelism() * 4;
+            long[] bounds = new long[chunks + 1];
+            for (int i = 1; i < chunks; i++)
+                bounds[i] = nextLineStart(channel, Math.max(bounds[i - 1], size * i / chunks), size);
+            bounds[chunks] = size;
+            try
+            {
+                return ForkJoinPool.commonPool().invoke(new ChunkTask(channel, bounds, 0, chunks));
+            }
+            catch (UncheckedIOException e)
+            {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Parses the chunks between two entries of the boundary table and merges their sorted results.
+     */
+    private static final class ChunkTask extends RecursiveTask<ArrayList<Event>>
+    {
+        private static final long serialVersionUID = 1L;
+        private final FileChannel channel;
+        private final long[] bounds;
+        private final int from;
+        private final int to;
+
+        ChunkTask(FileChannel channel, long[] bounds, int from, int to)
+        {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected ArrayList<Event> compute()
+        {
+            if (to - from == 1)
+            {
+                try
+                {
+                    ArrayList<Event> events = parseRange(channel, bounds[from], bounds[to]);
+                    events.sort(CalendarModel.eventComparator);
+                    return events;
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            int mid = (from + to) >>> 1;
+            ChunkTask left = new ChunkTask(channel, bounds, from, mid);
+            left.fork();
+            ArrayList<Event> right = new ChunkTask(channel, bounds, mid, to).compute();
+            return merge(left.join(), right);
+        }
+    }
+
+    /**
+     * Merges two lists that are already sorted with CalendarModel.eventComparator
+     * @param a first sorted list
+     * @param b second sorted list
+     * @return a new sorted list holding both
+     */
+    static ArrayList<Event> merge(List<Event> a, List<Event> b)
+    {
+        ArrayList<Event> merged = new ArrayList<>(a.size() + b.size());
+        int i = 0;
+        int j = 0;
+        while (i < a.size() && j < b.size())
+        {
+            if (CalendarModel.eventComparator.compare(b.get(j), a.get(i)) < 0)
+                merged.add(b.get(j++));
+            else
+                merged.add(a.get(i++));
+        }
+        merged.addAll(a.subList(i, a.size()));
+        merged.addAll(b.subList(j, b.size()));
+        return merged;
+    }
+
+    /**
+     * Finds the first byte after the newline at or following a position
+     */
+    private static long nextLineStart(FileChannel channel, long pos, long size) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        while (pos < size)
+        {
+            buf.clear();
+            int n = channel.read(buf, pos);
+            if (n <= 0)
+                break;
+            for (int i = 0; i < n; i++)
+            {
+                if (buf.get(i) == '\n')
+                    return pos + i + 1;
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    /**
+     * Parses every line in the byte range [from, to) of the file. The range must start at the
+     * beginning of a line.
+     */
+    private static ArrayList<Event> parseRange(FileChannel channel, long from, long to) throws IOException
+    {
+        ArrayList<Event> events = new ArrayList<>();
+        ByteBuffer buf = ByteBuffer.allocate(BLOCK_SIZE);
+        byte[] bytes = buf.array();
+        long pos = from;
+        int filled = 0;
+        while (pos < to || filled > 0)
+        {
+            int n = 0;
+            if (pos < to)
+            {
+                buf.limit((int) Math.min(bytes.length, filled + (to - pos)));
+                buf.position(filled);
+                n = channel.read(buf, pos);
+                if (n < 0)
+                    n = 0;
+                pos += n;
+                filled += n;
+            }
+            boolean last = pos >= to || n == 0;
+
+            int lineStart = 0;
+            for (int i = 0; i < filled; i++)
+            {
+                if (bytes[i] == '\n')
+                {
+                    parseLine(bytes, lineStart, i, events);
+                    lineStart = i + 1;
+                }
+            }
+            if (last)
+            {
+                parseLine(bytes, lineStart, filled, events);
+                break;
+            }
+            if (lineStart == 0 && filled == bytes.length)
+            {
+                // A single line is longer than the buffer
+                ByteBuffer bigger = ByteBuffer.allocate(bytes.length * 2);
+                bigger.put(bytes, 0, filled);
+                buf = bigger;
+                bytes = buf.array();
+                continue;
+            }
+            System.arraycopy(bytes, lineStart, bytes, 0, filled - lineStart);
+            filled -= lineStart;
+        }
+        return events;
+    }
+
+    /**
+     * Parses one line and adds its Event to the list. Lines that do not follow the English
+     * format are handed to the SimpleDateFormat-based Event constructors, and blank lines are skipped.
+     */
+    private static void parseLine(byte[] b, int from, int to, ArrayList<Event> events)
+    {
+        while (from < to && b[from] <= ' ')
+            from++;
+        while (to > from && b[to - 1] <= ' ')
+            to--;
+        if (from == to)
+            return;
+
+        Event e = parseFast(b, from, to);
+        if (e == null)
+            e = parseSlow(new String(b, from, to - from, Charset.defaultCharset()));
+        if (e != null)
+            events.add(e);
+    }
+
+    private static Event parseFast(byte[] b, int from, int to)
+    {
+        int p = from;
+        while (p < to && b[p] != ',')
+            p++;
+        p = skipSpaces(b, p + 1, to);
+
+        int day = 0;
+        int digits = p;
+        while (p < to && b[p] >= '0' && b[p] <= '9')
+            day = day * 10 + (b[p++] - '0');
+        if (p == digits || p - digits > 2 || day < 1 || day > 31)
+            return null;
+        p = skipSpaces(b, p, to);
+
+        int monthStart = p;
+        while (p < to && b[p] > ' ')
+            p++;
+        int month = monthIndex(b, monthStart, p);
+        if (month < 0)
+            return null;
+        p = skipSpaces(b, p, to);
+
+        int year = 0;
+        digits = p;
+        while (p < to && b[p] >= '0' && b[p] <= '9')
+            year = year * 10 + (b[p++] - '0');
+        // More digits than a Year holds could overflow; the slow path decides about such lines
+        if (p == digits || p - digits > 9)
+            return null;
+        p = skipSpaces(b, p, to);
+
+        int startTime = parseTime(b, p, to);
+        if (startTime < 0)
+            return null;
+        p = skipSpaces(b, p + 5, to);
+
+        boolean hasEnd = false;
+        int span = 0;
+        if (p < to && b[p] == '-')
+        {
+            p = skipSpaces(b, p + 1, to);
+            int endTime = parseTime(b, p, to);
+            if (endTime < 0)
+                return null;
+            p = skipSpaces(b, p + 5, to);
+            hasEnd = true;
+            span = endTime - startTime;
+            if (span < 0)
+                span += Event.MINUTES_PER_DAY;
+        }
+        if (p >= to || b[p] != ';')
+            return null;
+        p = skipSpaces(b, p + 1, to);
+
+        if (day > YearMonth.of(year, month + 1).lengthOfMonth())
+            return null;
+        long start = DayIndex.epochDay(year, month, day) * Event.MINUTES_PER_DAY + startTime;
+        String name = new String(b, p, to - p, Charset.defaultCharset());
+        return Event.restore(start, span, hasEnd, name);
+    }
+
+    /**
+     * Parses an HH:mm time starting at p
+     * @return minutes since midnight, or -1 if there is no valid time at p
+     */
+    private static int parseTime(byte[] b, int p, int to)
+    {
+        if (p + 5 > to || b[p + 2] != ':')
+            return -1;
+        int h1 = b[p] - '0';
+        int h2 = b[p + 1] - '0';
+        int m1 = b[p + 3] - '0';
+        int m2 = b[p + 4] - '0';
+        if ((h1 | h2 | m1 | m2) < 0 || h1 > 9 || h2 > 9 || m1 > 9 || m2 > 9)
+            return -1;
+        int hour = h1 * 10 + h2;
+        int minute = m1 * 10 + m2;
+        if (hour > 23 || minute > 59)
+            return -1;
+        return hour * 60 + minute;
+    }
+
+    private static int skipSpaces(byte[] b, int p, int to)
+    {
+        while (p < to && b[p] == ' ')
+            p++;
+        return p;
+    }
+
+    private static int monthIndex(byte[] b, int from, int to)
+    {
+        for (int m = 0; m < MONTH_NAMES.length; m++)
+        {
+            byte[] name = MONTH_NAMES[m];
+            if (name.length != to - from)
+                continue;
+            int i = 0;
+            while (i < name.length && (b[from + i] | 0x20) == (name[i] | 0x20))
+                i++;
+            if (i == name.length)
+                return m;
+        }
+        return -1;
+    }
+
+    private static Event parseSlow(String line)
+    {
+        String [] split = line.split("-|;");
+        if (split.length < 2)
+        {
+            System.err.println("Skipping unreadable line: " + line);
+            return null;
+        }
+        if (split.length == 3)
+            return new Event(split[0].trim(), split[1].trim(), split[2].trim());
+        return new Event(split[0].trim(), split[1].trim());
+    }
+}
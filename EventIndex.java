@@ -0,0 +1,128 @@
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * All of the Events of a Calendar together with whatever indexes are kept over them. Every change goes
+ * through the index so the indexes and the journal always stay in step. PlainEventIndex is the
+ * single-threaded index, StripedEventIndex the one that can be used from many threads at once.
+ *
+ * Recurring series are stored once, as the RecurringEvent itself, and never expanded; every lookup adds
+ * the occurrences of the series for the days it covers.
+ * @author Alejandro Lopez
+ */
+interface EventIndex {
+    /**
+     * Sets the journal that successful changes are written to
+     * @param journal the journal, or null to stop journaling
+     */
+    void setJournal(EventJournal journal);
+
+    /**
+     * Adds an Event or a recurring series unless it overlaps a stored Event or an occurrence of a
+     * stored series
+     * @param e Event to be stored
+     * @return true if the Event was added
+     */
+    boolean add(Event e);
+
+    /**
+     * Checks if any stored Event or series overlaps the given Event or series
+     * @param e the Event to be checked
+     * @return true if there is a time conflict
+     */
+    boolean overlaps(Event e);
+
+    /**
+     * Adds a batch of single Events, rejecting the ones that overlap a stored Event or an earlier
+     * Event of the batch
+     * @param sorted the batch, sorted with CalendarModel.eventComparator, without recurring series
+     * @param report receives the rejected Events
+     * @return the added Events in start-time order
+     */
+    List<Event> addAll(List<Event> sorted, ImportReport report);
+
+    /**
+     * Stores Events without checking for conflicts or journaling them, used when loading
+     * @param sorted Events sorted with CalendarModel.eventComparator
+     */
+    void insertAll(List<Event> sorted);
+
+    /**
+     * Removes the Events with a given title from a day
+     * @param day epoch day of the Events
+     * @param name title of the Events, compared ignoring case
+     */
+    void removeNamed(long day, String name);
+
+    /**
+     * Removes every Event from a day
+     * @param day epoch day of the Events
+     */
+    void removeDay(long day);
+
+    /**
+     * Removes whole recurring series, every occurrence at once
+     * @param day epoch day the series occur on
+     * @param name title of the series, compared ignoring case
+     */
+    void removeSeries(long day, String name);
+
+    /**
+     * Lazily iterates the Events sharing at least one minute with a range, without copying them
+     * @param from first minute of the range
+     * @param to last minute of the range
+     * @return iterator over the Events in start-time order, unaffected by later changes
+     */
+    Iterator<Event> query(long from, long to);
+
+    /**
+     * Gets the Events starting on a given day
+     * @param day epoch day to look up
+     * @return the day's Events in start-time order
+     */
+    List<Event> eventsOn(long day);
+
+    /**
+     * Checks if any Event starts on a given day
+     * @param day epoch day to look up
+     * @return true if the day has an Event
+     */
+    boolean hasEvents(long day);
+
+    /**
+     * Gets the days of a month that have Events
+     * @param year the year
+     * @param month the month, 0 based like Calendar.MONTH
+     * @return mask with bit d-1 set if an Event starts on day d
+     */
+    int monthMask(int year, int month);
+
+    /**
+     * Gets the number of Events on each day of a month
+     * @param year the year
+     * @param month the month, 0 based like Calendar.MONTH
+     * @return array whose element d-1 is the number of Events starting on day d
+     */
+    int[] monthCounts(int year, int month);
+
+    /**
+     * Gets the number of stored Events, counting each recurring series once
+     * @return number of Events
+     */
+    int size();
+
+    /**
+     * Freezes every stored Event. The snapshot is not affected by later changes, so it can be read on
+     * another thread while the index keeps changing.
+     * @return the Events in start-time order
+     */
+    List<Event> snapshot();
+
+    /**
+     * Takes a snapshot of every stored Event and hands it to an action before any further change can
+     * be made, so the snapshot and anything the action queues line up exactly with the journal.
+     * @param action receives the Events in start-time order
+     */
+    void withSnapshot(Consumer<List<Event>> action);
+}
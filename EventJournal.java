@@ -0,0 +1,592 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the changes made to a Calendar since its last full save. Every add,
+ * removeSelected, removeAll and removeSeries is written as one framed record (length, payload, CRC32). Records are
+ * handed to a background writer thread, which writes everything that queued up while the previous
+ * batch was being synced and then calls force() once for the whole batch (group commit).
+ *
+ * On startup the journal is replayed on top of the last saved snapshot. A record cut short by a crash
+ * runs past the end of the file or fails its checksum and ends the replay; a damaged record anywhere
+ * else fails the replay. Once the journal grows past a size threshold,
+ * needsCompaction() says so and the Calendar hands a copy of its Events to checkpoint(), which the
+ * writer thread saves as a new snapshot before emptying the journal. If the snapshot cannot be saved,
+ * the journal is kept whole and the failure is reported to whoever waits for the checkpoint.
+ *
+ * The journal also keeps track of the months its records touch (see MonthStore.monthKey), including
+ * the records replayed on startup, so a snapshot writer can rewrite only the months changed since the
+ * last snapshot. Any removal also marks the recurring series, since it may skip one of their days.
+ * @author Alejandro Lopez
+ */
+class EventJournal {
+    static final long COMPACT_THRESHOLD = 8L << 20;
+
+    private static final byte ADD = 1;
+    private static final byte REMOVE_SELECTED = 2;
+    private static final byte REMOVE_ALL = 3;
+    private static final byte REMOVE_SERIES = 4;
+    /** Longest payload a replayed record may have; titles are single lines, far shorter than this */
+    private static final int MAX_PAYLOAD = 1 << 20;
+
+    /**
+     * Receives the records of a journal while it is replayed
+     */
+    interface Target
+    {
+        /**
+         * Replays an Event that was added
+         * @param e the Event
+         */
+        void add(Event e);
+
+        /**
+         * Replays the removal of the Events with a title on a day
+         * @param day epoch day of the Events
+         * @param name the title of the Events
+         */
+        void removeSelected(long day, String name);
+
+        /**
+         * Replays the removal of every Event on a day
+         * @param day epoch day of the Events
+         */
+        void removeAll(long day);
+
+        /**
+         * Replays the removal of whole recurring series
+         * @param day epoch day the series occur on
+         * @param name the title of the series
+         */
+        void removeSeries(long day, String name);
+    }
+
+    /**
+     * Saves a full snapshot of the Calendar, used when the journal is compacted
+     */
+    interface SnapshotWriter
+    {
+        /**
+         * Saves the Events as the new snapshot
+         * @param events every Event of the Calendar in start-time order
+         * @param dirty keys of the months changed since the last snapshot, MonthStore.SERIES for the
+         *        recurring series, or null if every month must be rewritten
+         * @throws IOException if the snapshot cannot be written
+         */
+        void write(List<Event> events, Set<Integer> dirty) throws IOException;
+    }
+
+    /**
+     * One item of work for the writer thread. Holds either a framed record, a snapshot to save before
+     * the journal is emptied, or only a future to complete once everything before it is on disk.
+     */
+    private static final class Entry
+    {
+        final byte[] frame;
+        final List<Event> snapshot;
+        final Set<Integer> dirty;
+        final boolean truncate;
+        final CompletableFuture<Void> done;
+
+        Entry(byte[] frame, List<Event> snapshot, Set<Integer> dirty, boolean truncate, CompletableFuture<Void> done)
+        {
+            this.frame = frame;
+            this.snapshot = snapshot;
+            this.dirty = dirty;
+            this.truncate = truncate;
+            this.done = done;
+        }
+    }
+
+    private static final Entry STOP = new Entry(null, null, null, false, null);
+
+    private final FileChannel channel;
+    private final SnapshotWriter snapshotWriter;
+    private final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private long queuedBytes;
+    private boolean compacting;
+    private volatile boolean closed;
+    private HashSet<Integer> dirty;
+    private boolean rewrite;
+
+    private EventJournal(FileChannel channel, SnapshotWriter snapshotWriter, HashSet<Integer> dirty) throws IOException
+    {
+        this.channel = channel;
+        this.snapshotWriter = snapshotWriter;
+        this.dirty = dirty;
+        this.queuedBytes = channel.size();
+        writer = new Thread(this::writeLoop, "event-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Replays a journal into a Calendar and opens it for appending. A torn record at the end of the
+     * file is cut off, but a damaged record with more records after it is not, since those may still
+     * be recovered: the journal is left as it is and the open fails.
+     * @param file the journal file, created if missing
+     * @param target receives the replayed records
+     * @param snapshotWriter saves snapshots when the journal is compacted
+     * @return the opened journal
+     * @throws IOException if the journal cannot be read or opened, or is damaged before its end
+     */
+    public static EventJournal open(Path file, Target target, SnapshotWriter snapshotWriter) throws IOException
+    {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try
+        {
+            HashSet<Integer> dirty = new HashSet<>();
+            long end = replay(channel, target, dirty);
+            if (end < channel.size())
+            {
+                channel.truncate(end);
+                channel.force(true);
+            }
+            channel.position(end);
+            return new EventJournal(channel, snapshotWriter, dirty);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Journals an Event that was added
+     * @param e the Event
+     */
+    public void logAdd(Event e)
+    {
+        byte[] name = e.storedName().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(1 + 8 + 4 + 1 + name.length);
+        payload.put(ADD).putLong(e.getStartMinute()).putInt((int) (e.getEndMinute() - e.getStartMinute()))
+                .put((byte) (e.hasEndTime() ? 1 : 0)).put(name);
+        append(payload.array(), monthOf(e), false);
+    }
+
+    /**
+     * Journals the removal of the Events with a title on a day
+     * @param day epoch day of the Events
+     * @param name the title of the Events
+     */
+    public void logRemoveSelected(long day, String name)
+    {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(1 + 8 + bytes.length);
+        payload.put(REMOVE_SELECTED).putLong(day).put(bytes);
+        append(payload.array(), MonthStore.monthKey(day), true);
+    }
+
+    /**
+     * Journals the removal of every Event on a day
+     * @param day epoch day of the Events
+     */
+    public void logRemoveAll(long day)
+    {
+        ByteBuffer payload = ByteBuffer.allocate(1 + 8);
+        payload.put(REMOVE_ALL).putLong(day);
+        append(payload.array(), MonthStore.monthKey(day), true);
+    }
+
+    /**
+     * Marks the months of Events that went into the Calendar without being journaled, e.g. by an
+     * unchecked import, so the next snapshot writes them out
+     * @param events the Events
+     */
+    public synchronized void markDirty(Collection<Event> events)
+    {
+        for (Event e : events)
+            dirty.add(monthOf(e));
+    }
+
+    /**
+     * Makes the next snapshot rewrite every month, for a Calendar that was changed in ways that cannot
+     * be told apart by month, e.g. Events dropped by a repair while loading
+     */
+    public synchronized void markAllDirty()
+    {
+        rewrite = true;
+    }
+
+    /**
+     * Journals the removal of the recurring series with a title occurring on a day
+     * @param day epoch day the series occur on
+     * @param name the title of the series
+     */
+    public void logRemoveSeries(long day, String name)
+    {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(1 + 8 + bytes.length);
+        payload.put(REMOVE_SERIES).putLong(day).put(bytes);
+        append(payload.array(), MonthStore.SERIES, false);
+    }
+
+    /**
+     * Checks if the journal has grown past the compaction threshold and no compaction is queued yet
+     * @return true if the Calendar should hand a snapshot to checkpoint()
+     */
+    public synchronized boolean needsCompaction()
+    {
+        return queuedBytes > COMPACT_THRESHOLD && !compacting;
+    }
+
+    /**
+     * Queues a full snapshot to be saved on the writer thread once everything queued so far is
+     * written, after which the journal is emptied. Going through the writer thread keeps saves from
+     * racing with each other. The snapshot must hold exactly the changes journaled before this call.
+     * @param events every Event of the Calendar in start-time order
+     * @return completes once the snapshot is saved and the journal emptied, or exceptionally if the
+     *         snapshot could not be saved, in which case the journal keeps every record
+     */
+    public synchronized CompletableFuture<Void> checkpoint(List<Event> events)
+    {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (closed)
+        {
+            done.complete(null);
+            return done;
+        }
+        compacting = true;
+        queue.add(new Entry(null, events, rewrite ? null : dirty, true, done));
+        dirty = new HashSet<>();
+        rewrite = false;
+        return done;
+    }
+
+    /**
+     * Waits until every record queued so far is on disk
+     * @throws IOException if the journal could not be written
+     */
+    public void flush() throws IOException
+    {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        synchronized (this)
+        {
+            if (closed)
+                return;
+            queue.add(new Entry(null, null, null, false, done));
+        }
+        await(done);
+    }
+
+    /**
+     * Writes every queued record and closes the journal file
+     */
+    public void close()
+    {
+        synchronized (this)
+        {
+            if (closed)
+                return;
+            closed = true;
+            queue.add(STOP);
+        }
+        try
+        {
+            writer.join();
+            channel.close();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException e)
+        {
+            System.err.println(e);
+        }
+    }
+
+    /**
+     * Waits for the writer thread to complete an entry
+     * @param done the entry's future
+     * @throws IOException if the snapshot or the journal could not be written
+     */
+    private static void await(CompletableFuture<Void> done) throws IOException
+    {
+        try
+        {
+            done.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private synchronized void append(byte[] payload, int month, boolean removal)
+    {
+        if (closed)
+            return;
+        byte[] frame = frame(payload);
+        queue.add(new Entry(frame, null, null, false, null));
+        queuedBytes += frame.length;
+        dirty.add(month);
+        if (removal)
+            dirty.add(MonthStore.SERIES);
+    }
+
+    private static int monthOf(Event e)
+    {
+        return e instanceof RecurringEvent ? MonthStore.SERIES : MonthStore.monthKey(e.getEpochDay());
+    }
+
+    private void writeLoop()
+    {
+        ArrayList<Entry> batch = new ArrayList<>();
+        boolean stopped = false;
+        while (!stopped)
+        {
+            try
+            {
+                batch.add(queue.take());
+            }
+            catch (InterruptedException e)
+            {
+                continue;
+            }
+            queue.drainTo(batch);
+            stopped = batch.contains(STOP);
+            IOException failure = null;
+            try
+            {
+                writeBatch(batch);
+            }
+            catch (IOException e)
+            {
+                System.err.println(e);
+                System.out.println("Error writing the event journal.");
+                failure = e;
+            }
+            // Entries already failed by writeBatch keep their own error
+            for (Entry entry : batch)
+            {
+                if (entry.done == null)
+                    continue;
+                if (failure == null)
+                    entry.done.complete(null);
+                else
+                    entry.done.completeExceptionally(failure);
+            }
+            batch.clear();
+        }
+    }
+
+    private void writeBatch(List<Entry> batch) throws IOException
+    {
+        ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        for (Entry entry : batch)
+        {
+            if (entry.frame != null)
+                pending.write(entry.frame);
+            else if (entry.truncate)
+            {
+                writeAndSync(pending);
+                if (entry.snapshot != null)
+                {
+                    try
+                    {
+                        snapshotWriter.write(entry.snapshot, entry.dirty);
+                    }
+                    catch (IOException e)
+                    {
+                        // The journal is not emptied and the records after the checkpoint are still
+                        // written, so nothing is lost; the months stay dirty for the next snapshot
+                        System.err.println(e);
+                        System.out.println("Error writing the events file.");
+                        synchronized (this)
+                        {
+                            if (entry.dirty == null)
+                                rewrite = true;
+                            else
+                                dirty.addAll(entry.dirty);
+                            compacting = false;
+                        }
+                        entry.done.completeExceptionally(e);
+                        continue;
+                    }
+                }
+                channel.truncate(0);
+                channel.force(true);
+                synchronized (this)
+                {
+                    queuedBytes = 0;
+                    for (Entry later : queue)
+                    {
+                        if (later.frame != null)
+                            queuedBytes += later.frame.length;
+                    }
+                    compacting = false;
+                }
+            }
+        }
+        writeAndSync(pending);
+    }
+
+    private void writeAndSync(ByteArrayOutputStream pending) throws IOException
+    {
+        if (pending.size() == 0)
+            return;
+        ByteBuffer buf = ByteBuffer.wrap(pending.toByteArray());
+        while (buf.hasRemaining())
+            channel.write(buf);
+        channel.force(false);
+        pending.reset();
+    }
+
+    private static byte[] frame(byte[] payload)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer frame = ByteBuffer.allocate(4 + payload.length + 4);
+        frame.putInt(payload.length).put(payload).putInt((int) crc.getValue());
+        return frame.array();
+    }
+
+    /**
+     * Reads every intact record of the journal. Only the last record may be cut short: its length runs
+     * past the end of the file with no intact record after it, or it fails its checksum with nothing
+     * after it, or it and everything after it are zeros, as a file system may leave the end of a file
+     * after a crash.
+     * @return the offset just past the last intact record
+     * @throws IOException if a record before the last one is damaged
+     */
+    private static long replay(FileChannel channel, Target target, Set<Integer> dirty) throws IOException
+    {
+        long size = channel.size();
+        ByteBuffer all = ByteBuffer.allocate((int) size);
+        int n = 0;
+        while (all.hasRemaining() && n >= 0)
+            n = channel.read(all, all.position());
+        all.flip();
+
+        CRC32 crc = new CRC32();
+        while (all.remaining() >= 4)
+        {
+            int start = all.position();
+            int length = all.getInt();
+            if (length <= 0 || length > MAX_PAYLOAD)
+            {
+                if (length == 0 && zeros(all))
+                    return start;
+                throw new IOException("Bad journal record length " + length + " at offset " + start);
+            }
+            if ((long) length + 4 > all.remaining())
+            {
+                // A torn record is all that was written after its length, so nothing intact follows it
+                if (intactRecordAfter(all, all.position()))
+                    throw new IOException("Bad journal record length " + length + " at offset " + start);
+                return start;
+            }
+            byte[] payload = new byte[length];
+            all.get(payload);
+            crc.reset();
+            crc.update(payload);
+            if (all.getInt() != (int) crc.getValue())
+            {
+                if (all.hasRemaining())
+                    throw new IOException("Corrupt journal record at offset " + start);
+                return start;
+            }
+            try
+            {
+                apply(ByteBuffer.wrap(payload), target, dirty);
+            }
+            catch (RuntimeException e)
+            {
+                throw new IOException("Unreadable journal record at offset " + start, e);
+            }
+        }
+        return all.position();
+    }
+
+    /**
+     * Looks for a record with a plausible length and a matching checksum at any offset from a position on
+     */
+    private static boolean intactRecordAfter(ByteBuffer buf, int from)
+    {
+        CRC32 crc = new CRC32();
+        for (int at = from; at + 4 + 1 + 8 + 4 <= buf.limit(); at++)
+        {
+            int length = buf.getInt(at);
+            if (length < 1 + 8 || length > MAX_PAYLOAD || (long) at + 4 + length + 4 > buf.limit())
+                continue;
+            crc.reset();
+            crc.update(buf.duplicate().position(at + 4).limit(at + 4 + length));
+            if (buf.getInt(at + 4 + length) == (int) crc.getValue())
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean zeros(ByteBuffer buf)
+    {
+        for (int i = buf.position(); i < buf.limit(); i++)
+        {
+            if (buf.get(i) != 0)
+                return false;
+        }
+        return true;
+    }
+
+    private static void apply(ByteBuffer payload, Target target, Set<Integer> dirty)
+    {
+        byte op = payload.get();
+        if (op == ADD)
+        {
+            long start = payload.getLong();
+            int span = payload.getInt();
+            boolean hasEnd = payload.get() != 0;
+            Event e = Event.restore(start, span, hasEnd, rest(payload));
+            dirty.add(monthOf(e));
+            target.add(e);
+        }
+        else if (op == REMOVE_SELECTED)
+        {
+            long day = payload.getLong();
+            dirty.add(MonthStore.monthKey(day));
+            dirty.add(MonthStore.SERIES);
+            target.removeSelected(day, rest(payload));
+        }
+        else if (op == REMOVE_ALL)
+        {
+            long day = payload.getLong();
+            dirty.add(MonthStore.monthKey(day));
+            dirty.add(MonthStore.SERIES);
+            target.removeAll(day);
+        }
+        else if (op == REMOVE_SERIES)
+        {
+            long day = payload.getLong();
+            dirty.add(MonthStore.SERIES);
+            target.removeSeries(day, rest(payload));
+        }
+    }
+
+    private static String rest(ByteBuffer payload)
+    {
+        return new String(payload.array(), payload.position(), payload.remaining(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,180 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks how EventJournal treats damaged files and failed snapshots. A journal of three records is
+ * damaged in turn: a record cut short at the end must be dropped and the records before it replayed,
+ * while a bad checksum or a bad length in any record but the last must fail the open and leave the file
+ * as it was. Then a snapshot writer that fails must not lose the records journaled after the checkpoint,
+ * and must make the checkpoint report the failure.
+ *
+ * Run as "java EventJournalTest". Throws an AssertionError, and so exits with status 1, if any check fails.
+ * @author Alejandro Lopez
+ */
+public class EventJournalTest {
+    private static final long DAY = 20000;
+
+    /**
+     * Collects the replayed Events by title
+     */
+    private static class Titles implements EventJournal.Target
+    {
+        final ArrayList<String> added = new ArrayList<>();
+
+        @Override
+        public void add(Event e)
+        {
+            added.add(e.getName());
+        }
+
+        @Override
+        public void removeSelected(long day, String name)
+        {
+        }
+
+        @Override
+        public void removeAll(long day)
+        {
+        }
+
+        @Override
+        public void removeSeries(long day, String name)
+        {
+        }
+    }
+
+    /**
+     * Runs every check
+     * @param args not used
+     * @throws IOException if a scratch file cannot be written
+     */
+    public static void main(String[] args) throws IOException
+    {
+        Path dir = Files.createTempDirectory("journal-test");
+        try
+        {
+            Path file = dir.resolve("events.journal");
+            byte[] intact = threeRecords(file);
+            int[] starts = recordStarts(intact);
+
+            // Torn tail: the last record is missing its last bytes
+            Files.write(file, Arrays.copyOf(intact, intact.length - 3));
+            check(replay(file).equals(List.of("a", "b")), "a torn tail dropped more than the last record");
+            check(Files.size(file) == starts[2], "the torn tail was not cut off");
+
+            // Zeros left at the end by a crash
+            byte[] zeros = Arrays.copyOf(intact, intact.length + 16);
+            Files.write(file, zeros);
+            check(replay(file).equals(List.of("a", "b", "c")), "zeros at the end were not cut off");
+
+            // Bad checksum in the middle
+            byte[] badCrc = intact.clone();
+            badCrc[starts[1] - 1] ^= 1;
+            checkRefused(file, badCrc, "a bad checksum in the middle");
+
+            // Bad lengths in the middle: too long, zero, and one that overflows int math
+            for (int length : new int[] {1000, 0, -1, Integer.MAX_VALUE - 2})
+            {
+                byte[] badLength = intact.clone();
+                ByteBuffer.wrap(badLength).putInt(starts[0], length);
+                checkRefused(file, badLength, "length " + length + " in the first record");
+            }
+
+            checkFailedSnapshot(dir.resolve("failing.journal"));
+            System.out.println("journal: OK");
+        }
+        finally
+        {
+            try (var files = Files.list(dir))
+            {
+                for (Path p : (Iterable<Path>) files::iterator)
+                    Files.delete(p);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    private static byte[] threeRecords(Path file) throws IOException
+    {
+        Files.deleteIfExists(file);
+        EventJournal journal = EventJournal.open(file, new Titles(), (events, dirty) -> { });
+        for (String name : new String[] {"a", "b", "c"})
+            journal.logAdd(new Event(DAY * Event.MINUTES_PER_DAY + name.charAt(0), 30, true, name));
+        journal.close();
+        return Files.readAllBytes(file);
+    }
+
+    /**
+     * Finds where each record starts from the length fields of the frames
+     */
+    private static int[] recordStarts(byte[] journal)
+    {
+        ByteBuffer buf = ByteBuffer.wrap(journal);
+        int[] starts = new int[3];
+        for (int i = 0; i < starts.length; i++)
+        {
+            starts[i] = buf.position();
+            buf.position(buf.position() + 4 + buf.getInt() + 4);
+        }
+        check(!buf.hasRemaining(), "the journal holds more than three records");
+        return starts;
+    }
+
+    private static List<String> replay(Path file) throws IOException
+    {
+        Titles titles = new Titles();
+        EventJournal.open(file, titles, (events, dirty) -> { }).close();
+        return titles.added;
+    }
+
+    private static void checkRefused(Path file, byte[] damaged, String damage) throws IOException
+    {
+        Files.write(file, damaged);
+        try
+        {
+            replay(file);
+            throw new AssertionError("the journal was opened with " + damage);
+        }
+        catch (IOException e)
+        {
+            // Expected
+        }
+        check(Arrays.equals(Files.readAllBytes(file), damaged), "the journal was changed after " + damage);
+    }
+
+    /**
+     * Journals an Event after a checkpoint whose snapshot cannot be saved, in the same batch
+     */
+    private static void checkFailedSnapshot(Path file) throws IOException
+    {
+        EventJournal.SnapshotWriter failing = (List<Event> events, Set<Integer> dirty) -> {
+            throw new IOException("disk full");
+        };
+        EventJournal journal = EventJournal.open(file, new Titles(), failing);
+        journal.logAdd(new Event(DAY * Event.MINUTES_PER_DAY, 30, true, "before"));
+        var done = journal.checkpoint(List.of());
+        journal.logAdd(new Event(DAY * Event.MINUTES_PER_DAY + 60, 30, true, "after"));
+        try
+        {
+            journal.flush();
+        }
+        finally
+        {
+            journal.close();
+        }
+        check(done.isCompletedExceptionally(), "the failed snapshot was not reported");
+        check(replay(file).equals(List.of("before", "after")), "records were lost when the snapshot failed");
+    }
+
+    private static void check(boolean condition, String message)
+    {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+}
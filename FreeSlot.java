@@ -0,0 +1,79 @@
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.GregorianCalendar;
+
+/**
+ * A stretch of time in which none of the searched calendars has an Event, as found by
+ * CalendarModel.findFreeSlots(). Like an Event, a slot includes both its first and its last minute, so
+ * an Event starting at the first minute and lasting up to getLength() minutes can be added to every
+ * searched calendar without a conflict.
+ * @author Alejandro Lopez
+ */
+public class FreeSlot {
+    private final long start;
+    private final long end;
+
+    /**
+     * Creates a slot
+     * @param start first free minute, in minutes since 01/01/1970 00:00 local time
+     * @param end last free minute
+     */
+    FreeSlot(long start, long end)
+    {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Gets the first free minute
+     * @return minutes since 01/01/1970 00:00 in local time
+     */
+    public long getStartMinute()
+    {
+        return start;
+    }
+
+    /**
+     * Gets the last free minute
+     * @return minutes since 01/01/1970 00:00 in local time
+     */
+    public long getEndMinute()
+    {
+        return end;
+    }
+
+    /**
+     * Gets the length of the longest Event that fits in this slot
+     * @return minutes
+     */
+    public long getLength()
+    {
+        return end - start;
+    }
+
+    /**
+     * Gets the start of the slot as a date
+     * @return a new calendar set to the first free minute
+     */
+    public GregorianCalendar getDate()
+    {
+        LocalDateTime t = toDateTime(start);
+        return new GregorianCalendar(t.getYear(), t.getMonthValue() - 1, t.getDayOfMonth(), t.getHour(), t.getMinute());
+    }
+
+    /**
+     * Returns a String representation of the slot
+     * @return the first and last free minute of the slot and its length
+     */
+    @Override
+    public String toString()
+    {
+        return toDateTime(start) + " - " + toDateTime(end) + " (" + getLength() + " min)";
+    }
+
+    private static LocalDateTime toDateTime(long minute)
+    {
+        // Minute counts are local wall-clock time, so no time zone is applied
+        return LocalDateTime.ofEpochSecond(minute * 60, 0, ZoneOffset.UTC);
+    }
+}
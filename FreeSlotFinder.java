@@ -0,0 +1,156 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Finds the times at which several calendars are all free. The search goes one day at a time: the
+ * Events of every calendar for the day are marked in a bitset with one bit per minute (23 longs), which
+ * leaves the minutes at which anyone is busy, and the free runs are then read off a word at a time with
+ * bit scans. Only one day and the spill-over into the next are held at once, every calendar's Events are
+ * read once in start-time order, and the search stops as soon as enough slots were found, so searching
+ * months ahead across hundreds of calendars costs O(days x calendars + Events read).
+ * @author Alejandro Lopez
+ */
+class FreeSlotFinder {
+    private static final int WORDS = (Event.MINUTES_PER_DAY + 63) / 64;
+
+    private FreeSlotFinder()
+    {
+    }
+
+    /**
+     * Finds the first free slots that can hold an Event of a given length
+     * @param sources for each calendar, its Events sharing a minute with the range, in start-time order
+     * @param from first minute of the range
+     * @param to last minute of the range
+     * @param duration length of the Event to place, in minutes
+     * @param limit the most slots to return
+     * @return up to limit slots in time order, each clipped to the range
+     */
+    static List<FreeSlot> find(List<Iterator<Event>> sources, long from, long to, int duration, int limit)
+    {
+        ArrayList<FreeSlot> found = new ArrayList<>();
+        if (to < from || limit <= 0)
+            return found;
+        Event[] heads = new Event[sources.size()];
+        for (int i = 0; i < heads.length; i++)
+            heads[i] = next(sources.get(i));
+
+        long[] busy = new long[WORDS];
+        long[] spill = new long[WORDS];
+        long runStart = -1;
+        long lastDay = Math.floorDiv(to, Event.MINUTES_PER_DAY);
+        for (long day = Math.floorDiv(from, Event.MINUTES_PER_DAY); day <= lastDay; day++)
+        {
+            long[] swap = busy;
+            busy = spill;
+            spill = swap;
+            Arrays.fill(spill, 0);
+
+            long dayStart = day * Event.MINUTES_PER_DAY;
+            long dayEnd = dayStart + Event.MINUTES_PER_DAY - 1;
+            for (int i = 0; i < heads.length; i++)
+            {
+                Iterator<Event> source = sources.get(i);
+                for (Event e = heads[i]; e != null && e.getStartMinute() <= dayEnd; e = heads[i] = next(source))
+                {
+                    long start = Math.max(e.getStartMinute(), dayStart);
+                    long end = e.getEndMinute();
+                    if (end < dayStart)
+                        continue;
+                    set(busy, (int) (start - dayStart), (int) (Math.min(end, dayEnd) - dayStart));
+                    if (end > dayEnd)
+                        set(spill, 0, (int) (Math.min(end - dayEnd - 1, Event.MINUTES_PER_DAY - 1)));
+                }
+            }
+
+            int m = (int) (Math.max(from, dayStart) - dayStart);
+            int last = (int) (Math.min(to, dayEnd) - dayStart);
+            while (m <= last)
+            {
+                if (runStart < 0)
+                {
+                    int free = nextClear(busy, m);
+                    if (free > last)
+                        break;
+                    runStart = dayStart + free;
+                    m = free;
+                }
+                int taken = nextSet(busy, m);
+                if (taken > last)
+                    break;
+                if (dayStart + taken - 1 - runStart >= duration)
+                {
+                    found.add(new FreeSlot(runStart, dayStart + taken - 1));
+                    if (found.size() == limit)
+                        return found;
+                }
+                runStart = -1;
+                m = taken;
+            }
+        }
+        if (runStart >= 0 && to - runStart >= duration)
+            found.add(new FreeSlot(runStart, to));
+        return found;
+    }
+
+    private static Event next(Iterator<Event> source)
+    {
+        return source.hasNext() ? source.next() : null;
+    }
+
+    /**
+     * Sets the bits of the minutes from first to last, both included
+     */
+    private static void set(long[] words, int first, int last)
+    {
+        int fw = first >>> 6;
+        int lw = last >>> 6;
+        long firstMask = -1L << first;
+        long lastMask = -1L >>> (63 - (last & 63));
+        if (fw == lw)
+        {
+            words[fw] |= firstMask & lastMask;
+            return;
+        }
+        words[fw] |= firstMask;
+        for (int w = fw + 1; w < lw; w++)
+            words[w] = -1L;
+        words[lw] |= lastMask;
+    }
+
+    /**
+     * Finds the first busy minute at or after a minute
+     * @return the minute, or a value past the end of the day if there is none
+     */
+    private static int nextSet(long[] words, int from)
+    {
+        int w = from >>> 6;
+        long word = words[w] & (-1L << from);
+        while (word == 0)
+        {
+            if (++w == words.length)
+                return Integer.MAX_VALUE;
+            word = words[w];
+        }
+        return w * 64 + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * Finds the first free minute at or after a minute
+     * @return the minute, or a value past the end of the day if there is none
+     */
+    private static int nextClear(long[] words, int from)
+    {
+        int w = from >>> 6;
+        long word = ~words[w] & (-1L << from);
+        while (word == 0)
+        {
+            if (++w == words.length)
+                return Integer.MAX_VALUE;
+            word = ~words[w];
+        }
+        return w * 64 + Long.numberOfTrailingZeros(word);
+    }
+}
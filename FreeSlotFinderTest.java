@@ -0,0 +1,79 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks FreeSlotFinder against brute force. Each of 400 random cases spreads single Events and
+ * sometimes a daily series over up to five calendars and asks for the free slots of a random length in
+ * a random range of up to four days; they must be exactly the runs of free minutes, found by marking
+ * every busy minute one at a time, that are long enough, up to the requested number of slots.
+ *
+ * Run as "java FreeSlotFinderTest". Throws an AssertionError, and so exits with status 1, if any check fails.
+ * @author Alejandro Lopez
+ */
+public class FreeSlotFinderTest {
+    /**
+     * Runs every case
+     * @param args not used
+     */
+    public static void main(String[] args)
+    {
+        Random random = new Random(11);
+        long base = 20000L * Event.MINUTES_PER_DAY;
+        int cases = 400;
+        for (int t = 0; t < cases; t++)
+        {
+            ArrayList<EventIndex> calendars = new ArrayList<>();
+            for (int c = 1 + random.nextInt(5); c > 0; c--)
+            {
+                EventIndex index = new PlainEventIndex();
+                for (int i = random.nextInt(40); i > 0; i--)
+                    index.add(new Event(base + random.nextInt(6 * Event.MINUTES_PER_DAY), random.nextInt(400), true, "e"));
+                if (random.nextInt(4) == 0)
+                {
+                    index.add(new RecurringEvent(new Event(base + random.nextInt(Event.MINUTES_PER_DAY),
+                            30 + random.nextInt(200), true, "r"), Recurrence.daily(1)));
+                }
+                calendars.add(index);
+            }
+            long from = base + random.nextInt(2 * Event.MINUTES_PER_DAY) - 500;
+            long to = from + random.nextInt(4 * Event.MINUTES_PER_DAY);
+            int duration = random.nextInt(300);
+            int limit = 1 + random.nextInt(20);
+
+            ArrayList<Iterator<Event>> sources = new ArrayList<>();
+            for (EventIndex index : calendars)
+                sources.add(index.query(from, to));
+            List<String> found = new ArrayList<>();
+            for (FreeSlot slot : FreeSlotFinder.find(sources, from, to, duration, limit))
+                found.add(slot.getStartMinute() + ".." + slot.getEndMinute());
+
+            boolean[] busy = new boolean[(int) (to - from + 1)];
+            for (EventIndex index : calendars)
+            {
+                for (Iterator<Event> it = index.query(from, to); it.hasNext();)
+                {
+                    Event e = it.next();
+                    for (long m = Math.max(from, e.getStartMinute()); m <= Math.min(to, e.getEndMinute()); m++)
+                        busy[(int) (m - from)] = true;
+                }
+            }
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < busy.length && expected.size() < limit; i++)
+            {
+                if (busy[i])
+                    continue;
+                int j = i;
+                while (j + 1 < busy.length && !busy[j + 1])
+                    j++;
+                if (j - i >= duration)
+                    expected.add((from + i) + ".." + (from + j));
+                i = j;
+            }
+            if (!found.equals(expected))
+                throw new AssertionError("case " + t + ": expected " + expected + ", found " + found);
+        }
+        System.out.println(cases + " cases: OK");
+    }
+}
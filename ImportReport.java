@@ -0,0 +1,118 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of adding a batch of Events with CalendarModel.addAll() or importFrom(): how many Events
+ * were added and which were turned away, each with the Event it clashed with.
+ * @author Alejandro Lopez
+ */
+public class ImportReport {
+    /**
+     * One Event that was not added
+     */
+    public static class Rejection
+    {
+        private final Event event;
+        private final Event conflict;
+
+        Rejection(Event event, Event conflict)
+        {
+            this.event = event;
+            this.conflict = conflict;
+        }
+
+        /**
+         * Gets the Event that was not added
+         * @return the rejected Event
+         */
+        public Event getEvent()
+        {
+            return event;
+        }
+
+        /**
+         * Gets the Event it overlaps: a stored Event, an occurrence of a stored series, or an Event of
+         * the same batch that was added before it
+         * @return the conflicting Event, or null when a recurring series was rejected
+         */
+        public Event getConflict()
+        {
+            return conflict;
+        }
+
+        @Override
+        public String toString()
+        {
+            return event + (conflict == null ? "" : " conflicts with " + conflict);
+        }
+    }
+
+    private final ArrayList<Rejection> rejected = new ArrayList<>();
+    private int added;
+    private long firstDay = Long.MAX_VALUE;
+    private long lastDay = Long.MIN_VALUE;
+
+    /**
+     * Records an added Event
+     * @param e the Event
+     */
+    void added(Event e)
+    {
+        added++;
+        firstDay = Math.min(firstDay, e.getEpochDay());
+        lastDay = Math.max(lastDay, e.getLastEpochDay());
+    }
+
+    /**
+     * Records a rejected Event
+     * @param e the Event
+     * @param conflict the Event it overlaps, null if unknown
+     */
+    void reject(Event e, Event conflict)
+    {
+        rejected.add(new Rejection(e, conflict));
+    }
+
+    /**
+     * Gets the number of Events added
+     * @return number of added Events
+     */
+    public int getAddedCount()
+    {
+        return added;
+    }
+
+    /**
+     * Gets the Events that were not added, in start-time order
+     * @return read-only list of rejections
+     */
+    public List<Rejection> getRejected()
+    {
+        return Collections.unmodifiableList(rejected);
+    }
+
+    /**
+     * Gets the first day with an added Event
+     * @return epoch day, Long.MAX_VALUE if nothing was added
+     */
+    long getFirstDay()
+    {
+        return firstDay;
+    }
+
+    /**
+     * Gets the last day with an added Event
+     * @return epoch day, Long.MIN_VALUE if nothing was added
+     */
+    long getLastDay()
+    {
+        return lastDay;
+    }
+
+    @Override
+    public String toString()
+    {
+        return added + " events added, " + rejected.size() + " rejected";
+    }
+}
@@ -0,0 +1,480 @@
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Ordered index of Events keyed by their start and end minute. It is a balanced (AVL) binary tree in which
+ * every node also remembers the latest end minute found in its subtree, so the Events overlapping a time
+ * range can be found in O(log n + k) without looking at the rest of the Calendar. Iterating the index
+ * returns the Events in start-time order.
+ *
+ * Nodes are never changed once built. An insert or remove copies only the nodes on the path it walks
+ * and shares the rest of the tree, so snapshot() can hand out the current tree in O(1) as a frozen list
+ * that later changes do not affect. Readers of a snapshot need no locking.
+ * @author Alejandro Lopez
+ */
+class IntervalIndex implements Iterable<Event> {
+    private Node root;
+
+    /**
+     * A single tree node holding one Event and the bookkeeping for balancing, overlap and position
+     * queries. Nodes are immutable, so a subtree can be shared by any number of trees.
+     */
+    private static final class Node
+    {
+        final Event event;
+        final long start;
+        final long end;
+        final Node left;
+        final Node right;
+        final int height;
+        final int count;
+        final long maxEnd;
+
+        Node(Event event, long start, long end, Node left, Node right)
+        {
+            this.event = event;
+            this.start = start;
+            this.end = end;
+            this.left = left;
+            this.right = right;
+            this.height = 1 + Math.max(height(left), height(right));
+            this.count = 1 + count(left) + count(right);
+            long max = end;
+            if (left != null && left.maxEnd > max)
+                max = left.maxEnd;
+            if (right != null && right.maxEnd > max)
+                max = right.maxEnd;
+            this.maxEnd = max;
+        }
+
+        Node(Event event, Node left, Node right)
+        {
+            this(event, event.getStartMinute(), event.getEndMinute(), left, right);
+        }
+
+        /**
+         * Copies this node with other children
+         */
+        Node with(Node left, Node right)
+        {
+            if (left == this.left && right == this.right)
+                return this;
+            return new Node(event, start, end, left, right);
+        }
+    }
+
+    /**
+     * Gets the number of Events held in the index
+     * @return number of Events
+     */
+    public int size()
+    {
+        return count(root);
+    }
+
+    /**
+     * Checks if the index holds no Events
+     * @return true if there are no Events
+     */
+    public boolean isEmpty()
+    {
+        return root == null;
+    }
+
+    /**
+     * Adds an Event to the index. Events are not checked for conflicts here, see overlaps().
+     * @param e Event to be stored
+     * Precondition: e is a valid (non-null) Event object whose times will not change while it is indexed
+     * Postcondition: e is stored in start-time order
+     */
+    public void insert(Event e)
+    {
+        root = insert(root, e, e.getStartMinute(), e.getEndMinute());
+    }
+
+    /**
+     * Adds a list of Events to the index. When the index is empty the tree is built directly from
+     * the list in O(n). A small list is inserted one Event at a time; a list big enough that this would
+     * copy more nodes than the tree holds is merged with the stored Events in one pass instead, and the
+     * tree is rebuilt from the result in O(n + m).
+     * @param sorted Events sorted by start and end minute, as done by CalendarModel.eventComparator
+     */
+    public void insertAll(List<Event> sorted)
+    {
+        if (root == null)
+        {
+            root = build(sorted, 0, sorted.size());
+            return;
+        }
+        int size = root.count;
+        if ((long) sorted.size() * root.height < size)
+        {
+            for (Event e : sorted)
+                insert(e);
+            return;
+        }
+        ArrayList<Event> merged = new ArrayList<>(size + sorted.size());
+        Iterator<Event> stored = iterator();
+        Event next = stored.next();
+        for (Event e : sorted)
+        {
+            while (next != null && CalendarModel.eventComparator.compare(next, e) <= 0)
+            {
+                merged.add(next);
+                next = stored.hasNext() ? stored.next() : null;
+            }
+            merged.add(e);
+        }
+        while (next != null)
+        {
+            merged.add(next);
+            next = stored.hasNext() ? stored.next() : null;
+        }
+        root = build(merged, 0, merged.size());
+    }
+
+    /**
+     * Removes the given Event object (matched by identity) from the index.
+     * @param e Event to be removed
+     * @return true if the Event was found and removed
+     */
+    public boolean remove(Event e)
+    {
+        Node before = root;
+        root = remove(root, e, e.getStartMinute(), e.getEndMinute());
+        return root != before;
+    }
+
+    /**
+     * Removes every Event from the index
+     */
+    public void clear()
+    {
+        root = null;
+    }
+
+    /**
+     * Freezes the current contents of the index in O(1). The returned list shares the tree with the
+     * index and is not affected by later changes to it.
+     * @return the Events in start-time order
+     */
+    public List<Event> snapshot()
+    {
+        return new Snapshot(root);
+    }
+
+    /**
+     * Checks if any stored Event overlaps the given Event. Two Events overlap when they share at least
+     * one minute, touching end and start times included.
+     * @param e the Event to be checked
+     * @return true if there is a time conflict
+     */
+    public boolean overlaps(Event e)
+    {
+        long start = e.getStartMinute();
+        long end = e.getEndMinute();
+        Node n = root;
+        while (n != null)
+        {
+            if (n.start <= end && start <= n.end)
+                return true;
+            if (n.left != null && n.left.maxEnd >= start)
+                n = n.left;
+            else if (n.start <= end)
+                n = n.right;
+            else
+                return false;
+        }
+        return false;
+    }
+
+    /**
+     * Lazily iterates the stored Events sharing at least one minute with the range [from, to], in
+     * start-time order. The iterator walks the version of the tree current at this call, so later
+     * changes do not affect it, and it only visits the nodes on its way plus the Events it returns.
+     * @param from first minute of the range
+     * @param to last minute of the range
+     * @return iterator over the overlapping Events
+     */
+    public Iterator<Event> iterator(long from, long to)
+    {
+        return new RangeOrder(root, from, to);
+    }
+
+    /**
+     * Iterates the stored Events in start-time order.
+     * @return iterator over every Event in the index
+     */
+    @Override
+    public Iterator<Event> iterator()
+    {
+        return new InOrder(root);
+    }
+
+    /**
+     * Frozen list view of one version of the tree. Iteration walks the tree in order, get() descends
+     * by the subtree counts in O(log n).
+     */
+    private static final class Snapshot extends AbstractList<Event>
+    {
+        private final Node root;
+
+        Snapshot(Node root)
+        {
+            this.root = root;
+        }
+
+        @Override
+        public int size()
+        {
+            return count(root);
+        }
+
+        @Override
+        public Event get(int index)
+        {
+            if (index < 0 || index >= count(root))
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count(root));
+            Node n = root;
+            while (true)
+            {
+                int left = count(n.left);
+                if (index < left)
+                    n = n.left;
+                else if (index == left)
+                    return n.event;
+                else
+                {
+                    index -= left + 1;
+                    n = n.right;
+                }
+            }
+        }
+
+        @Override
+        public Iterator<Event> iterator()
+        {
+            return new InOrder(root);
+        }
+    }
+
+    /**
+     * In-order walk of a tree
+     */
+    private static final class InOrder implements Iterator<Event>
+    {
+        private final ArrayDeque<Node> path = new ArrayDeque<>();
+
+        InOrder(Node root)
+        {
+            pushLeft(root);
+        }
+
+        private void pushLeft(Node n)
+        {
+            while (n != null)
+            {
+                path.push(n);
+                n = n.left;
+            }
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return !path.isEmpty();
+        }
+
+        @Override
+        public Event next()
+        {
+            if (path.isEmpty())
+                throw new NoSuchElementException();
+            Node n = path.pop();
+            pushLeft(n.right);
+            return n.event;
+        }
+    }
+
+    /**
+     * In-order walk of the part of a tree overlapping a range. Subtrees ending before the range are
+     * never entered and the walk stops at the first node starting after it.
+     */
+    private static final class RangeOrder implements Iterator<Event>
+    {
+        private final ArrayDeque<Node> path = new ArrayDeque<>();
+        private final long from;
+        private final long to;
+        private Node next;
+
+        RangeOrder(Node root, long from, long to)
+        {
+            this.from = from;
+            this.to = to;
+            pushLeft(root);
+            advance();
+        }
+
+        private void pushLeft(Node n)
+        {
+            while (n != null && n.maxEnd >= from)
+            {
+                path.push(n);
+                n = n.left;
+            }
+        }
+
+        private void advance()
+        {
+            next = null;
+            while (!path.isEmpty())
+            {
+                Node n = path.pop();
+                if (n.start > to)
+                {
+                    path.clear();
+                    return;
+                }
+                pushLeft(n.right);
+                if (n.end >= from)
+                {
+                    next = n;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return next != null;
+        }
+
+        @Override
+        public Event next()
+        {
+            if (next == null)
+                throw new NoSuchElementException();
+            Event e = next.event;
+            advance();
+            return e;
+        }
+    }
+
+    private static Node build(List<Event> sorted, int from, int to)
+    {
+        if (from >= to)
+            return null;
+        int mid = (from + to) >>> 1;
+        Node left = build(sorted, from, mid);
+        Node right = build(sorted, mid + 1, to);
+        return new Node(sorted.get(mid), left, right);
+    }
+
+    private static int compare(long start, long end, Node n)
+    {
+        if (start != n.start)
+            return start < n.start ? -1 : 1;
+        return Long.compare(end, n.end);
+    }
+
+    private static Node insert(Node n, Event e, long start, long end)
+    {
+        if (n == null)
+            return new Node(e, start, end, null, null);
+        if (compare(start, end, n) < 0)
+            return balance(n.with(insert(n.left, e, start, end), n.right));
+        return balance(n.with(n.left, insert(n.right, e, start, end)));
+    }
+
+    /**
+     * Removes an Event by identity
+     * @return the new subtree, or n itself if the Event is not in it
+     */
+    private static Node remove(Node n, Event e, long start, long end)
+    {
+        if (n == null)
+            return null;
+        int cmp = compare(start, end, n);
+        if (cmp < 0)
+            return rebuilt(n, remove(n.left, e, start, end), n.right);
+        if (cmp > 0)
+            return rebuilt(n, n.left, remove(n.right, e, start, end));
+        if (n.event == e)
+        {
+            if (n.left == null)
+                return n.right;
+            if (n.right == null)
+                return n.left;
+            Node successor = n.right;
+            while (successor.left != null)
+                successor = successor.left;
+            return balance(successor.with(n.left, removeMin(n.right)));
+        }
+        // Equal keys may sit on either side after rotations, so look down both
+        Node left = remove(n.left, e, start, end);
+        if (left != n.left)
+            return rebuilt(n, left, n.right);
+        return rebuilt(n, n.left, remove(n.right, e, start, end));
+    }
+
+    private static Node rebuilt(Node n, Node left, Node right)
+    {
+        if (left == n.left && right == n.right)
+            return n;
+        return balance(n.with(left, right));
+    }
+
+    private static Node removeMin(Node n)
+    {
+        if (n.left == null)
+            return n.right;
+        return balance(n.with(removeMin(n.left), n.right));
+    }
+
+    private static int height(Node n)
+    {
+        return n == null ? 0 : n.height;
+    }
+
+    private static int count(Node n)
+    {
+        return n == null ? 0 : n.count;
+    }
+
+    private static Node balance(Node n)
+    {
+        int diff = height(n.left) - height(n.right);
+        if (diff > 1)
+        {
+            Node left = n.left;
+            if (height(left.left) < height(left.right))
+                left = rotateLeft(left);
+            return rotateRight(n.with(left, n.right));
+        }
+        if (diff < -1)
+        {
+            Node right = n.right;
+            if (height(right.right) < height(right.left))
+                right = rotateRight(right);
+            return rotateLeft(n.with(n.left, right));
+        }
+        return n;
+    }
+
+    private static Node rotateRight(Node n)
+    {
+        Node l = n.left;
+        return l.with(l.left, n.with(l.right, n.right));
+    }
+
+    private static Node rotateLeft(Node n)
+    {
+        Node r = n.right;
+        return r.with(n.with(n.left, r.left), r.right);
+    }
+}
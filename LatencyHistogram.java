@@ -0,0 +1,130 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how long an operation took, in nanoseconds, in the log-linear buckets of an HdrHistogram: values
+ * below 64 each have their own bucket, and every power of two above that is split into 32 equal buckets,
+ * so any value is known to within about 3% from 1 ns up to the range of a long. The buckets are a fixed
+ * array of atomic counters, so recording takes no lock and allocates nothing, and any number of threads
+ * may record while another reads the percentiles. Readings taken during recording may be a few counts
+ * apart from each other, which is fine for monitoring.
+ * @author Alejandro Lopez
+ */
+class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(2 * SUB + (62 - SUB_BITS) * SUB);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records one operation
+     * @param nanos how long it took
+     */
+    void record(long nanos)
+    {
+        long v = Math.max(0, nanos);
+        counts.incrementAndGet(index(v));
+        sum.addAndGet(v);
+        long m;
+        while (v > (m = max.get()) && !max.compareAndSet(m, v))
+            ;
+    }
+
+    /**
+     * Records one operation that started at a System.nanoTime() reading
+     * @param startNanos the reading taken when it started
+     */
+    void recordSince(long startNanos)
+    {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Gets the number of operations recorded
+     * @return the count
+     */
+    long count()
+    {
+        long n = 0;
+        for (int i = 0; i < counts.length(); i++)
+            n += counts.get(i);
+        return n;
+    }
+
+    /**
+     * Gets the mean time taken
+     * @return the mean in nanoseconds, 0 if nothing was recorded
+     */
+    double mean()
+    {
+        long n = count();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Gets the longest time taken
+     * @return the maximum in nanoseconds, 0 if nothing was recorded
+     */
+    long max()
+    {
+        return max.get();
+    }
+
+    /**
+     * Gets the time within which a share of the operations finished
+     * @param quantile the share, e.g. 0.99 for the 99th percentile
+     * @return the highest value of the bucket holding that rank, in nanoseconds; 0 if nothing was recorded
+     */
+    long percentile(double quantile)
+    {
+        long n = count();
+        if (n == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++)
+        {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(highest(i), max());
+        }
+        return max();
+    }
+
+    /**
+     * Clears every count
+     */
+    void reset()
+    {
+        for (int i = 0; i < counts.length(); i++)
+            counts.set(i, 0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Finds the bucket of a value: itself below 2 * SUB, else the power of two it falls in and which of
+     * that power's SUB parts
+     */
+    private static int index(long v)
+    {
+        if (v < 2 * SUB)
+            return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return 2 * SUB + (shift - 1) * SUB + (int) (v >>> shift) - SUB;
+    }
+
+    /**
+     * Gets the highest value that falls in a bucket
+     */
+    private static long highest(int index)
+    {
+        if (index < 2 * SUB)
+            return index;
+        int shift = (index - 2 * SUB) / SUB + 1;
+        long sub = (index - 2 * SUB) % SUB + SUB;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,67 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Frozen list made of several frozen lists of Events, each in start-time order, e.g. the snapshots of
+ * the stripes of a StripedEventIndex or the stored Events and the recurring series of a PlainEventIndex.
+ * Iterating merges the parts on the fly; get() merges them once into an array on first use.
+ * @author Alejandro Lopez
+ */
+class MergedSnapshot extends AbstractList<Event> {
+    private final List<List<Event>> parts;
+    private final int size;
+    private Event[] merged;
+
+    /**
+     * Creates the merged view
+     * @param parts the lists to merge, which must not change afterwards
+     */
+    MergedSnapshot(List<List<Event>> parts)
+    {
+        this.parts = parts;
+        int total = 0;
+        for (List<Event> part : parts)
+            total += part.size();
+        this.size = total;
+    }
+
+    /**
+     * Gets the lists this view merges
+     * @return the parts, each in start-time order
+     */
+    List<List<Event>> parts()
+    {
+        return parts;
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public synchronized Event get(int index)
+    {
+        if (merged == null)
+        {
+            Event[] all = new Event[size];
+            int i = 0;
+            for (Event e : this)
+                all[i++] = e;
+            merged = all;
+        }
+        return merged[index];
+    }
+
+    @Override
+    public Iterator<Event> iterator()
+    {
+        ArrayList<Iterator<Event>> sources = new ArrayList<>(parts.size());
+        for (List<Event> part : parts)
+            sources.add(part.iterator());
+        return new MergingIterator(sources);
+    }
+}
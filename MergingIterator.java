@@ -0,0 +1,68 @@
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Lazy k-way merge of several iterators that each return Events in start-time order. The current head of
+ * every source sits in a small heap, so each Event costs O(log k) comparisons and nothing is copied.
+ * @author Alejandro Lopez
+ */
+class MergingIterator implements Iterator<Event> {
+    private final PriorityQueue<Source> heads;
+
+    /**
+     * One source together with the Event it returns next
+     */
+    private static final class Source
+    {
+        final Iterator<Event> rest;
+        Event head;
+
+        Source(Iterator<Event> rest)
+        {
+            this.rest = rest;
+            advance();
+        }
+
+        boolean advance()
+        {
+            head = rest.hasNext() ? rest.next() : null;
+            return head != null;
+        }
+    }
+
+    /**
+     * Creates a merge of the given sources
+     * @param sources iterators each sorted with CalendarModel.eventComparator
+     */
+    MergingIterator(List<Iterator<Event>> sources)
+    {
+        heads = new PriorityQueue<>(Math.max(1, sources.size()),
+                (a, b) -> CalendarModel.eventComparator.compare(a.head, b.head));
+        for (Iterator<Event> it : sources)
+        {
+            Source source = new Source(it);
+            if (source.head != null)
+                heads.add(source);
+        }
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        return !heads.isEmpty();
+    }
+
+    @Override
+    public Event next()
+    {
+        Source source = heads.poll();
+        if (source == null)
+            throw new NoSuchElementException();
+        Event e = source.head;
+        if (source.advance())
+            heads.add(source);
+        return e;
+    }
+}
@@ -0,0 +1,142 @@
+import javax.swing.event.ChangeEvent;
+
+/**
+ * ChangeEvent telling listeners what changed in a CalendarModel: the current date moved, Events were
+ * added or removed on a range of days, and/or a bulk import finished. Changes that happen close
+ * together are merged into one event, so a single event can report several kinds of change; the day
+ * range then covers every changed day.
+ * @author Alejandro Lopez
+ */
+public class ModelChangeEvent extends ChangeEvent {
+    private static final long serialVersionUID = 1L;
+    static final int DATE_MOVED = 1;
+    static final int EVENTS_CHANGED = 2;
+    static final int BULK_IMPORT = 4;
+
+    private final int kinds;
+    private final long firstDay;
+    private final long lastDay;
+
+    /**
+     * Creates a change event
+     * @param source the model that changed
+     * @param kinds bitwise or of DATE_MOVED, EVENTS_CHANGED and BULK_IMPORT
+     * @param firstDay first epoch day with changed Events
+     * @param lastDay last epoch day with changed Events, less than firstDay if no Events changed
+     */
+    ModelChangeEvent(Object source, int kinds, long firstDay, long lastDay)
+    {
+        super(source);
+        this.kinds = kinds;
+        this.firstDay = firstDay;
+        this.lastDay = lastDay;
+    }
+
+    /**
+     * Creates the event for a move of the current date
+     * @param source the model that changed
+     * @return the change event
+     */
+    static ModelChangeEvent dateMoved(Object source)
+    {
+        return new ModelChangeEvent(source, DATE_MOVED, Long.MAX_VALUE, Long.MIN_VALUE);
+    }
+
+    /**
+     * Creates the event for Events added or removed on a range of days
+     * @param source the model that changed
+     * @param firstDay first epoch day with changed Events
+     * @param lastDay last epoch day with changed Events
+     * @return the change event
+     */
+    static ModelChangeEvent eventsChanged(Object source, long firstDay, long lastDay)
+    {
+        return new ModelChangeEvent(source, EVENTS_CHANGED, firstDay, lastDay);
+    }
+
+    /**
+     * Creates the event for a finished bulk import
+     * @param source the model that changed
+     * @param firstDay first epoch day with imported Events
+     * @param lastDay last epoch day with imported Events
+     * @return the change event
+     */
+    static ModelChangeEvent bulkImport(Object source, long firstDay, long lastDay)
+    {
+        return new ModelChangeEvent(source, BULK_IMPORT | EVENTS_CHANGED, firstDay, lastDay);
+    }
+
+    /**
+     * Merges this event with a later one
+     * @param later the later change
+     * @return an event reporting both changes
+     */
+    ModelChangeEvent merge(ModelChangeEvent later)
+    {
+        return new ModelChangeEvent(source, kinds | later.kinds, Math.min(firstDay, later.firstDay),
+                Math.max(lastDay, later.lastDay));
+    }
+
+    /**
+     * Checks if the current date moved
+     * @return true if the model's current date changed
+     */
+    public boolean isDateMoved()
+    {
+        return (kinds & DATE_MOVED) != 0;
+    }
+
+    /**
+     * Checks if Events were added or removed
+     * @return true if any Event changed
+     */
+    public boolean isEventsChanged()
+    {
+        return (kinds & EVENTS_CHANGED) != 0;
+    }
+
+    /**
+     * Checks if a bulk import finished
+     * @return true if Events were imported
+     */
+    public boolean isBulkImport()
+    {
+        return (kinds & BULK_IMPORT) != 0;
+    }
+
+    /**
+     * Checks if Events changed on any day of a range
+     * @param from first epoch day of the range
+     * @param to last epoch day of the range
+     * @return true if the range holds a changed day
+     */
+    public boolean affects(long from, long to)
+    {
+        return isEventsChanged() && firstDay <= to && from <= lastDay;
+    }
+
+    /**
+     * Gets the first day with changed Events
+     * @return epoch day, meaningless unless isEventsChanged()
+     */
+    public long getFirstDay()
+    {
+        return firstDay;
+    }
+
+    /**
+     * Gets the last day with changed Events
+     * @return epoch day, meaningless unless isEventsChanged()
+     */
+    public long getLastDay()
+    {
+        return lastDay;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ModelChangeEvent[" + (isDateMoved() ? " date" : "") + (isBulkImport() ? " import" : "")
+                + (isEventsChanged() ? " events " + firstDay + ".." + lastDay : "") + " ]";
+    }
+}
@@ -0,0 +1,547 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * File format for the Events of a Calendar split into one section per (year, month), so a month can be
+ * read and a save can rewrite only the months that changed. Every Event is kept in the section of the
+ * month it starts in; recurring series share one extra section (SERIES).
+ *
+ * The file starts with two 32 byte header slots (magic, version, sequence number, offset and entry count
+ * of the section table, CRC32 of the slot and the table). The slot with the higher sequence number and a
+ * valid checksum is the current one. The table has one 24 byte entry per section (month key, Event
+ * count, offset, length, CRC32 of the section), sorted by month. A section holds its Events in start-time
+ * order as one EventCodec block of delta-encoded variable-length integers, deflated unless
+ * -Dcalendar.deflate=false. The titles are numbered in one dictionary section (DICTIONARY) shared by the
+ * whole file, which only ever grows until the file is rewritten whole. Version 1 files, which held fixed
+ * records of start minute, length, flags, name length and UTF-8 name, can still be read; the first save
+ * rewrites them whole.
+ *
+ * Opening the store reads only the header and the table; every section is then read with one positional
+ * FileChannel read. A save appends the rewritten sections and a new table at the end of the file, forces
+ * them to disk and only then writes the older header slot (shadow paging), so a crash at any point leaves
+ * the previous table and sections intact. Sections left behind are reclaimed by rewriting the whole file
+ * next to the old one once they take up more than half of it.
+ * @author Alejandro Lopez
+ */
+class MonthStore implements Closeable {
+    static final int MAGIC = 0x43414C4D;
+    static final short VERSION = 2;
+    static final boolean DEFLATE = !"false".equals(System.getProperty("calendar.deflate"));
+    static final int SLOT_SIZE = 32;
+    static final int HEADER_SIZE = 2 * SLOT_SIZE;
+    static final int ENTRY_SIZE = 24;
+    static final int FLAG_HAS_END = 1;
+    /** Month key of the section holding every recurring series */
+    static final int SERIES = Integer.MAX_VALUE;
+    /** Key of the section holding the titles, whose count is the number of titles */
+    static final int DICTIONARY = Integer.MIN_VALUE;
+    private static final long MIN_COMPACT_BYTES = 1 << 20;
+
+    private final FileChannel channel;
+    private final long sequence;
+    private final int slot;
+    private final short version;
+    private final TreeMap<Integer, Section> sections = new TreeMap<>();
+    private EventCodec.Dictionary dictionary;
+
+    /**
+     * Where one month's section is in the file
+     */
+    private static final class Section
+    {
+        final int key;
+        final int count;
+        final long offset;
+        final int length;
+        final int crc;
+
+        Section(int key, int count, long offset, int length, int crc)
+        {
+            this.key = key;
+            this.count = count;
+            this.offset = offset;
+            this.length = length;
+            this.crc = crc;
+        }
+    }
+
+    private MonthStore(FileChannel channel) throws IOException
+    {
+        this.channel = channel;
+        ByteBuffer header = read(channel, 0, HEADER_SIZE);
+        long best = -1;
+        int bestSlot = -1;
+        for (int s = 0; s < 2; s++)
+        {
+            long seq = validSlot(channel, header, s * SLOT_SIZE);
+            if (seq > best)
+            {
+                best = seq;
+                bestSlot = s;
+            }
+        }
+        if (bestSlot < 0)
+            throw new IOException("Not a month store, or both header slots are corrupt");
+        sequence = best;
+        slot = bestSlot;
+        int base = slot * SLOT_SIZE;
+        version = header.getShort(base + 4);
+        ByteBuffer table = read(channel, header.getLong(base + 16), header.getInt(base + 24) * ENTRY_SIZE);
+        while (table.hasRemaining())
+        {
+            Section s = new Section(table.getInt(), table.getInt(), table.getLong(), table.getInt(), table.getInt());
+            sections.put(s.key, s);
+        }
+    }
+
+    /**
+     * Opens a month store, reading only its header and section table
+     * @param file the file to be opened
+     * @return the opened store, to be closed by the caller
+     * @throws IOException if the file cannot be read or is not a month store
+     */
+    public static MonthStore open(Path file) throws IOException
+    {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try
+        {
+            return new MonthStore(channel);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the key of the month an epoch day is in, as used for the sections
+     * @param epochDay days since 01/01/1970
+     * @return year * 12 + month, the month 0 based like Calendar.MONTH
+     */
+    static int monthKey(long epochDay)
+    {
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        return date.getYear() * 12 + date.getMonthValue() - 1;
+    }
+
+    /**
+     * Gets the first day of a month
+     * @param key the month's key
+     * @return epoch day of the 1st of the month
+     */
+    static long firstDay(int key)
+    {
+        return LocalDate.of(Math.floorDiv(key, 12), Math.floorMod(key, 12) + 1, 1).toEpochDay();
+    }
+
+    /**
+     * Gets the number of Events in the store
+     * @return the number of Events, recurring series counted once
+     */
+    public int size()
+    {
+        int total = 0;
+        for (Section s : sections.values())
+        {
+            if (s.key != DICTIONARY)
+                total += s.count;
+        }
+        return total;
+    }
+
+    /**
+     * Reads the Events starting in one month, without reading any other section. Recurring series are
+     * not included.
+     * @param year the year
+     * @param month the month, 0 based like Calendar.MONTH
+     * @return the Events in start-time order
+     * @throws IOException if the section cannot be read or is corrupt
+     */
+    public List<Event> readMonth(int year, int month) throws IOException
+    {
+        Section s = sections.get(year * 12 + month);
+        return s == null ? new ArrayList<>() : readSection(s);
+    }
+
+    /**
+     * Reads every Event in the store
+     * @return the Events sorted with CalendarModel.eventComparator
+     * @throws IOException if a section cannot be read or is corrupt
+     */
+    public List<Event> readAll() throws IOException
+    {
+        ArrayList<Event> events = new ArrayList<>(size());
+        for (Section s : sections.values())
+        {
+            if (s.key != DICTIONARY)
+                events.addAll(readSection(s));
+        }
+        Section series = sections.get(SERIES);
+        if (series != null && series.count > 0)
+            events.sort(CalendarModel.eventComparator);
+        return events;
+    }
+
+    /**
+     * Reads the titles of the file on first use
+     * @return the dictionary, empty for a version 1 file
+     */
+    private EventCodec.Dictionary dictionary() throws IOException
+    {
+        if (dictionary == null)
+        {
+            Section s = sections.get(DICTIONARY);
+            dictionary = s == null ? new EventCodec.Dictionary()
+                    : EventCodec.Dictionary.decode(readBytes(s), 0, s.length);
+        }
+        return dictionary;
+    }
+
+    private byte[] readBytes(Section s) throws IOException
+    {
+        ByteBuffer buf = read(channel, s.offset, s.length);
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, s.length);
+        if ((int) crc.getValue() != s.crc)
+            throw new IOException("Corrupt month store section " + s.key);
+        return buf.array();
+    }
+
+    private List<Event> readSection(Section s) throws IOException
+    {
+        byte[] bytes = readBytes(s);
+        if (version != 1)
+            return EventCodec.decode(bytes, 0, s.length, dictionary());
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        ArrayList<Event> events = new ArrayList<>(s.count);
+        for (int i = 0; i < s.count; i++)
+        {
+            long start = buf.getLong();
+            int span = buf.getInt();
+            boolean hasEnd = (buf.get() & FLAG_HAS_END) != 0;
+            int length = buf.getInt();
+            String name = new String(buf.array(), buf.position(), length, StandardCharsets.UTF_8);
+            buf.position(buf.position() + length);
+            events.add(Event.restore(start, span, hasEnd, name));
+        }
+        return events;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /**
+     * Writes every Event as a new month store. The file is written next to the target and renamed over
+     * it, so a failed save leaves the previous file in place.
+     * @param file the file to be written
+     * @param sorted the Events in start-time order
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path file, List<Event> sorted) throws IOException
+    {
+        TreeMap<Integer, List<Event>> months = new TreeMap<>();
+        for (Event e : sorted)
+            months.computeIfAbsent(key(e), k -> new ArrayList<>()).add(e);
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            writeFully(out, ByteBuffer.allocate(HEADER_SIZE), 0);
+            ArrayList<Section> table = new ArrayList<>(months.size() + 1);
+            EventCodec.Dictionary names = new EventCodec.Dictionary();
+            long end = HEADER_SIZE;
+            for (List<Event> month : months.values())
+            {
+                Section s = writeSection(out, key(month.get(0)), month, names, end);
+                table.add(s);
+                end += s.length;
+            }
+            Section s = writeDictionary(out, names, end);
+            table.add(0, s);
+            commit(out, table, end + s.length, 1, 0);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Saves a snapshot of the Events, rewriting only the sections of the months that changed since the
+     * store was last saved. Falls back to write() when the file does not exist yet, the changed months
+     * are not known or the sections left behind by earlier saves take up more than half of the file.
+     * @param file the store
+     * @param snapshot every Event in start-time order, as handed out by EventIndex.snapshot()
+     * @param dirty keys of the months changed since the last save (SERIES for the recurring series), or
+     *        null to rewrite everything
+     * @throws IOException if the file cannot be written
+     */
+    public static void save(Path file, List<Event> snapshot, Set<Integer> dirty) throws IOException
+    {
+        if (dirty == null || !Files.exists(file))
+        {
+            write(file, snapshot);
+            return;
+        }
+        if (dirty.isEmpty())
+            return;
+        boolean saved;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            saved = saveSections(channel, snapshot, dirty);
+        }
+        // Rewritten only once the channel is closed, since the new file is moved over it
+        if (!saved)
+            write(file, snapshot);
+    }
+
+    /**
+     * Appends the dirty sections and a new table to an open store and flips its header
+     * @return false, leaving the header alone, if the whole store should be rewritten instead
+     */
+    private static boolean saveSections(FileChannel channel, List<Event> snapshot, Set<Integer> dirty)
+            throws IOException
+    {
+        MonthStore store = new MonthStore(channel);
+        if (store.version != VERSION)
+            return false;
+        TreeMap<Integer, Section> table = new TreeMap<>(store.sections);
+        EventCodec.Dictionary names = store.dictionary();
+        int known = names.size();
+        long end = channel.size();
+        for (int key : dirty)
+        {
+            List<Event> month = key == SERIES ? seriesOf(snapshot)
+                    : startingIn(snapshot, firstDay(key) * Event.MINUTES_PER_DAY, firstDay(key + 1) * Event.MINUTES_PER_DAY);
+            if (month.isEmpty())
+            {
+                table.remove(key);
+                continue;
+            }
+            Section s = writeSection(channel, key, month, names, end);
+            table.put(key, s);
+            end += s.length;
+        }
+        if (names.size() > known || !table.containsKey(DICTIONARY))
+        {
+            Section s = writeDictionary(channel, names, end);
+            table.put(DICTIONARY, s);
+            end += s.length;
+        }
+        long live = HEADER_SIZE + (long) table.size() * ENTRY_SIZE;
+        for (Section s : table.values())
+            live += s.length;
+        if (end > 2 * live && end > MIN_COMPACT_BYTES)
+            return false;
+        commit(channel, new ArrayList<>(table.values()), end, store.sequence + 1, 1 - store.slot);
+        return true;
+    }
+
+    /**
+     * Writes a section at an offset
+     * @return the section's table entry
+     */
+    private static Section writeSection(FileChannel out, int key, List<Event> events, EventCodec.Dictionary names,
+            long offset) throws IOException
+    {
+        return writeBlock(out, key, events.size(), EventCodec.encode(events, names, DEFLATE), offset);
+    }
+
+    private static Section writeDictionary(FileChannel out, EventCodec.Dictionary names, long offset)
+            throws IOException
+    {
+        return writeBlock(out, DICTIONARY, names.size(), names.encode(DEFLATE), offset);
+    }
+
+    private static Section writeBlock(FileChannel out, int key, int count, byte[] block, long offset)
+            throws IOException
+    {
+        CRC32 crc = new CRC32();
+        crc.update(block);
+        writeFully(out, ByteBuffer.wrap(block), offset);
+        return new Section(key, count, offset, block.length, (int) crc.getValue());
+    }
+
+    /**
+     * Writes the section table at the end of the file, forces everything written so far to disk and
+     * then points a header slot at the table
+     */
+    private static void commit(FileChannel out, List<Section> table, long tableOffset, long sequence, int slot)
+            throws IOException
+    {
+        ByteBuffer entries = ByteBuffer.allocate(table.size() * ENTRY_SIZE);
+        for (Section s : table)
+            entries.putInt(s.key).putInt(s.count).putLong(s.offset).putInt(s.length).putInt(s.crc);
+        entries.flip();
+        writeFully(out, entries, tableOffset);
+        out.truncate(tableOffset + (long) table.size() * ENTRY_SIZE);
+        out.force(false);
+
+        ByteBuffer header = ByteBuffer.allocate(SLOT_SIZE);
+        header.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putLong(sequence).putLong(tableOffset)
+                .putInt(table.size());
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, SLOT_SIZE - 4);
+        crc.update(entries.array());
+        header.putInt((int) crc.getValue());
+        header.flip();
+        writeFully(out, header, (long) slot * SLOT_SIZE);
+        out.force(false);
+    }
+
+    /**
+     * Checks a header slot and the table it points to
+     * @return the slot's sequence number, or -1 if it is not valid
+     */
+    private static long validSlot(FileChannel channel, ByteBuffer header, int base) throws IOException
+    {
+        short v = header.getShort(base + 4);
+        if (header.getInt(base) != MAGIC || (v != 1 && v != VERSION))
+            return -1;
+        long tableOffset = header.getLong(base + 16);
+        int count = header.getInt(base + 24);
+        if (count < 0 || tableOffset < HEADER_SIZE || tableOffset + (long) count * ENTRY_SIZE > channel.size())
+            return -1;
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), base, SLOT_SIZE - 4);
+        crc.update(read(channel, tableOffset, count * ENTRY_SIZE).array());
+        return (int) crc.getValue() == header.getInt(base + SLOT_SIZE - 4) ? header.getLong(base + 8) : -1;
+    }
+
+    private static int key(Event e)
+    {
+        return e instanceof RecurringEvent ? SERIES : monthKey(e.getEpochDay());
+    }
+
+    /**
+     * Gets the single Events of a snapshot starting in [from, to) without walking the rest of it. A
+     * snapshot merged from several parts is searched part by part; each part is binary searched.
+     */
+    static List<Event> startingIn(List<Event> snapshot, long from, long to)
+    {
+        ArrayList<Event> found = new ArrayList<>();
+        if (snapshot instanceof MergedSnapshot)
+        {
+            List<List<Event>> parts = ((MergedSnapshot) snapshot).parts();
+            for (List<Event> part : parts)
+                found.addAll(startingIn(part, from, to));
+            if (parts.size() > 1)
+                found.sort(CalendarModel.eventComparator);
+            return found;
+        }
+        int lo = lowerBound(snapshot, from);
+        int hi = lowerBound(snapshot, to);
+        for (Event e : snapshot.subList(lo, hi))
+        {
+            if (!(e instanceof RecurringEvent))
+                found.add(e);
+        }
+        return found;
+    }
+
+    /**
+     * Gets the recurring series of a snapshot. The indexes keep their series in a part of their own,
+     * so only the parts starting with a series need to be read.
+     */
+    static List<Event> seriesOf(List<Event> snapshot)
+    {
+        ArrayList<Event> found = new ArrayList<>();
+        if (snapshot instanceof MergedSnapshot)
+        {
+            for (List<Event> part : ((MergedSnapshot) snapshot).parts())
+                found.addAll(seriesOf(part));
+        }
+        else if (!snapshot.isEmpty() && snapshot.get(0) instanceof RecurringEvent)
+            found.addAll(snapshot);
+        return found;
+    }
+
+    private static int lowerBound(List<Event> sorted, long minute)
+    {
+        int lo = 0;
+        int hi = sorted.size();
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (sorted.get(mid).getStartMinute() < minute)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long offset, int length) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining())
+        {
+            if (channel.read(buf, offset + buf.position()) < 0)
+                throw new IOException("Month store is cut short");
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf, long offset) throws IOException
+    {
+        while (buf.hasRemaining())
+            offset += out.write(buf, offset);
+    }
+
+    /**
+     * Converts between the text, binary and month formats by file extension, e.g.
+     * "MonthStore events.txt events.months" or "MonthStore events.months events.txt", and prints how
+     * the size of the target compares with the source.
+     * @param args the source and target files
+     * @throws IOException if a file cannot be read or written
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length != 2)
+        {
+            System.out.println("Usage: MonthStore <source> <target>");
+            return;
+        }
+        Path source = Paths.get(args[0]);
+        Path target = Paths.get(args[1]);
+        List<Event> events;
+        if (args[0].endsWith(".months"))
+        {
+            try (MonthStore store = open(source))
+            {
+                events = store.readAll();
+            }
+        }
+        else if (args[0].endsWith(".bin"))
+            events = BinaryEventStore.open(source).readAll();
+        else
+            events = EventFileLoader.load(source);
+        if (args[1].endsWith(".months"))
+            write(target, events);
+        else if (args[1].endsWith(".bin"))
+            BinaryEventStore.write(target, events);
+        else
+            CalendarModel.writeText(target, events);
+        long from = Files.size(source);
+        long to = Files.size(target);
+        System.out.printf("Wrote %d events to %s: %d bytes from %d (%.1fx)%n", events.size(), target, to, from,
+                (double) from / Math.max(1, to));
+    }
+}
@@ -0,0 +1,61 @@
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Shares one String among all Events with the same title. A calendar holds a few hundred titles repeated
+ * over up to millions of Events, and every Event read from a file or typed in would otherwise keep its own
+ * copy. The pool is a fixed table of weak references, so it never grows past its size and a title no Event
+ * uses any more is collected as usual.
+ *
+ * Every title hashes to a pair of slots. A title already in either slot is returned from there; a new
+ * title goes in the first slot and moves the one there to the second, so the two most recently added
+ * titles of a pair are kept and a third pushes out the older. A title that was pushed out still works,
+ * it just is not shared. The slots are read and written without locking, so two threads adding the same
+ * new title at once may each keep their own copy.
+ *
+ * The number of slots is set by the calendar.names property, 4096 by default; 0 turns pooling off.
+ * @author Alejandro Lopez
+ */
+class NamePool {
+    private static final AtomicReferenceArray<WeakReference<String>> slots =
+            new AtomicReferenceArray<>(size(Integer.getInteger("calendar.names", 4096)));
+
+    private NamePool()
+    {
+    }
+
+    /**
+     * Gets the shared instance of a title
+     * @param name the title, may be null
+     * @return an equal String from the pool, or name itself after adding it
+     */
+    static String intern(String name)
+    {
+        if (name == null || slots.length() == 0)
+            return name;
+        int h = name.hashCode();
+        int first = (h ^ (h >>> 16)) & (slots.length() - 2);
+        WeakReference<String> ref = slots.get(first);
+        String pooled = ref == null ? null : ref.get();
+        if (name.equals(pooled))
+            return pooled;
+        WeakReference<String> other = slots.get(first + 1);
+        String second = other == null ? null : other.get();
+        if (name.equals(second))
+            return second;
+        if (pooled != null)
+            slots.set(first + 1, ref);
+        slots.set(first, new WeakReference<>(name));
+        return name;
+    }
+
+    /**
+     * Rounds the wanted number of slots up to an even power of two
+     */
+    private static int size(int wanted)
+    {
+        if (wanted <= 0)
+            return 0;
+        return Math.max(2, Integer.highestOneBit(Math.min(wanted, 1 << 24) - 1) << 1);
+    }
+}
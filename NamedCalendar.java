@@ -0,0 +1,325 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * One of the calendars hosted by a CalendarModel, e.g. a personal, team or room calendar. Each has its
+ * own EventIndex and its own events file, binary store, month store and journal, so it is loaded,
+ * journaled and saved on its own. Conflicts are only checked within a calendar. Hiding a calendar only leaves it out of the
+ * model's combined views; its Events stay loaded.
+ * @author Alejandro Lopez
+ */
+class NamedCalendar {
+    private final String name;
+    private final EventIndex index;
+    private final Path textFile;
+    private final Path binaryFile;
+    private final Path monthFile;
+    private final Path journalFile;
+    private volatile boolean visible = true;
+    private volatile EventJournal journal;
+    private volatile boolean repaired;
+    private volatile String readOnly;
+
+    /**
+     * Creates an empty calendar
+     * @param name the name shown to the user
+     * @param index the index holding its Events
+     * @param textFile the events file in the events.txt format
+     * @param binaryFile the binary store, used instead of the text file when present
+     * @param monthFile the month store, used instead of the others when present
+     * @param journalFile the journal of changes made since the last save
+     */
+    NamedCalendar(String name, EventIndex index, String textFile, String binaryFile, String monthFile,
+            String journalFile)
+    {
+        this.name = name;
+        this.index = index;
+        this.textFile = Paths.get(textFile);
+        this.binaryFile = Paths.get(binaryFile);
+        this.monthFile = Paths.get(monthFile);
+        this.journalFile = Paths.get(journalFile);
+    }
+
+    /**
+     * Gets the name of this calendar
+     * @return the name
+     */
+    String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Gets the index holding the Events of this calendar
+     * @return the index
+     */
+    EventIndex index()
+    {
+        return index;
+    }
+
+    /**
+     * Checks if this calendar is part of the combined views
+     * @return true if its Events are shown
+     */
+    boolean isVisible()
+    {
+        return visible;
+    }
+
+    /**
+     * Tells why this calendar is read-only. A calendar whose file or journal could not be read is never
+     * saved, so a damaged but recoverable file is not overwritten with the few Events known in memory.
+     * @return the read error, or null if the calendar is saved as usual
+     */
+    String getReadOnlyReason()
+    {
+        return readOnly;
+    }
+
+    /**
+     * Shows or hides this calendar in the combined views
+     * @param visible true to show its Events
+     */
+    void setVisible(boolean visible)
+    {
+        this.visible = visible;
+    }
+
+    /**
+     * Reads the events file into the index: the binary store when one is present, otherwise the
+     * text file. The changes journaled since the last save are then replayed on top, and the journal
+     * is kept open so that every later change is written to disk as it happens.
+     * @param audit "report" or "repair" to run ConflictAudit on the loaded Events first
+     */
+    void load(String audit)
+    {
+        index.insertAll(read(audit));
+        openJournal();
+    }
+
+    /**
+     * Stores Events without checking them for conflicts, e.g. an unchecked import. They are not
+     * journaled, but their months are marked so the next save writes them.
+     * @param sorted the Events in start-time order
+     */
+    void insertAll(List<Event> sorted)
+    {
+        index.insertAll(sorted);
+        EventJournal j = journal;
+        if (j != null)
+            j.markDirty(sorted);
+    }
+
+    /**
+     * Reads the Events of the events file without touching the index: the month store when one is
+     * present, then the binary store, otherwise the text file. A missing file reads as empty. A file
+     * that cannot be read is reported, reads as empty and makes the calendar read-only. When a repair
+     * drops Events the next save rewrites the whole file.
+     * @param audit "report" or "repair" to run ConflictAudit on the read Events
+     * @return the Events sorted with CalendarModel.eventComparator
+     */
+    List<Event> read(String audit)
+    {
+        try
+        {
+            List<Event> loaded;
+            if (Files.exists(monthFile))
+            {
+                try (MonthStore store = MonthStore.open(monthFile))
+                {
+                    loaded = store.readAll();
+                }
+            }
+            else if (Files.exists(binaryFile))
+                loaded = BinaryEventStore.open(binaryFile).readAll();
+            else
+                loaded = EventFileLoader.load(textFile);
+            if (audit.equals("report") || audit.equals("repair"))
+            {
+                int read = loaded.size();
+                loaded = ConflictAudit.check(loaded, audit.equals("repair"), System.out);
+                if (loaded.size() != read)
+                    repaired = true;
+            }
+            return loaded;
+        }
+        catch(NoSuchFileException e)
+        {
+            System.err.println(e);
+            System.out.println("There is no existing file.");
+        }
+        catch(IOException e)
+        {
+            System.err.println(e);
+            System.out.println("Error reading the events file, calendar " + name + " will not be saved.");
+            readOnly = e.toString();
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Reads the Events starting in one month from the month store, without reading the other months
+     * @param day epoch day of any day of the month
+     * @return the Events in start-time order, or null if there is no month store or it cannot be read
+     */
+    List<Event> readMonth(long day)
+    {
+        if (!Files.exists(monthFile))
+            return null;
+        int key = MonthStore.monthKey(day);
+        try (MonthStore store = MonthStore.open(monthFile))
+        {
+            return store.readMonth(Math.floorDiv(key, 12), Math.floorMod(key, 12));
+        }
+        catch (IOException e)
+        {
+            System.err.println(e);
+            return null;
+        }
+    }
+
+    /**
+     * Replays the journal of changes made since the last save and opens it for appending. Must only
+     * be called once the events file is in the index, since the journal's changes apply on top of it.
+     * The owning model closes the journal when the program exits. A read-only calendar gets no journal,
+     * and one whose journal cannot be read becomes read-only.
+     */
+    synchronized void openJournal()
+    {
+        if (journal != null || readOnly != null)
+            return;
+        EventJournal.Target replay = new EventJournal.Target()
+        {
+            @Override
+            public void add(Event e)
+            {
+                index.add(e);
+            }
+
+            @Override
+            public void removeSelected(long day, String name)
+            {
+                index.removeNamed(day, name);
+            }
+
+            @Override
+            public void removeAll(long day)
+            {
+                index.removeDay(day);
+            }
+
+            @Override
+            public void removeSeries(long day, String name)
+            {
+                index.removeSeries(day, name);
+            }
+        };
+        try
+        {
+            // The index only starts journaling once the replay is done
+            journal = EventJournal.open(journalFile, replay, this::writeSnapshot);
+            if (repaired)
+                journal.markAllDirty();
+            index.setJournal(journal);
+        }
+        catch(IOException e)
+        {
+            System.err.println(e);
+            System.out.println("Error reading the event journal, calendar " + name + " will not be saved.");
+            readOnly = e.toString();
+        }
+    }
+
+    /**
+     * Writes out the journal and closes it. Snapshots already handed to it are saved first.
+     */
+    synchronized void close()
+    {
+        EventJournal j = journal;
+        if (j != null)
+            j.close();
+    }
+
+    /**
+     * Hands a snapshot to the journal once it has grown past its compaction threshold
+     */
+    void compactIfNeeded()
+    {
+        EventJournal j = journal;
+        if (j != null && j.needsCompaction())
+            index.withSnapshot(j::checkpoint);
+    }
+
+    /**
+     * Saves a snapshot of all events to the events file on a background thread. Edits made while
+     * the file is written are not part of it; they stay in the journal until the next save.
+     * @param background the executor that waits for or writes the file
+     * @return completes once the file is written; a failed save, or one refused because the calendar
+     *         is read-only, is reported and completes normally
+     */
+    CompletableFuture<Void> save(Executor background)
+    {
+        if (readOnly != null)
+        {
+            System.out.println("Calendar " + name + " was not saved, its file could not be read: " + readOnly);
+            return CompletableFuture.completedFuture(null);
+        }
+        EventJournal j = journal;
+        if (j != null)
+        {
+            // The journal's writer thread saves the snapshot and then empties the journal, and reports
+            // a failed save itself
+            ArrayList<CompletableFuture<Void>> done = new ArrayList<>(1);
+            index.withSnapshot(events -> done.add(j.checkpoint(events)));
+            return done.get(0).handleAsync((v, e) -> (Void) null, background);
+        }
+        List<Event> events = index.snapshot();
+        return CompletableFuture.runAsync(() -> {
+            try
+            {
+                writeSnapshot(events, null);
+            }
+            catch(IOException e)
+            {
+                System.err.println(e);
+                System.out.println("Error writing the events file.");
+            }
+        }, background);
+    }
+
+    /**
+     * Saves events as the full contents of the events file. A month store, when present, only has
+     * the sections of the changed months rewritten. Otherwise the binary store or the text file is
+     * written next to the old one and renamed over it, so a failed save leaves the previous file in place.
+     * @param events the events in start-time order
+     * @param dirty the months changed since the last save, or null if not known
+     * @throws IOException if the file cannot be written
+     */
+    private void writeSnapshot(List<Event> events, Set<Integer> dirty) throws IOException
+    {
+        if (Files.exists(monthFile))
+        {
+            MonthStore.save(monthFile, events, dirty);
+            return;
+        }
+        if (Files.exists(binaryFile))
+        {
+            BinaryEventStore.write(binaryFile, events);
+            return;
+        }
+        Path temp = textFile.resolveSibling(textFile.getFileName() + ".tmp");
+        CalendarModel.writeText(temp, events);
+        Files.move(temp, textFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,287 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * All of the Events of a Calendar together with the indexes kept over them: the interval tree used for
+ * conflict checks and ordered iteration, and the day buckets used for day and month lookups. Every
+ * change goes through this class so the indexes and the journal always stay in step.
+ *
+ * Recurring series are kept apart in a SeriesSet and are never expanded into the indexes. Every lookup
+ * adds the occurrences of the series for the days it covers, and removing the Events of a day skips
+ * the series' occurrences on that day instead of removing the series.
+ *
+ * This class is not thread-safe; StripedEventIndex is the variant used by ConcurrentCalendarModel.
+ * @author Alejandro Lopez
+ */
+class PlainEventIndex implements EventIndex {
+    private final IntervalIndex intervals = new IntervalIndex();
+    private final DayIndex days = new DayIndex();
+    private SeriesSet series = SeriesSet.EMPTY;
+    private EventJournal journal;
+
+    /**
+     * Sets the journal that successful changes are written to
+     * @param journal the journal, or null to stop journaling
+     */
+    @Override
+    public void setJournal(EventJournal journal)
+    {
+        this.journal = journal;
+    }
+
+    /**
+     * Adds an Event or a recurring series unless it overlaps a stored Event or an occurrence of a
+     * stored series
+     * @param e Event to be stored
+     * @return true if the Event was added
+     */
+    @Override
+    public boolean add(Event e)
+    {
+        if (overlaps(e))
+            return false;
+        if (e instanceof RecurringEvent)
+            series = series.with((RecurringEvent) e);
+        else
+            store(e);
+        if (journal != null)
+            journal.logAdd(e);
+        return true;
+    }
+
+    /**
+     * Checks if any stored Event or series overlaps the given Event or series. A series is checked
+     * against the stored Events within its first and last day, each of which only looks at the
+     * series' occurrences around it, so the series is never expanded.
+     * @param e the Event to be checked
+     * @return true if there is a time conflict
+     */
+    @Override
+    public boolean overlaps(Event e)
+    {
+        if (series.overlaps(e))
+            return true;
+        if (!(e instanceof RecurringEvent))
+            return intervals.overlaps(e);
+        RecurringEvent s = (RecurringEvent) e;
+        for (Iterator<Event> it = intervals.iterator(s.getStartMinute(), s.getLastEndMinute()); it.hasNext();)
+        {
+            if (s.eventConflicts(it.next()))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds a batch of single Events in one sweep over the batch and the stored Events it reaches,
+     * instead of one overlap query per Event. The admitted Events are merged into the index together
+     * and journaled in start-time order.
+     * @param sorted the batch, sorted with CalendarModel.eventComparator, without recurring series
+     * @param report receives the rejected Events
+     * @return the added Events in start-time order
+     */
+    @Override
+    public List<Event> addAll(List<Event> sorted, ImportReport report)
+    {
+        if (sorted.isEmpty())
+            return sorted;
+        Iterator<Event> stored = query(sorted.get(0).getStartMinute(), ConflictSweep.lastEnd(sorted));
+        List<Event> added = ConflictSweep.admit(sorted, stored, report);
+        intervals.insertAll(added);
+        for (Event e : added)
+        {
+            days.add(e);
+            if (journal != null)
+                journal.logAdd(e);
+        }
+        return added;
+    }
+
+    /**
+     * Stores Events without checking for conflicts or journaling them, used when loading
+     * @param sorted Events sorted with CalendarModel.eventComparator
+     */
+    @Override
+    public void insertAll(List<Event> sorted)
+    {
+        List<Event> single = sorted;
+        for (int i = 0; i < sorted.size(); i++)
+        {
+            Event e = sorted.get(i);
+            if (e instanceof RecurringEvent)
+            {
+                if (single == sorted)
+                    single = new ArrayList<>(sorted.subList(0, i));
+                series = series.with((RecurringEvent) e);
+            }
+            else if (single != sorted)
+                single.add(e);
+        }
+        intervals.insertAll(single);
+        for (Event e : single)
+            days.add(e);
+    }
+
+    /**
+     * Removes the Events with a given title from a day
+     * @param day epoch day of the Events
+     * @param name title of the Events, compared ignoring case
+     */
+    @Override
+    public void removeNamed(long day, String name)
+    {
+        ArrayList<Event> found = new ArrayList<>();
+        for (Event ev : days.eventsOn(day))
+        {
+            if (ev.getName().equalsIgnoreCase(name))
+                found.add(ev);
+        }
+        for (Event ev : found)
+            unstore(ev);
+        series = series.except(day, name);
+        if (journal != null)
+            journal.logRemoveSelected(day, name);
+    }
+
+    /**
+     * Removes every Event from a day
+     * @param day epoch day of the Events
+     */
+    @Override
+    public void removeDay(long day)
+    {
+        ArrayList<Event> found = new ArrayList<>(days.eventsOn(day));
+        for (Event ev : found)
+            unstore(ev);
+        series = series.except(day, null);
+        if (journal != null)
+            journal.logRemoveAll(day);
+    }
+
+    /**
+     * Removes whole recurring series, every occurrence at once
+     * @param day epoch day the series occur on
+     * @param name title of the series, compared ignoring case
+     */
+    @Override
+    public void removeSeries(long day, String name)
+    {
+        series = series.without(day, name);
+        if (journal != null)
+            journal.logRemoveSeries(day, name);
+    }
+
+    /**
+     * Lazily iterates the Events sharing at least one minute with a range, without copying them
+     * @param from first minute of the range
+     * @param to last minute of the range
+     * @return iterator over the Events in start-time order, unaffected by later changes
+     */
+    @Override
+    public Iterator<Event> query(long from, long to)
+    {
+        if (series.size() == 0)
+            return intervals.iterator(from, to);
+        ArrayList<Iterator<Event>> sources = new ArrayList<>(series.size() + 1);
+        sources.add(intervals.iterator(from, to));
+        series.query(from, to, sources);
+        return new MergingIterator(sources);
+    }
+
+    /**
+     * Gets the Events starting on a given day
+     * @param day epoch day to look up
+     * @return the day's Events in start-time order
+     */
+    @Override
+    public List<Event> eventsOn(long day)
+    {
+        return series.eventsOn(day, days.eventsOn(day));
+    }
+
+    /**
+     * Checks if any Event starts on a given day
+     * @param day epoch day to look up
+     * @return true if the day has an Event
+     */
+    @Override
+    public boolean hasEvents(long day)
+    {
+        return days.hasEvents(day) || series.occursOn(day);
+    }
+
+    /**
+     * Gets the days of a month that have Events
+     * @param year the year
+     * @param month the month, 0 based like Calendar.MONTH
+     * @return mask with bit d-1 set if an Event starts on day d
+     */
+    @Override
+    public int monthMask(int year, int month)
+    {
+        return days.monthMask(year, month) | series.count(year, month, null);
+    }
+
+    /**
+     * Gets the number of Events on each day of a month
+     * @param year the year
+     * @param month the month, 0 based like Calendar.MONTH
+     * @return array whose element d-1 is the number of Events starting on day d
+     */
+    @Override
+    public int[] monthCounts(int year, int month)
+    {
+        int[] counts = days.monthCounts(year, month);
+        series.count(year, month, counts);
+        return counts;
+    }
+
+    /**
+     * Gets the number of stored Events, counting each recurring series once
+     * @return number of Events
+     */
+    @Override
+    public int size()
+    {
+        return intervals.size() + series.size();
+    }
+
+    /**
+     * Freezes every stored Event in O(1). The snapshot is not affected by later changes, so it can be
+     * read on another thread while this index keeps changing. A recurring series appears once, as
+     * the RecurringEvent itself, which is how it is saved.
+     * @return the Events in start-time order
+     */
+    @Override
+    public List<Event> snapshot()
+    {
+        if (series.size() == 0)
+            return intervals.snapshot();
+        return new MergedSnapshot(List.of(intervals.snapshot(), series.asList()));
+    }
+
+    /**
+     * Takes a snapshot of every stored Event and hands it to an action before any further change can
+     * be made, so the snapshot and anything the action queues line up exactly with the journal.
+     * @param action receives the Events in start-time order
+     */
+    @Override
+    public void withSnapshot(Consumer<List<Event>> action)
+    {
+        action.accept(snapshot());
+    }
+
+    private void store(Event e)
+    {
+        intervals.insert(e);
+        days.add(e);
+    }
+
+    private void unstore(Event e)
+    {
+        intervals.remove(e);
+        days.remove(e);
+    }
+}
@@ -0,0 +1,162 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+
+/**
+ * Loads the Events of a calendar without holding up the window. The events file is read and parsed on a
+ * background thread; the Events are then handed to the index on the event dispatch thread, which is the
+ * only thread that changes the PlainEventIndex. They go in as chunks: first the month being shown, then
+ * the rest outward from it, one chunk after the month and one before it in turn. Each chunk is its own
+ * turn of the event loop, so the window paints and answers clicks between chunks and the month grid
+ * fills in as each chunk lands. With a month store the shown month is read on its own first, so it shows
+ * up before the rest of the file has even been read.
+ *
+ * The journal is only replayed and opened after the last chunk, since its changes apply on top of the
+ * whole file and nothing may be journaled against a half-loaded index.
+ * @author Alejandro Lopez
+ */
+class ProgressiveLoad {
+    static final int CHUNK = 1 << 15;
+
+    private final NamedCalendar calendar;
+    private final Consumer<List<Event>> landed;
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private final ConcurrentLinkedQueue<List<Event>> chunks = new ConcurrentLinkedQueue<>();
+    private volatile boolean queued;
+
+    private ProgressiveLoad(NamedCalendar calendar, Consumer<List<Event>> landed)
+    {
+        this.calendar = calendar;
+        this.landed = landed;
+    }
+
+    /**
+     * Starts loading a calendar
+     * @param calendar the calendar, with an empty index
+     * @param audit "report" or "repair" to run ConflictAudit on the read Events
+     * @param firstDay first epoch day of the month being shown
+     * @param lastDay last epoch day of the month being shown
+     * @param background the executor that reads the file
+     * @param landed called on the event dispatch thread after each chunk is in the index
+     * @return completes on the event dispatch thread once every Event is in and the journal is open
+     */
+    static CompletableFuture<Void> start(NamedCalendar calendar, String audit, long firstDay, long lastDay,
+            Executor background, Consumer<List<Event>> landed)
+    {
+        ProgressiveLoad load = new ProgressiveLoad(calendar, landed);
+        background.execute(() -> {
+            try
+            {
+                boolean audited = audit.equals("report") || audit.equals("repair");
+                List<Event> shown = audited ? null : calendar.readMonth(firstDay);
+                if (shown != null && !shown.isEmpty())
+                {
+                    load.chunks.add(shown);
+                    SwingUtilities.invokeLater(load::applyNext);
+                }
+                load.split(calendar.read(audit), firstDay, lastDay, shown != null);
+                load.queued = true;
+            }
+            catch (RuntimeException e)
+            {
+                load.done.completeExceptionally(e);
+                return;
+            }
+            SwingUtilities.invokeLater(load::applyNext);
+        });
+        return load.done;
+    }
+
+    /**
+     * Queues the chunks: the shown month first, then alternately the next chunk after and before it
+     * @param shownRead true if the shown month's single Events were already queued from the month store
+     */
+    private void split(List<Event> sorted, long firstDay, long lastDay, boolean shownRead)
+    {
+        int lo = firstStartingFrom(sorted, firstDay * Event.MINUTES_PER_DAY);
+        int hi = firstStartingFrom(sorted, (lastDay + 1) * Event.MINUTES_PER_DAY);
+        if (!shownRead && lo < hi)
+            chunks.add(sorted.subList(lo, hi));
+        else if (lo < hi)
+        {
+            // The month store keeps the series apart, so those starting in the shown month still go in
+            ArrayList<Event> series = new ArrayList<>();
+            for (Event e : sorted.subList(lo, hi))
+            {
+                if (e instanceof RecurringEvent)
+                    series.add(e);
+            }
+            if (!series.isEmpty())
+                chunks.add(series);
+        }
+        int after = hi;
+        int before = lo;
+        while (after < sorted.size() || before > 0)
+        {
+            if (after < sorted.size())
+            {
+                int end = Math.min(sorted.size(), after + CHUNK);
+                chunks.add(sorted.subList(after, end));
+                after = end;
+            }
+            if (before > 0)
+            {
+                int start = Math.max(0, before - CHUNK);
+                chunks.add(sorted.subList(start, before));
+                before = start;
+            }
+        }
+    }
+
+    /**
+     * Puts one chunk in the index and schedules the next, on the event dispatch thread. When the queue
+     * runs dry before the whole file is read, the background thread starts the chain again.
+     */
+    private void applyNext()
+    {
+        List<Event> chunk = chunks.poll();
+        if (chunk == null)
+        {
+            if (queued && !done.isDone())
+            {
+                calendar.openJournal();
+                done.complete(null);
+            }
+            return;
+        }
+        try
+        {
+            calendar.index().insertAll(chunk);
+            landed.accept(chunk);
+        }
+        catch (RuntimeException e)
+        {
+            done.completeExceptionally(e);
+            return;
+        }
+        SwingUtilities.invokeLater(this::applyNext);
+    }
+
+    /**
+     * Finds the first Event starting at or after a minute
+     * @return its position, or the size of the list if there is none
+     */
+    private static int firstStartingFrom(List<Event> sorted, long minute)
+    {
+        int lo = 0;
+        int hi = sorted.size();
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (sorted.get(mid).getStartMinute() < minute)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+}
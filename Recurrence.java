@@ -0,0 +1,508 @@
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Rule describing how an Event repeats: every n days, every n weeks on a set of weekdays, or every n
+ * months on the day of the month the series starts on. A rule can end after a number of occurrences
+ * (count) or on a last day (until), and can skip single days (exceptions). Rules are immutable; the
+ * methods returning a rule return a changed copy.
+ *
+ * A rule does not store the day its series starts on. The methods that answer questions about the
+ * occurrences take that day as their first argument, so one rule can be shared by several series.
+ * Occurrences are worked out arithmetically, one day at a time, so a series never has to be expanded
+ * to be checked. As in RFC 5545, the first day is always an occurrence, exceptions still count towards
+ * count, and a monthly series starting on the 29th to 31st skips the months too short for it.
+ *
+ * The text form is the matching subset of an RFC 5545 RRULE, e.g.
+ * "FREQ=WEEKLY;INTERVAL=2;BYDAY=MO,WE;COUNT=10;UNTIL=20271231;EXDATE=20261102".
+ * @author Alejandro Lopez
+ */
+public class Recurrence {
+    /**
+     * How often a rule repeats
+     */
+    public enum Frequency
+    {
+        DAILY, WEEKLY, MONTHLY;
+    }
+
+    private static final String[] WEEKDAY_CODES = {"SU", "MO", "TU", "WE", "TH", "FR", "SA"};
+    private static final long GREGORIAN_CYCLE_DAYS = 146097;
+    private static final long[] NO_EXCEPTIONS = {};
+
+    private final Frequency frequency;
+    private final int interval;
+    private final int weekdays;
+    private final int count;
+    private final long until;
+    private final long[] exceptions;
+
+    private Recurrence(Frequency frequency, int interval, int weekdays, int count, long until, long[] exceptions)
+    {
+        if (interval < 1)
+            throw new IllegalArgumentException("Interval must be at least 1");
+        this.frequency = frequency;
+        this.interval = interval;
+        this.weekdays = weekdays;
+        this.count = count;
+        this.until = until;
+        this.exceptions = exceptions;
+    }
+
+    /**
+     * Creates a rule repeating every interval days
+     * @param interval number of days between occurrences
+     * @return the rule
+     */
+    public static Recurrence daily(int interval)
+    {
+        return new Recurrence(Frequency.DAILY, interval, 0, 0, Long.MAX_VALUE, NO_EXCEPTIONS);
+    }
+
+    /**
+     * Creates a rule repeating on some weekdays of every interval weeks. Weeks start on Sunday. The
+     * weekday of the first occurrence is always included.
+     * @param interval number of weeks between the weeks with occurrences
+     * @param days the weekdays with occurrences
+     * @return the rule
+     */
+    public static Recurrence weekly(int interval, DayOfWeek... days)
+    {
+        int mask = 0;
+        for (DayOfWeek d : days)
+            mask |= 1 << d.getValue() % 7;
+        return new Recurrence(Frequency.WEEKLY, interval, mask, 0, Long.MAX_VALUE, NO_EXCEPTIONS);
+    }
+
+    /**
+     * Creates a rule repeating every interval months on the day of the month of the first occurrence
+     * @param interval number of months between occurrences
+     * @return the rule
+     */
+    public static Recurrence monthly(int interval)
+    {
+        return new Recurrence(Frequency.MONTHLY, interval, 0, 0, Long.MAX_VALUE, NO_EXCEPTIONS);
+    }
+
+    /**
+     * Limits the number of occurrences
+     * @param occurrences number of occurrences, skipped days included
+     * @return a copy of this rule ending after that many occurrences
+     */
+    public Recurrence count(int occurrences)
+    {
+        if (occurrences < 1)
+            throw new IllegalArgumentException("Count must be at least 1");
+        return new Recurrence(frequency, interval, weekdays, occurrences, until, exceptions);
+    }
+
+    /**
+     * Sets the last day a series may occur on
+     * @param lastDay epoch day of the last possible occurrence
+     * @return a copy of this rule ending on that day
+     */
+    public Recurrence until(long lastDay)
+    {
+        return new Recurrence(frequency, interval, weekdays, count, lastDay, exceptions);
+    }
+
+    /**
+     * Skips the occurrence on a day
+     * @param day epoch day to skip
+     * @return a copy of this rule without an occurrence on that day
+     */
+    public Recurrence except(long day)
+    {
+        int pos = Arrays.binarySearch(exceptions, day);
+        if (pos >= 0)
+            return this;
+        long[] more = new long[exceptions.length + 1];
+        int at = -pos - 1;
+        System.arraycopy(exceptions, 0, more, 0, at);
+        more[at] = day;
+        System.arraycopy(exceptions, at, more, at + 1, exceptions.length - at);
+        return new Recurrence(frequency, interval, weekdays, count, until, more);
+    }
+
+    /**
+     * Moves the start of a series to a later occurrence, e.g. when its first occurrence is removed. The
+     * copy keeps every later occurrence: weekly weekdays taken from the first day are spelled out, the
+     * count is reduced by the occurrences before the new start and exceptions before it are dropped.
+     * @param first epoch day of the current first occurrence
+     * @param next epoch day of a later occurrence, which becomes the first
+     * @return the rule for the series starting on next
+     */
+    Recurrence startingOn(long first, long next)
+    {
+        int remaining = count == 0 ? 0 : (int) (count - indexOf(first, next));
+        int from = Arrays.binarySearch(exceptions, next + 1);
+        from = from < 0 ? -from - 1 : from;
+        long[] later = from == 0 ? exceptions : Arrays.copyOfRange(exceptions, from, exceptions.length);
+        int days = frequency == Frequency.WEEKLY ? weekMask(first) : weekdays;
+        return new Recurrence(frequency, interval, days, remaining, until, later.length == 0 ? NO_EXCEPTIONS : later);
+    }
+
+    /**
+     * Gets how often this rule repeats
+     * @return the frequency
+     */
+    public Frequency getFrequency()
+    {
+        return frequency;
+    }
+
+    /**
+     * Checks if a series has an occurrence on a day
+     * @param first epoch day of the first occurrence
+     * @param day epoch day to check
+     * @return true if the series occurs on that day
+     */
+    public boolean occursOn(long first, long day)
+    {
+        if (day < first || day > until || Arrays.binarySearch(exceptions, day) >= 0)
+            return false;
+        long index = indexOf(first, day);
+        return index >= 0 && (count == 0 || index < count);
+    }
+
+    /**
+     * Finds the first occurrence of a series on or after a day
+     * @param first epoch day of the first occurrence
+     * @param day epoch day to search from
+     * @return epoch day of the occurrence, or Long.MAX_VALUE if the series has ended
+     */
+    public long nextOn(long first, long day)
+    {
+        long last = lastDay(first);
+        long d = Math.max(day, first);
+        while (d <= last)
+        {
+            long candidate = candidateFrom(first, d);
+            if (candidate > last)
+                break;
+            if (Arrays.binarySearch(exceptions, candidate) < 0)
+                return candidate;
+            d = candidate + 1;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Gets the last day a series can occur on, from until and count
+     * @param first epoch day of the first occurrence
+     * @return epoch day, Long.MAX_VALUE if the series never ends
+     */
+    public long lastDay(long first)
+    {
+        if (count == 0)
+            return until;
+        long last;
+        switch (frequency)
+        {
+            case DAILY:
+                last = first + (long) (count - 1) * interval;
+                break;
+            case WEEKLY:
+            {
+                int mask = weekMask(first);
+                int perWeek = Integer.bitCount(mask);
+                long k = count - 1 + Integer.bitCount(mask & ((1 << weekday(first)) - 1));
+                long week = weekStart(first) + k / perWeek * interval * 7;
+                last = week + nthBit(mask, (int) (k % perWeek));
+                break;
+            }
+            default:
+            {
+                LocalDate start = LocalDate.ofEpochDay(first);
+                LocalDate date = start;
+                int found = 1;
+                long months = 0;
+                while (found < count)
+                {
+                    months += interval;
+                    date = start.plusMonths(months);
+                    if (date.getDayOfMonth() == start.getDayOfMonth())
+                        found++;
+                }
+                last = date.toEpochDay();
+                break;
+            }
+        }
+        return Math.min(last, until);
+    }
+
+    /**
+     * Gets the length in days after which the occurrences of this rule repeat, ignoring its end
+     * @return the period in days
+     */
+    long periodDays()
+    {
+        switch (frequency)
+        {
+            case DAILY:
+                return interval;
+            case WEEKLY:
+                return 7L * interval;
+            default:
+                // Month lengths and weekdays repeat every 400 years
+                return GREGORIAN_CYCLE_DAYS * interval;
+        }
+    }
+
+    /**
+     * Gets the average number of days between occurrences, used to pick the sparser of two series
+     * @param first epoch day of the first occurrence
+     * @return days per occurrence
+     */
+    double gapDays(long first)
+    {
+        switch (frequency)
+        {
+            case DAILY:
+                return interval;
+            case WEEKLY:
+                return 7.0 * interval / Integer.bitCount(weekMask(first));
+            default:
+                return 30.44 * interval;
+        }
+    }
+
+    /**
+     * Gets the highest day this rule skips
+     * @return epoch day, Long.MIN_VALUE if there are no exceptions
+     */
+    long lastException()
+    {
+        return exceptions.length == 0 ? Long.MIN_VALUE : exceptions[exceptions.length - 1];
+    }
+
+    /**
+     * Gets the position of an occurrence in its series, ignoring exceptions and the end of the series
+     * @return 0 for the first occurrence, or -1 if the pattern does not hit the day
+     */
+    private long indexOf(long first, long day)
+    {
+        switch (frequency)
+        {
+            case DAILY:
+                return (day - first) % interval == 0 ? (day - first) / interval : -1;
+            case WEEKLY:
+            {
+                int mask = weekMask(first);
+                long weeks = (weekStart(day) - weekStart(first)) / 7;
+                if (weeks % interval != 0 || (mask & (1 << weekday(day))) == 0)
+                    return -1;
+                int perWeek = Integer.bitCount(mask);
+                int skippedFirst = Integer.bitCount(mask & ((1 << weekday(first)) - 1));
+                return weeks / interval * perWeek + Integer.bitCount(mask & ((1 << weekday(day)) - 1))
+                        - skippedFirst;
+            }
+            default:
+            {
+                LocalDate start = LocalDate.ofEpochDay(first);
+                LocalDate date = LocalDate.ofEpochDay(day);
+                long months = (date.getYear() - start.getYear()) * 12L + date.getMonthValue() - start.getMonthValue();
+                if (months % interval != 0 || date.getDayOfMonth() != start.getDayOfMonth())
+                    return -1;
+                if (start.getDayOfMonth() <= 28)
+                    return months / interval;
+                // Short months are skipped, so count the months long enough
+                long index = 0;
+                for (long m = interval; m <= months; m += interval)
+                {
+                    if (start.plusMonths(m).getDayOfMonth() == start.getDayOfMonth())
+                        index++;
+                }
+                return index;
+            }
+        }
+    }
+
+    /**
+     * Finds the first day the pattern hits on or after a day, ignoring exceptions and the end
+     */
+    private long candidateFrom(long first, long day)
+    {
+        switch (frequency)
+        {
+            case DAILY:
+            {
+                long steps = Math.floorDiv(day - first + interval - 1, interval);
+                return first + steps * interval;
+            }
+            case WEEKLY:
+            {
+                int mask = weekMask(first);
+                long firstWeek = weekStart(first);
+                long d = day;
+                while (true)
+                {
+                    long week = weekStart(d);
+                    long weeks = (week - firstWeek) / 7;
+                    if (weeks % interval != 0)
+                    {
+                        d = firstWeek + (weeks / interval + 1) * interval * 7;
+                        continue;
+                    }
+                    int later = mask & ~((1 << weekday(d)) - 1);
+                    if (later != 0)
+                        return week + Integer.numberOfTrailingZeros(later);
+                    d = week + 7;
+                }
+            }
+            default:
+            {
+                LocalDate start = LocalDate.ofEpochDay(first);
+                LocalDate date = LocalDate.ofEpochDay(day);
+                long months = (date.getYear() - start.getYear()) * 12L + date.getMonthValue() - start.getMonthValue();
+                long m = Math.max(0, Math.floorDiv(months + interval - 1, interval) * interval);
+                while (true)
+                {
+                    LocalDate candidate = start.plusMonths(m);
+                    if (candidate.getDayOfMonth() == start.getDayOfMonth() && candidate.toEpochDay() >= day)
+                        return candidate.toEpochDay();
+                    m += interval;
+                }
+            }
+        }
+    }
+
+    private int weekMask(long first)
+    {
+        return weekdays | 1 << weekday(first);
+    }
+
+    /**
+     * Gets the weekday of an epoch day, 0 for Sunday
+     */
+    private static int weekday(long day)
+    {
+        // 01/01/1970 was a Thursday
+        return (int) Math.floorMod(day + 4, 7L);
+    }
+
+    private static long weekStart(long day)
+    {
+        return day - weekday(day);
+    }
+
+    private static int nthBit(int mask, int n)
+    {
+        for (int i = 0; i < n; i++)
+            mask &= mask - 1;
+        return Integer.numberOfTrailingZeros(mask);
+    }
+
+    /**
+     * Reads a rule from its text form
+     * @param text the rule, as written by toString()
+     * @return the rule
+     * @throws IllegalArgumentException if the text is not a valid rule
+     */
+    public static Recurrence parse(String text)
+    {
+        Frequency frequency = null;
+        int interval = 1;
+        int weekdays = 0;
+        int count = 0;
+        long until = Long.MAX_VALUE;
+        long[] exceptions = NO_EXCEPTIONS;
+        for (String part : text.trim().split(";"))
+        {
+            int eq = part.indexOf('=');
+            if (eq < 0)
+                throw new IllegalArgumentException("Bad recurrence rule: " + text);
+            String key = part.substring(0, eq).trim().toUpperCase();
+            String value = part.substring(eq + 1).trim();
+            switch (key)
+            {
+                case "FREQ":
+                    frequency = Frequency.valueOf(value.toUpperCase());
+                    break;
+                case "INTERVAL":
+                    interval = Integer.parseInt(value);
+                    break;
+                case "BYDAY":
+                    for (String code : value.split(","))
+                    {
+                        int d = Arrays.asList(WEEKDAY_CODES).indexOf(code.trim().toUpperCase());
+                        if (d < 0)
+                            throw new IllegalArgumentException("Bad weekday: " + code);
+                        weekdays |= 1 << d;
+                    }
+                    break;
+                case "COUNT":
+                    count = Integer.parseInt(value);
+                    break;
+                case "UNTIL":
+                    until = parseDay(value);
+                    break;
+                case "EXDATE":
+                {
+                    String[] days = value.split(",");
+                    exceptions = new long[days.length];
+                    for (int i = 0; i < days.length; i++)
+                        exceptions[i] = parseDay(days[i].trim());
+                    Arrays.sort(exceptions);
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unsupported recurrence part: " + key);
+            }
+        }
+        if (frequency == null)
+            throw new IllegalArgumentException("Recurrence rule without FREQ: " + text);
+        return new Recurrence(frequency, interval, weekdays, count, until, exceptions);
+    }
+
+    private static long parseDay(String yyyymmdd)
+    {
+        if (yyyymmdd.length() != 8)
+            throw new IllegalArgumentException("Bad date: " + yyyymmdd);
+        int value = Integer.parseInt(yyyymmdd);
+        return LocalDate.of(value / 10000, value / 100 % 100, value % 100).toEpochDay();
+    }
+
+    private static String formatDay(long day)
+    {
+        LocalDate date = LocalDate.ofEpochDay(day);
+        return String.format("%04d%02d%02d", date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+    }
+
+    /**
+     * Writes this rule in its text form
+     * @return the rule as an RRULE-like string
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder text = new StringBuilder("FREQ=").append(frequency);
+        if (interval != 1)
+            text.append(";INTERVAL=").append(interval);
+        if (weekdays != 0)
+        {
+            text.append(";BYDAY=");
+            String sep = "";
+            for (int d = 0; d < 7; d++)
+            {
+                if ((weekdays & (1 << d)) != 0)
+                {
+                    text.append(sep).append(WEEKDAY_CODES[d]);
+                    sep = ",";
+                }
+            }
+        }
+        if (count != 0)
+            text.append(";COUNT=").append(count);
+        if (until != Long.MAX_VALUE)
+            text.append(";UNTIL=").append(formatDay(until));
+        if (exceptions.length > 0)
+        {
+            text.append(";EXDATE=");
+            for (int i = 0; i < exceptions.length; i++)
+                text.append(i > 0 ? "," : "").append(formatDay(exceptions[i]));
+        }
+        return text.toString();
+    }
+}
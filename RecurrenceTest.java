@@ -0,0 +1,341 @@
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Checks recurring series against brute force. 3000 random daily, weekly and monthly rules, with and
+ * without a count, an end day and skipped days, must survive a round trip through their text and must
+ * occur on exactly the days found by stepping through the calendar one period at a time, whether asked
+ * day by day, for the next occurrence or for the occurrences within a range. 1500 random pairs of series
+ * must conflict whenever two of their occurrences overlap. Then the first occurrence of random series is
+ * skipped again and again until nothing is left, and both kinds of EventIndex and the model are checked
+ * with a weekly series next to single Events.
+ *
+ * Run as "java RecurrenceTest". Throws an AssertionError, and so exits with status 1, if any check fails.
+ * @author Alejandro Lopez
+ */
+public class RecurrenceTest {
+    private static final long HORIZON = 2000;
+
+    /**
+     * A random rule together with what it was built from, which the brute force works from
+     */
+    private static class Rule
+    {
+        char frequency;
+        int interval;
+        int weekdays;
+        int count;
+        long until = Long.MAX_VALUE;
+        Set<Long> skipped = new HashSet<>();
+        Recurrence recurrence;
+    }
+
+    /**
+     * Runs every check
+     * @param args not used
+     */
+    public static void main(String[] args)
+    {
+        Random random = new Random(42);
+        checkRules(random, 3000);
+        checkPairs(random, 1500);
+        checkExceptFirst(new Random(7), 3000);
+        checkIndex(new PlainEventIndex());
+        checkIndex(new StripedEventIndex());
+        checkModel();
+    }
+
+    private static void checkRules(Random random, int rules)
+    {
+        for (int t = 0; t < rules; t++)
+        {
+            long first = 20000 + random.nextInt(400);
+            if (random.nextInt(6) == 0)
+            {
+                // Monthly series starting late in the month skip the months too short for them
+                first = LocalDate.of(2026, 1 + random.nextInt(12), 28).plusDays(random.nextInt(4)).toEpochDay();
+            }
+            Rule rule = randomRule(random, first);
+            Recurrence parsed = Recurrence.parse(rule.recurrence.toString());
+            check(parsed.toString().equals(rule.recurrence.toString()), "round trip of " + rule.recurrence);
+
+            List<Long> expected = expand(rule, first, first + HORIZON);
+            List<Long> found = new ArrayList<>();
+            for (long d = first - 5; d <= first + HORIZON; d++)
+            {
+                if (parsed.occursOn(first, d))
+                    found.add(d);
+            }
+            check(found.equals(expected), "occursOn of " + rule.recurrence + " from " + first);
+
+            List<Long> stepped = new ArrayList<>();
+            for (long d = parsed.nextOn(first, first - 3); d <= first + HORIZON; d = parsed.nextOn(first, d + 1))
+                stepped.add(d);
+            check(stepped.equals(expected), "nextOn of " + rule.recurrence + " from " + first);
+
+            long last = parsed.lastDay(first);
+            check(expected.isEmpty() || last >= expected.get(expected.size() - 1), "lastDay of " + rule.recurrence);
+
+            RecurringEvent series = new RecurringEvent(first * Event.MINUTES_PER_DAY + 600, 60, true, "x", parsed);
+            long from = (first + random.nextInt(600)) * Event.MINUTES_PER_DAY + random.nextInt(Event.MINUTES_PER_DAY);
+            long to = from + random.nextInt(40 * Event.MINUTES_PER_DAY);
+            List<Long> inRange = new ArrayList<>();
+            for (long d : expected)
+            {
+                long start = d * Event.MINUTES_PER_DAY + 600;
+                if (start <= to && start + 60 >= from)
+                    inRange.add(d);
+            }
+            List<Long> occurrences = new ArrayList<>();
+            for (Iterator<Event> it = series.occurrences(from, to); it.hasNext();)
+                occurrences.add(it.next().getEpochDay());
+            check(occurrences.equals(inRange), "occurrences of " + rule.recurrence + " from " + first);
+        }
+        System.out.println(rules + " rules: OK");
+    }
+
+    private static Rule randomRule(Random random, long first)
+    {
+        Rule rule = new Rule();
+        rule.frequency = "DWM".charAt(random.nextInt(3));
+        rule.interval = 1 + random.nextInt(3);
+        if (rule.frequency == 'D')
+            rule.recurrence = Recurrence.daily(rule.interval);
+        else if (rule.frequency == 'M')
+            rule.recurrence = Recurrence.monthly(rule.interval);
+        else
+        {
+            List<DayOfWeek> days = new ArrayList<>();
+            for (DayOfWeek d : DayOfWeek.values())
+            {
+                if (random.nextInt(3) == 0)
+                {
+                    days.add(d);
+                    rule.weekdays |= 1 << d.getValue() % 7;
+                }
+            }
+            rule.recurrence = Recurrence.weekly(rule.interval, days.toArray(new DayOfWeek[0]));
+        }
+        if (random.nextInt(3) == 0)
+        {
+            rule.count = 1 + random.nextInt(30);
+            rule.recurrence = rule.recurrence.count(rule.count);
+        }
+        if (random.nextInt(3) == 0)
+        {
+            rule.until = first + random.nextInt(900);
+            rule.recurrence = rule.recurrence.until(rule.until);
+        }
+        for (int i = random.nextInt(4); i > 0; i--)
+        {
+            long day = first + 1 + random.nextInt(300);
+            rule.skipped.add(day);
+            rule.recurrence = rule.recurrence.except(day);
+        }
+        return rule;
+    }
+
+    /**
+     * Finds the days of a rule by stepping through the calendar one period at a time
+     */
+    private static List<Long> expand(Rule rule, long first, long last)
+    {
+        ArrayList<Long> candidates = new ArrayList<>();
+        if (rule.frequency == 'D')
+        {
+            for (long d = first; d <= last; d += rule.interval)
+                candidates.add(d);
+        }
+        else if (rule.frequency == 'W')
+        {
+            // Epoch day 0 was a Thursday, so weekday 0 is Sunday like the bits of the mask
+            int weekday = (int) Math.floorMod(first + 4, 7L);
+            int weekdays = rule.weekdays | 1 << weekday;
+            for (long week = first - weekday; week <= last; week += 7L * rule.interval)
+            {
+                for (int b = 0; b < 7; b++)
+                {
+                    if ((weekdays & 1 << b) != 0 && week + b >= first && week + b <= last)
+                        candidates.add(week + b);
+                }
+            }
+        }
+        else
+        {
+            LocalDate start = LocalDate.ofEpochDay(first);
+            for (long m = 0; start.plusMonths(m).toEpochDay() <= last; m += rule.interval)
+            {
+                LocalDate date = start.plusMonths(m);
+                if (date.getDayOfMonth() == start.getDayOfMonth())
+                    candidates.add(date.toEpochDay());
+            }
+        }
+        ArrayList<Long> days = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++)
+        {
+            long d = candidates.get(i);
+            if (rule.count > 0 && i >= rule.count || d > rule.until)
+                break;
+            if (!rule.skipped.contains(d))
+                days.add(d);
+        }
+        return days;
+    }
+
+    private static void checkPairs(Random random, int pairs)
+    {
+        int conflicting = 0;
+        for (int t = 0; t < pairs; t++)
+        {
+            RecurringEvent a = randomSeries(random, "a");
+            RecurringEvent b = randomSeries(random, "b");
+            boolean overlap = false;
+            for (long d = 19990; d < 20000 + 146097L / 10 && !overlap; d++)
+            {
+                if (!a.occursOn(d))
+                    continue;
+                Event occurrence = a.occurrence(d);
+                for (long near = d - 1; near <= d + 1; near++)
+                {
+                    if (b.occursOn(near) && b.occurrence(near).eventConflicts(occurrence))
+                        overlap = true;
+                }
+            }
+            boolean found = a.eventConflicts(b);
+            check(found == b.eventConflicts(a), "conflicts of " + a + " and " + b + " are not symmetric");
+            check(!overlap || found, "missed the conflict of " + a + " and " + b);
+            if (found)
+                conflicting++;
+        }
+        System.out.println(pairs + " pairs of series: OK, " + conflicting + " conflicting");
+    }
+
+    private static RecurringEvent randomSeries(Random random, String name)
+    {
+        int interval = 1 + random.nextInt(3);
+        Recurrence rule;
+        switch (random.nextInt(3))
+        {
+            case 0: rule = Recurrence.daily(interval + 1); break;
+            case 1: rule = Recurrence.weekly(interval, DayOfWeek.of(1 + random.nextInt(7))); break;
+            default: rule = Recurrence.monthly(interval); break;
+        }
+        if (random.nextBoolean())
+            rule = rule.count(1 + random.nextInt(20));
+        long first = 20000 + random.nextInt(200);
+        for (int i = random.nextInt(3); i > 0; i--)
+            rule = rule.except(first + random.nextInt(100));
+        return new RecurringEvent(first * Event.MINUTES_PER_DAY + random.nextInt(Event.MINUTES_PER_DAY),
+                random.nextInt(300), true, name, rule);
+    }
+
+    /**
+     * Skips the first occurrence of random series until none is left, reading each result back from its
+     * stored form, which must occur on the remaining days and nowhere else
+     */
+    private static void checkExceptFirst(Random random, int rules)
+    {
+        int emptied = 0;
+        for (int t = 0; t < rules; t++)
+        {
+            long first = 20000 + random.nextInt(400);
+            Rule rule = randomRule(random, first);
+            if (rule.count == 0 && random.nextBoolean())
+                rule.recurrence = rule.recurrence.count(1 + random.nextInt(8));
+            RecurringEvent series = new RecurringEvent(first * Event.MINUTES_PER_DAY + 600, 30, true, "S",
+                    rule.recurrence);
+            TreeSet<Long> remaining = new TreeSet<>();
+            for (long d = first; d <= first + 3000; d++)
+            {
+                if (series.occursOn(d))
+                    remaining.add(d);
+            }
+            while (!remaining.isEmpty() && remaining.size() <= 60)
+            {
+                RecurringEvent next = series.except(remaining.pollFirst());
+                if (next == null)
+                {
+                    check(remaining.isEmpty(), "except dropped " + series.storedName() + " early");
+                    emptied++;
+                    break;
+                }
+                series = (RecurringEvent) Event.restore(next.getStartMinute(), 30, true, next.storedName());
+                TreeSet<Long> occurs = new TreeSet<>();
+                for (long d = first - 10; d <= first + 3000; d++)
+                {
+                    if (series.occursOn(d))
+                        occurs.add(d);
+                }
+                check(occurs.equals(remaining), "except turned " + rule.recurrence + " into " + next.storedName());
+            }
+        }
+        System.out.println(rules + " series skipped from the start: OK, " + emptied + " emptied");
+    }
+
+    /**
+     * Stores a weekly series next to single Events, which it must not overlap, and removes parts of it
+     */
+    private static void checkIndex(EventIndex index)
+    {
+        long monday = LocalDate.of(2026, 11, 2).toEpochDay();
+        long base = monday * Event.MINUTES_PER_DAY;
+        check(index.add(new Event(base + 7 * Event.MINUTES_PER_DAY + 9 * 60 + 5, 10, true, "clash")), "add");
+        check(index.add(new Event(base + 7 * Event.MINUTES_PER_DAY + 11 * 60, 10, true, "ok")), "add");
+        RecurringEvent standup = new RecurringEvent(new Event(base + 9 * 60, 15, true, "Standup"),
+                Recurrence.weekly(1, DayOfWeek.MONDAY, DayOfWeek.WEDNESDAY));
+        check(!index.add(standup), "a series overlapping a stored Event was added");
+        index.removeNamed(monday + 7, "clash");
+        check(index.add(standup), "add series");
+        check(!index.add(new Event((monday + 399) * Event.MINUTES_PER_DAY + 9 * 60 + 10, 0, false, "late")),
+                "an Event overlapping a far occurrence was added");
+        check(index.add(new Event((monday + 400) * Event.MINUTES_PER_DAY + 9 * 60 + 10, 0, false, "tue")), "add");
+        check(index.size() == 3, "size");
+        check(index.eventsOn(monday + 2).size() == 1 && index.eventsOn(monday + 7).size() == 2, "eventsOn");
+        check(index.hasEvents(monday + 9) && !index.hasEvents(monday + 10), "hasEvents");
+        check(index.monthMask(2026, 10) == (1 << 1 | 1 << 3 | 1 << 8 | 1 << 10 | 1 << 15 | 1 << 17 | 1 << 22
+                | 1 << 24 | 1 << 29), "monthMask");
+        index.removeDay(monday + 9);
+        check(!index.hasEvents(monday + 9), "removeDay left the occurrence");
+        int found = 0;
+        for (Iterator<Event> it = index.query(base, base + 14 * Event.MINUTES_PER_DAY - 1); it.hasNext(); it.next())
+            found++;
+        check(found == 4, "query found " + found);
+        List<Event> snapshot = index.snapshot();
+        check(snapshot.size() == 3 && snapshot.get(0) instanceof RecurringEvent, "snapshot");
+        index.removeSeries(monday + 14, "STANDUP");
+        check(index.size() == 2 && !index.hasEvents(monday), "removeSeries");
+        System.out.println(index.getClass().getSimpleName() + ": OK");
+    }
+
+    /**
+     * Clears the first day of a series through the model, which moves the series on to its next day
+     */
+    private static void checkModel()
+    {
+        CalendarModel model = new CalendarModel();
+        GregorianCalendar monday = new GregorianCalendar(2026, 10, 2);
+        long day = DayIndex.epochDay(monday);
+        model.addRecurring(new Event(day * Event.MINUTES_PER_DAY + 540, 30, true, "Standup"),
+                Recurrence.daily(1).count(3));
+        model.removeAll(monday);
+        check(model.snapshot().size() == 1 && model.snapshot().get(0).getEpochDay() == day + 1,
+                "clearing the first day did not move the series");
+        model.removeSeries(new GregorianCalendar(2026, 10, 4), "standup");
+        check(model.snapshot().isEmpty(), "removeSeries left the series");
+        System.out.println("CalendarModel: OK");
+    }
+
+    private static void check(boolean condition, String message)
+    {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+}
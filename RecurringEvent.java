@@ -0,0 +1,278 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An Event that repeats by a Recurrence rule. The whole series is stored as this one object: its start,
+ * length and title are those of the first occurrence, and every other occurrence is built on demand
+ * from the rule, only for the days that are asked for. The first occurrence anchors the rule, so
+ * removing it moves the start of the series to its next occurrence rather than adding an exception.
+ *
+ * In the events file a series is one line whose title is followed by RULE_MARKER and the rule, e.g.
+ * "Monday, 2 November 2026 09:00 - 09:15;Standup;RRULE:FREQ=WEEKLY;BYDAY=MO,WE".
+ * @author Alejandro Lopez
+ */
+public class RecurringEvent extends Event {
+    static final String RULE_MARKER = ";RRULE:";
+
+    private final Recurrence rule;
+
+    /**
+     * Constructor: Makes a series out of an Event and a rule
+     * @param first the first occurrence
+     * @param rule how the Event repeats
+     */
+    public RecurringEvent(Event first, Recurrence rule)
+    {
+        this(first.getStartMinute(), (int) (first.getEndMinute() - first.getStartMinute()), first.hasEndTime(),
+                first.getName(), rule);
+    }
+
+    /**
+     * Constructor: Makes a series from times that were already parsed
+     * @param start start of the first occurrence as minutes since 01/01/1970 00:00 in local time
+     * @param span the length of every occurrence in minutes
+     * @param hasEnd true if the occurrences have an end time
+     * @param name the title of the series
+     * @param rule how the Event repeats
+     */
+    RecurringEvent(long start, int span, boolean hasEnd, String name, Recurrence rule)
+    {
+        super(start, span, hasEnd, name);
+        this.rule = rule;
+    }
+
+    /**
+     * Gets the rule of this series
+     * @return the rule
+     */
+    public Recurrence getRule()
+    {
+        return rule;
+    }
+
+    /**
+     * Gets the title and the rule, as written to the events file
+     * @return the title followed by RULE_MARKER and the rule
+     */
+    @Override
+    String storedName()
+    {
+        return getName() + RULE_MARKER + rule;
+    }
+
+    /**
+     * Gets the last day the series can occur on
+     * @return epoch day, Long.MAX_VALUE if the series never ends
+     */
+    @Override
+    long getLastEpochDay()
+    {
+        return rule.lastDay(getEpochDay());
+    }
+
+    /**
+     * Gets the end of the last occurrence
+     * @return minutes since 01/01/1970 00:00, Long.MAX_VALUE if the series never ends
+     */
+    long getLastEndMinute()
+    {
+        long last = getLastEpochDay();
+        if (last == Long.MAX_VALUE)
+            return Long.MAX_VALUE;
+        return (last - getEpochDay()) * MINUTES_PER_DAY + getEndMinute();
+    }
+
+    /**
+     * Makes a copy of this series without the occurrence on a day. Since the first occurrence anchors
+     * the rule, skipping it moves the start of the series to its next occurrence instead.
+     * @param day epoch day to skip
+     * @return the changed series, this series if it does not occur on the day, or null if the day was
+     *         its only occurrence left
+     */
+    RecurringEvent except(long day)
+    {
+        if (!occursOn(day))
+            return this;
+        if (day != getEpochDay())
+            return new RecurringEvent(getStartMinute(), span(), hasEndTime(), getName(), rule.except(day));
+        long next = rule.nextOn(day, day + 1);
+        if (next == Long.MAX_VALUE)
+            return null;
+        return new RecurringEvent(getStartMinute() + (next - day) * MINUTES_PER_DAY, span(), hasEndTime(), getName(),
+                rule.startingOn(day, next));
+    }
+
+    /**
+     * Checks if an occurrence starts on a day
+     * @param day epoch day to check
+     * @return true if the series occurs on that day
+     */
+    public boolean occursOn(long day)
+    {
+        return day == getEpochDay() || rule.occursOn(getEpochDay(), day);
+    }
+
+    /**
+     * Builds the occurrence starting on a day, without checking that the series occurs on it
+     * @param day epoch day of the occurrence
+     * @return a plain Event for that occurrence
+     */
+    Event occurrence(long day)
+    {
+        return new Event(getStartMinute() + (day - getEpochDay()) * MINUTES_PER_DAY, span(), hasEndTime(), getName());
+    }
+
+    /**
+     * Lazily iterates the occurrences sharing at least one minute with a range. Occurrences are built
+     * one at a time as the iterator advances.
+     * @param from first minute of the range
+     * @param to last minute of the range
+     * @return iterator over the occurrences in start-time order
+     */
+    public Iterator<Event> occurrences(long from, long to)
+    {
+        return new Iterator<Event>()
+        {
+            // An occurrence starting the day before the range can still reach into it
+            private long day = nextDay(Math.floorDiv(from, MINUTES_PER_DAY) - 1);
+            private final long lastDay = Math.floorDiv(to, MINUTES_PER_DAY);
+            private Event ahead = find();
+
+            private Event find()
+            {
+                while (day <= lastDay)
+                {
+                    Event e = occurrence(day);
+                    day = nextDay(day + 1);
+                    if (e.getEndMinute() >= from && e.getStartMinute() <= to)
+                        return e;
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext()
+            {
+                return ahead != null;
+            }
+
+            @Override
+            public Event next()
+            {
+                if (ahead == null)
+                    throw new NoSuchElementException();
+                Event e = ahead;
+                ahead = find();
+                return e;
+            }
+        };
+    }
+
+    /**
+     * Checks if any occurrence shares a minute with a range. Only the days the range touches are looked at.
+     * @param from first minute of the range
+     * @param to last minute of the range
+     * @return true if there is a time conflict
+     */
+    public boolean overlaps(long from, long to)
+    {
+        long span = span();
+        long lastDay = Math.floorDiv(to, MINUTES_PER_DAY);
+        for (long day = nextDay(Math.floorDiv(from, MINUTES_PER_DAY) - 1); day <= lastDay; day = nextDay(day + 1))
+        {
+            long start = getStartMinute() + (day - getEpochDay()) * MINUTES_PER_DAY;
+            if (start <= to && from <= start + span)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks if any occurrence of this series conflicts with an Event or with any occurrence of another series
+     * @param e the event to be compared to this series
+     * @return true if there is a time conflict
+     */
+    @Override
+    public boolean eventConflicts(Event e)
+    {
+        if (e instanceof RecurringEvent)
+            return conflicts((RecurringEvent) e);
+        return overlaps(e.getStartMinute(), e.getEndMinute());
+    }
+
+    /**
+     * Checks two series against each other without expanding either of them in full. Once both series
+     * have started and are past their exceptions, their occurrences line up the same way every
+     * lcm(period, other period) days, so only that window, plus the start before it, has to be walked.
+     * The walk steps through the occurrences of the sparser series and probes the other one.
+     */
+    private boolean conflicts(RecurringEvent other)
+    {
+        RecurringEvent walked = rule.gapDays(getEpochDay()) >= other.rule.gapDays(other.getEpochDay()) ? this : other;
+        RecurringEvent probed = walked == this ? other : this;
+        long from = Math.max(getEpochDay(), other.getEpochDay()) - 1;
+        long to = Math.min(getLastEpochDay(), other.getLastEpochDay());
+        long settled = Math.max(from, Math.max(rule.lastException(), other.rule.lastException()));
+        to = Math.min(to, plus(settled, lcm(rule.periodDays(), other.rule.periodDays())));
+        to = plus(to, 1);
+        for (long day = walked.nextDay(from); day <= to; day = walked.nextDay(day + 1))
+        {
+            Event e = walked.occurrence(day);
+            if (probed.overlaps(e.getStartMinute(), e.getEndMinute()))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the first occurrence on or after a day
+     * @return epoch day, Long.MAX_VALUE if there is none
+     */
+    private long nextDay(long day)
+    {
+        if (day <= getEpochDay())
+            return getEpochDay();
+        return rule.nextOn(getEpochDay(), day);
+    }
+
+    private int span()
+    {
+        return (int) (getEndMinute() - getStartMinute());
+    }
+
+    private static long lcm(long a, long b)
+    {
+        long x = a;
+        long y = b;
+        while (y != 0)
+        {
+            long t = x % y;
+            x = y;
+            y = t;
+        }
+        try
+        {
+            return Math.multiplyExact(a / x, b);
+        }
+        catch (ArithmeticException e)
+        {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private static long plus(long a, long b)
+    {
+        long sum = a + b;
+        return ((a ^ sum) & (b ^ sum)) < 0 ? Long.MAX_VALUE : sum;
+    }
+
+    /**
+     * Returns a String representation of the series
+     * @return the first occurrence followed by the rule
+     */
+    @Override
+    public String toString()
+    {
+        return super.toString() + " (" + rule + ")";
+    }
+}
@@ -0,0 +1,203 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The recurring series of a Calendar. Series are few compared to single Events and cover many days
+ * each, so they are kept apart from the day and interval indexes, in an immutable array in start-time
+ * order that is replaced as a whole on every change. Every lookup asks each series about the days it
+ * is given, so occurrences are only ever built for the days being looked at.
+ * @author Alejandro Lopez
+ */
+class SeriesSet {
+    static final SeriesSet EMPTY = new SeriesSet(new RecurringEvent[0]);
+
+    private final RecurringEvent[] series;
+
+    private SeriesSet(RecurringEvent[] series)
+    {
+        this.series = series;
+    }
+
+    /**
+     * Adds a series
+     * @param s the series to be added
+     * @return a set holding the series as well
+     */
+    SeriesSet with(RecurringEvent s)
+    {
+        int pos = Arrays.binarySearch(series, s, CalendarModel.eventComparator);
+        int at = pos < 0 ? -pos - 1 : pos + 1;
+        RecurringEvent[] more = new RecurringEvent[series.length + 1];
+        System.arraycopy(series, 0, more, 0, at);
+        more[at] = s;
+        System.arraycopy(series, at, more, at + 1, series.length - at);
+        return new SeriesSet(more);
+    }
+
+    /**
+     * Skips the occurrences starting on a day. A series whose first occurrence is skipped starts on its
+     * next one instead, and one left without occurrences is dropped.
+     * @param day epoch day of the occurrences
+     * @param name title of the series to change, compared ignoring case, or null for every series
+     * @return a set with the changed series, or this set if no series occurs on the day
+     */
+    SeriesSet except(long day, String name)
+    {
+        ArrayList<RecurringEvent> kept = null;
+        for (int i = 0; i < series.length; i++)
+        {
+            RecurringEvent s = series[i];
+            RecurringEvent skipped = name != null && !s.getName().equalsIgnoreCase(name) ? s : s.except(day);
+            if (skipped != s && kept == null)
+                kept = new ArrayList<>(Arrays.asList(series).subList(0, i));
+            if (kept != null && skipped != null)
+                kept.add(skipped);
+        }
+        return kept == null ? this : sorted(kept);
+    }
+
+    /**
+     * Removes whole series
+     * @param day epoch day the series must occur on
+     * @param name title of the series to remove, compared ignoring case
+     * @return a set without the series, or this set if no such series occurs on the day
+     */
+    SeriesSet without(long day, String name)
+    {
+        ArrayList<RecurringEvent> kept = new ArrayList<>(series.length);
+        for (RecurringEvent s : series)
+        {
+            if (!s.getName().equalsIgnoreCase(name) || !s.occursOn(day))
+                kept.add(s);
+        }
+        return kept.size() == series.length ? this : sorted(kept);
+    }
+
+    /**
+     * Makes a set of series, which may have moved out of start-time order
+     */
+    private static SeriesSet sorted(List<RecurringEvent> kept)
+    {
+        RecurringEvent[] array = kept.toArray(new RecurringEvent[0]);
+        Arrays.sort(array, CalendarModel.eventComparator);
+        return new SeriesSet(array);
+    }
+
+    /**
+     * Checks if any series conflicts with an Event or with any occurrence of another series
+     * @param e the Event or series to be checked
+     * @return true if there is a time conflict
+     */
+    boolean overlaps(Event e)
+    {
+        for (RecurringEvent s : series)
+        {
+            if (s.eventConflicts(e))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks if any series occurs on a day
+     * @param day epoch day to check
+     * @return true if an occurrence starts on that day
+     */
+    boolean occursOn(long day)
+    {
+        for (RecurringEvent s : series)
+        {
+            if (s.occursOn(day))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds the occurrences starting on a day to that day's single Events
+     * @param day epoch day to look up
+     * @param single the day's single Events in start-time order
+     * @return the single list if no series occurs on the day, otherwise a new list of both in start-time order
+     */
+    List<Event> eventsOn(long day, List<Event> single)
+    {
+        ArrayList<Event> all = null;
+        for (RecurringEvent s : series)
+        {
+            if (!s.occursOn(day))
+                continue;
+            if (all == null)
+                all = new ArrayList<>(single);
+            Event e = s.occurrence(day);
+            int pos = Collections.binarySearch(all, e, CalendarModel.eventComparator);
+            all.add(pos < 0 ? -pos - 1 : pos + 1, e);
+        }
+        return all == null ? single : all;
+    }
+
+    /**
+     * Adds the occurrences of a month to the number of Events on each of its days
+     * @param year the year
+     * @param month the month, 0 based like Calendar.MONTH
+     * @param counts array whose element d-1 is the number of Events starting on day d, updated in place
+     * @return mask with bit d-1 set if an occurrence starts on day d
+     */
+    int count(int year, int month, int[] counts)
+    {
+        if (series.length == 0)
+            return 0;
+        long first = DayIndex.epochDay(year, month, 1);
+        long last = first + LocalDate.ofEpochDay(first).lengthOfMonth() - 1;
+        long from = first * Event.MINUTES_PER_DAY;
+        long to = (last + 1) * Event.MINUTES_PER_DAY - 1;
+        int mask = 0;
+        for (RecurringEvent s : series)
+        {
+            for (Iterator<Event> it = s.occurrences(from, to); it.hasNext();)
+            {
+                long day = it.next().getEpochDay();
+                if (day < first)
+                    continue;
+                int d = (int) (day - first);
+                mask |= 1 << d;
+                if (counts != null)
+                    counts[d]++;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Adds an iterator over the occurrences sharing at least one minute with a range for every series
+     * @param from first minute of the range
+     * @param to last minute of the range
+     * @param sources list the iterators are added to
+     */
+    void query(long from, long to, List<Iterator<Event>> sources)
+    {
+        for (RecurringEvent s : series)
+            sources.add(s.occurrences(from, to));
+    }
+
+    /**
+     * Gets the number of series
+     * @return number of series
+     */
+    int size()
+    {
+        return series.length;
+    }
+
+    /**
+     * Lists the series themselves, one entry per series, as they are saved
+     * @return read-only list of the series in start-time order
+     */
+    List<Event> asList()
+    {
+        return Collections.unmodifiableList(Arrays.asList((Event[]) series));
+    }
+}
@@ -5,13 +5,19 @@
 public class SimpleCalendar {
     
     /**
-     * Runs the program
+     * Runs the program; with --headless the calendar is served over HTTP by CalendarServer instead
      * @param args the command line arguments
+     * @throws java.io.IOException if the headless service cannot be started
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws java.io.IOException {
+        if (args.length > 0 && args[0].equals("--headless")) {
+            CalendarServer.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         CalendarModel calendar = new CalendarModel();
         CalendarView frame = new CalendarView(calendar);
         calendar.attach(frame);
+        frame.loadEvents();
     }
     
 }
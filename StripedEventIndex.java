@@ -0,0 +1,617 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * Thread-safe EventIndex that splits the Calendar into stripes by month. Each stripe holds the Events
+ * starting in its months in a PlainEventIndex guarded by its own StampedLock, so threads working on
+ * different months never wait for each other and readers of a month only wait for writers of that month.
+ *
+ * An Event can overlap Events of the day before and the day after, which may be in another month, so
+ * add() locks the stripes of all three days, always in stripe order. Changes are journaled while their
+ * stripe is still locked, which keeps the journal in the same order as the changes themselves.
+ *
+ * Recurring series reach into every month, so they are kept outside the stripes in one SeriesSet.
+ * Adding a series write-locks every stripe; skipping an occurrence only needs the stripe of its day.
+ * @author Alejandro Lopez
+ */
+class StripedEventIndex implements EventIndex {
+    static final int STRIPES = 64;
+
+    private final StampedLock[] locks = new StampedLock[STRIPES];
+    private final PlainEventIndex[] stripes = new PlainEventIndex[STRIPES];
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile SeriesSet series = SeriesSet.EMPTY;
+    private volatile EventJournal journal;
+
+    StripedEventIndex()
+    {
+        for (int i = 0; i < STRIPES; i++)
+        {
+            locks[i] = new StampedLock();
+            stripes[i] = new PlainEventIndex();
+        }
+    }
+
+    /**
+     * Sets the journal that successful changes are written to
+     * @param journal the journal, or null to stop journaling
+     */
+    @Override
+    public void setJournal(EventJournal journal)
+    {
+        long[] stamps = lockAll(false);
+        try
+        {
+            this.journal = journal;
+            for (PlainEventIndex stripe : stripes)
+                stripe.setJournal(journal);
+        }
+        finally
+        {
+            unlockAll(stamps);
+        }
+    }
+
+    /**
+     * Adds an Event unless it overlaps a stored Event
+     * @param e Event to be stored
+     * @return true if the Event was added
+     */
+    @Override
+    public boolean add(Event e)
+    {
+        if (e instanceof RecurringEvent)
+            return addSeries((RecurringEvent) e);
+        // Spans are under a day, so only the neighbouring days can hold a conflicting Event
+        long day = e.getEpochDay();
+        int home = stripeOf(day);
+        int[] held = {stripeOf(day - 1), home, stripeOf(day + 1)};
+        Arrays.sort(held);
+        long[] stamps = new long[held.length];
+        for (int k = 0; k < held.length; k++)
+        {
+            if (k == 0 || held[k] != held[k - 1])
+                stamps[k] = locks[held[k]].writeLock();
+        }
+        try
+        {
+            if (series.overlaps(e))
+                return false;
+            for (int k = 0; k < held.length; k++)
+            {
+                if (held[k] != home && (k == 0 || held[k] != held[k - 1]) && stripes[held[k]].overlaps(e))
+                    return false;
+            }
+            if (!stripes[home].add(e))
+                return false;
+            size.incrementAndGet();
+            return true;
+        }
+        finally
+        {
+            for (int k = held.length - 1; k >= 0; k--)
+            {
+                if (stamps[k] != 0)
+                    locks[held[k]].unlockWrite(stamps[k]);
+            }
+        }
+    }
+
+    /**
+     * Checks if any stored Event or series overlaps the given Event or series. A single Event only
+     * read-locks the stripes of its day and the days around it, a series every stripe.
+     * @param e the Event to be checked
+     * @return true if there is a time conflict
+     */
+    @Override
+    public boolean overlaps(Event e)
+    {
+        if (e instanceof RecurringEvent)
+        {
+            long[] stamps = lockAll(true);
+            try
+            {
+                if (series.overlaps(e))
+                    return true;
+                for (PlainEventIndex stripe : stripes)
+                {
+                    if (stripe.overlaps(e))
+                        return true;
+                }
+                return false;
+            }
+            finally
+            {
+                unlockAll(stamps);
+            }
+        }
+        long day = e.getEpochDay();
+        int[] held = {stripeOf(day - 1), stripeOf(day), stripeOf(day + 1)};
+        Arrays.sort(held);
+        long[] stamps = new long[held.length];
+        for (int k = 0; k < held.length; k++)
+        {
+            if (k == 0 || held[k] != held[k - 1])
+                stamps[k] = locks[held[k]].readLock();
+        }
+        try
+        {
+            if (series.overlaps(e))
+                return true;
+            for (int k = 0; k < held.length; k++)
+            {
+                if ((k == 0 || held[k] != held[k - 1]) && stripes[held[k]].overlaps(e))
+                    return true;
+            }
+            return false;
+        }
+        finally
+        {
+            for (int k = held.length - 1; k >= 0; k--)
+            {
+                if (stamps[k] != 0)
+                    locks[held[k]].unlockRead(stamps[k]);
+            }
+        }
+    }
+
+    /**
+     * Adds a recurring series unless it overlaps a stored Event or series. Every stripe is write-locked
+     * while each one checks the series against its own Events.
+     */
+    private boolean addSeries(RecurringEvent s)
+    {
+        long[] stamps = lockAll(false);
+        try
+        {
+            if (series.overlaps(s))
+                return false;
+            for (PlainEventIndex stripe : stripes)
+            {
+                if (stripe.overlaps(s))
+                    return false;
+            }
+            series = series.with(s);
+            if (journal != null)
+                journal.logAdd(s);
+            return true;
+        }
+        finally
+        {
+            unlockAll(stamps);
+        }
+    }
+
+    /**
+     * Skips the occurrences of the series on a day. Called with the stripe of the day write-locked,
+     * which keeps out addSeries(); removals on other stripes are kept out by synchronizing.
+     */
+    private synchronized void exceptSeries(long day, String name)
+    {
+        series = series.except(day, name);
+    }
+
+    /**
+     * Adds a batch of single Events in one sweep. Every stripe is write-locked for the sweep, which
+     * reads the stripes' Events merged in start-time order, and for storing the admitted Events.
+     * @param sorted the batch, sorted with CalendarModel.eventComparator, without recurring series
+     * @param report receives the rejected Events
+     * @return the added Events in start-time order
+     */
+    @Override
+    public List<Event> addAll(List<Event> sorted, ImportReport report)
+    {
+        if (sorted.isEmpty())
+            return sorted;
+        long from = sorted.get(0).getStartMinute();
+        long to = ConflictSweep.lastEnd(sorted);
+        long[] stamps = lockAll(false);
+        try
+        {
+            ArrayList<Iterator<Event>> sources = new ArrayList<>(STRIPES + series.size());
+            for (PlainEventIndex stripe : stripes)
+                sources.add(stripe.query(from, to));
+            series.query(from, to, sources);
+            List<Event> added = ConflictSweep.admit(sorted, new MergingIterator(sources), report);
+
+            ArrayList<ArrayList<Event>> parts = new ArrayList<>(STRIPES);
+            for (int i = 0; i < STRIPES; i++)
+                parts.add(new ArrayList<>());
+            for (Event e : added)
+                parts.get(stripeOf(e.getEpochDay())).add(e);
+            for (int i = 0; i < STRIPES; i++)
+            {
+                if (!parts.get(i).isEmpty())
+                    stripes[i].insertAll(parts.get(i));
+            }
+            if (journal != null)
+            {
+                for (Event e : added)
+                    journal.logAdd(e);
+            }
+            size.addAndGet(added.size());
+            return added;
+        }
+        finally
+        {
+            unlockAll(stamps);
+        }
+    }
+
+    /**
+     * Stores Events without checking for conflicts or journaling them, used when loading
+     * @param sorted Events sorted with CalendarModel.eventComparator
+     */
+    @Override
+    public void insertAll(List<Event> sorted)
+    {
+        ArrayList<ArrayList<Event>> parts = new ArrayList<>(STRIPES);
+        for (int i = 0; i < STRIPES; i++)
+            parts.add(new ArrayList<>());
+        ArrayList<RecurringEvent> found = new ArrayList<>();
+        for (Event e : sorted)
+        {
+            if (e instanceof RecurringEvent)
+                found.add((RecurringEvent) e);
+            else
+                parts.get(stripeOf(e.getEpochDay())).add(e);
+        }
+        if (!found.isEmpty())
+        {
+            long[] stamps = lockAll(false);
+            try
+            {
+                for (RecurringEvent s : found)
+                    series = series.with(s);
+            }
+            finally
+            {
+                unlockAll(stamps);
+            }
+        }
+        for (int i = 0; i < STRIPES; i++)
+        {
+            if (parts.get(i).isEmpty())
+                continue;
+            long stamp = locks[i].writeLock();
+            try
+            {
+                stripes[i].insertAll(parts.get(i));
+            }
+            finally
+            {
+                locks[i].unlockWrite(stamp);
+            }
+        }
+        size.addAndGet(sorted.size() - found.size());
+    }
+
+    /**
+     * Removes the Events with a given title from a day
+     * @param day epoch day of the Events
+     * @param name title of the Events, compared ignoring case
+     */
+    @Override
+    public void removeNamed(long day, String name)
+    {
+        int i = stripeOf(day);
+        long stamp = locks[i].writeLock();
+        try
+        {
+            int before = stripes[i].size();
+            stripes[i].removeNamed(day, name);
+            size.addAndGet(stripes[i].size() - before);
+            exceptSeries(day, name);
+        }
+        finally
+        {
+            locks[i].unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes every Event from a day
+     * @param day epoch day of the Events
+     */
+    @Override
+    public void removeDay(long day)
+    {
+        int i = stripeOf(day);
+        long stamp = locks[i].writeLock();
+        try
+        {
+            int before = stripes[i].size();
+            stripes[i].removeDay(day);
+            size.addAndGet(stripes[i].size() - before);
+            exceptSeries(day, null);
+        }
+        finally
+        {
+            locks[i].unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes whole recurring series. Like adding a series, this write-locks every stripe.
+     * @param day epoch day the series occur on
+     * @param name title of the series, compared ignoring case
+     */
+    @Override
+    public void removeSeries(long day, String name)
+    {
+        long[] stamps = lockAll(false);
+        try
+        {
+            series = series.without(day, name);
+            if (journal != null)
+                journal.logRemoveSeries(day, name);
+        }
+        finally
+        {
+            unlockAll(stamps);
+        }
+    }
+
+    /**
+     * Gets the Events starting on a given day
+     * @param day epoch day to look up
+     * @return a copy of the day's Events in start-time order
+     */
+    @Override
+    public List<Event> eventsOn(long day)
+    {
+        int i = stripeOf(day);
+        long stamp = locks[i].readLock();
+        try
+        {
+            return series.eventsOn(day, new ArrayList<>(stripes[i].eventsOn(day)));
+        }
+        finally
+        {
+            locks[i].unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Lazily iterates the Events sharing at least one minute with a range. Only the stripes of the
+     * months the range touches are visited; each is read-locked just long enough to pin the current
+     * version of its tree, and the stripes are merged as the iterator advances.
+     * @param from first minute of the range
+     * @param to last minute of the range
+     * @return iterator over the Events in start-time order, unaffected by later changes
+     */
+    @Override
+    public Iterator<Event> query(long from, long to)
+    {
+        if (to < from)
+            return Collections.emptyIterator();
+        // Events starting the day before the range can still reach into it
+        LocalDate first = LocalDate.ofEpochDay(Math.floorDiv(from, Event.MINUTES_PER_DAY) - 1);
+        LocalDate last = LocalDate.ofEpochDay(Math.floorDiv(to, Event.MINUTES_PER_DAY));
+        long months = (last.getYear() - first.getYear()) * 12L + last.getMonthValue() - first.getMonthValue() + 1;
+        boolean[] touched = new boolean[STRIPES];
+        for (long m = 0; m < Math.min(months, STRIPES); m++)
+        {
+            LocalDate month = first.plusMonths(m);
+            touched[stripeOf(month.getYear(), month.getMonthValue() - 1)] = true;
+        }
+        ArrayList<Iterator<Event>> sources = new ArrayList<>();
+        for (int i = 0; i < STRIPES; i++)
+        {
+            if (!touched[i])
+                continue;
+            long stamp = locks[i].readLock();
+            try
+            {
+                sources.add(stripes[i].query(from, to));
+            }
+            finally
+            {
+                locks[i].unlockRead(stamp);
+            }
+        }
+        series.query(from, to, sources);
+        return sources.size() == 1 ? sources.get(0) : new MergingIterator(sources);
+    }
+
+    /**
+     * Checks if any Event starts on a given day. Tries an optimistic read first and only takes the
+     * read lock if a writer got in the way.
+     * @param day epoch day to look up
+     * @return true if the day has an Event
+     */
+    @Override
+    public boolean hasEvents(long day)
+    {
+        if (series.occursOn(day))
+            return true;
+        int i = stripeOf(day);
+        StampedLock lock = locks[i];
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0)
+        {
+            try
+            {
+                boolean found = stripes[i].hasEvents(day);
+                if (lock.validate(stamp))
+                    return found;
+            }
+            catch (RuntimeException e)
+            {
+                // A writer changed the stripe under us, retry with the lock held
+            }
+        }
+        stamp = lock.readLock();
+        try
+        {
+            return stripes[i].hasEvents(day);
+        }
+        finally
+        {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Gets the days of a month that have Events. A month lives in one stripe, so this is one
+     * optimistic read of that stripe in the common case.
+     * @param year the year
+     * @param month the month, 0 based like Calendar.MONTH
+     * @return mask with bit d-1 set if an Event starts on day d
+     */
+    @Override
+    public int monthMask(int year, int month)
+    {
+        return stripeMask(year, month) | series.count(year, month, null);
+    }
+
+    private int stripeMask(int year, int month)
+    {
+        int i = stripeOf(year, month);
+        StampedLock lock = locks[i];
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0)
+        {
+            try
+            {
+                int mask = stripes[i].monthMask(year, month);
+                if (lock.validate(stamp))
+                    return mask;
+            }
+            catch (RuntimeException e)
+            {
+                // A writer changed the stripe under us, retry with the lock held
+            }
+        }
+        stamp = lock.readLock();
+        try
+        {
+            return stripes[i].monthMask(year, month);
+        }
+        finally
+        {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Gets the number of Events on each day of a month
+     * @param year the year
+     * @param month the month, 0 based like Calendar.MONTH
+     * @return array whose element d-1 is the number of Events starting on day d
+     */
+    @Override
+    public int[] monthCounts(int year, int month)
+    {
+        int i = stripeOf(year, month);
+        long stamp = locks[i].readLock();
+        int[] counts;
+        try
+        {
+            counts = stripes[i].monthCounts(year, month);
+        }
+        finally
+        {
+            locks[i].unlockRead(stamp);
+        }
+        series.count(year, month, counts);
+        return counts;
+    }
+
+    /**
+     * Gets the number of stored Events, counting each recurring series once
+     * @return number of Events
+     */
+    @Override
+    public int size()
+    {
+        return size.get() + series.size();
+    }
+
+    /**
+     * Freezes every stored Event, holding every stripe's read lock only while the stripes' own O(1)
+     * snapshots are taken, so the result is consistent across months
+     * @return the Events in start-time order
+     */
+    @Override
+    public List<Event> snapshot()
+    {
+        long[] stamps = lockAll(true);
+        try
+        {
+            return collect();
+        }
+        finally
+        {
+            unlockAll(stamps);
+        }
+    }
+
+    /**
+     * Takes a snapshot of every stored Event and hands it to an action while every stripe is
+     * read-locked, so no change can be made or journaled in between.
+     * @param action receives the Events in start-time order
+     */
+    @Override
+    public void withSnapshot(Consumer<List<Event>> action)
+    {
+        long[] stamps = lockAll(true);
+        try
+        {
+            action.accept(collect());
+        }
+        finally
+        {
+            unlockAll(stamps);
+        }
+    }
+
+    private List<Event> collect()
+    {
+        ArrayList<List<Event>> parts = new ArrayList<>(STRIPES);
+        for (PlainEventIndex stripe : stripes)
+        {
+            List<Event> part = stripe.snapshot();
+            if (!part.isEmpty())
+                parts.add(part);
+        }
+        if (series.size() > 0)
+            parts.add(series.asList());
+        return parts.size() == 1 ? parts.get(0) : new MergedSnapshot(parts);
+    }
+
+    private long[] lockAll(boolean read)
+    {
+        long[] stamps = new long[STRIPES];
+        for (int i = 0; i < STRIPES; i++)
+            stamps[i] = read ? locks[i].readLock() : locks[i].writeLock();
+        return stamps;
+    }
+
+    private void unlockAll(long[] stamps)
+    {
+        for (int i = STRIPES - 1; i >= 0; i--)
+            locks[i].unlock(stamps[i]);
+    }
+
+    /**
+     * Finds the stripe of a day from its year and month, so consecutive months land in different stripes
+     */
+    private static int stripeOf(long day)
+    {
+        LocalDate date = LocalDate.ofEpochDay(day);
+        return stripeOf(date.getYear(), date.getMonthValue() - 1);
+    }
+
+    private static int stripeOf(int year, int month)
+    {
+        return Math.floorMod(year * 12 + month, STRIPES);
+    }
+}
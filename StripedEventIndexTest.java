@@ -0,0 +1,222 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks StripedEventIndex on its own and under load. First the same random adds, overlap checks and
+ * removals of single Events and recurring series are run against a PlainEventIndex and a StripedEventIndex,
+ * which must give the same answers and end up holding the same Events. Then one ConcurrentCalendarModel is
+ * driven from importer, remover, reader and navigation threads at once, after which no two stored Events
+ * may overlap and every Event reported as added must still be stored, unless its day was cleared.
+ *
+ * Run as "java StripedEventIndexTest [seconds]", 10 seconds of load by default. Exits with status 1 if
+ * any check fails.
+ * @author Alejandro Lopez
+ */
+public class StripedEventIndexTest {
+    private static final PrintStream OUT = System.out;
+    private static final PrintStream NULL = new PrintStream(OutputStream.nullOutputStream());
+
+    /**
+     * Runs both checks
+     * @param args optional number of seconds the threads of the stress test run
+     * @throws Exception if a thread cannot be joined
+     */
+    public static void main(String[] args) throws Exception
+    {
+        boolean ok = compare(20_000);
+        ok &= stress(args.length > 0 ? Integer.parseInt(args[0]) : 10);
+        if (!ok)
+            System.exit(1);
+    }
+
+    /**
+     * Runs random operations on both kinds of index from one thread and compares every answer
+     * @param operations number of Events offered
+     * @return true if the indexes always agreed
+     */
+    private static boolean compare(int operations)
+    {
+        Random random = new Random(3);
+        PlainEventIndex plain = new PlainEventIndex();
+        StripedEventIndex striped = new StripedEventIndex();
+        long today = DayIndex.epochDay(new GregorianCalendar());
+        int differences = 0;
+        for (int i = 0; i < operations; i++)
+        {
+            long day = today - 200 + random.nextInt(400);
+            long begin = day * Event.MINUTES_PER_DAY + random.nextInt(Event.MINUTES_PER_DAY);
+            Event e = new Event(begin, 1 + random.nextInt(600), true, "Event " + i % 50);
+            if (i % 500 == 0)
+                e = new RecurringEvent(e, Recurrence.daily(1 + random.nextInt(5)).count(20));
+            if (plain.overlaps(e) != striped.overlaps(e))
+                differences++;
+            if (plain.add(e) != striped.add(e))
+                differences++;
+            if (i % 200 == 0)
+            {
+                plain.removeNamed(day, e.getName());
+                striped.removeNamed(day, e.getName());
+            }
+            else if (i % 350 == 0)
+            {
+                plain.removeDay(day);
+                striped.removeDay(day);
+            }
+        }
+        if (!describe(plain.snapshot()).equals(describe(striped.snapshot())) || plain.size() != striped.size())
+            differences++;
+        OUT.printf("%d operations, %d events stored: %s%n", operations, plain.size(),
+                differences == 0 ? "OK" : differences + " differences, FAILED");
+        return differences == 0;
+    }
+
+    /**
+     * Writes down the times and stored titles of Events, which tell them apart like the events file does
+     */
+    private static List<String> describe(List<Event> events)
+    {
+        ArrayList<String> described = new ArrayList<>(events.size());
+        for (Event e : events)
+            described.add(e.getStartMinute() + " " + e.getEndMinute() + " " + e.storedName());
+        return described;
+    }
+
+    /**
+     * Runs the multi-threaded stress test
+     * @param seconds how long the threads run
+     * @return true if the model ended up consistent
+     */
+    private static boolean stress(int seconds) throws Exception
+    {
+        System.setOut(NULL);
+        ConcurrentCalendarModel model = new ConcurrentCalendarModel();
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        long today = DayIndex.epochDay(new GregorianCalendar());
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        AtomicBoolean failed = new AtomicBoolean();
+        AtomicLong adds = new AtomicLong();
+        AtomicLong reads = new AtomicLong();
+        ConcurrentLinkedQueue<Event> added = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<Long> cleared = new ConcurrentLinkedQueue<>();
+        ArrayList<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++)
+        {
+            long seed = t;
+            // Importers: random, partly overlapping Events across two years, some past midnight
+            workers.add(new Thread(() -> {
+                Random random = new Random(seed);
+                while (System.nanoTime() < deadline)
+                {
+                    long day = today - 365 + random.nextInt(730);
+                    long begin = day * Event.MINUTES_PER_DAY + random.nextInt(Event.MINUTES_PER_DAY);
+                    Event e = new Event(begin, 15 + random.nextInt(240), true, "Stress " + seed);
+                    if (model.add(e))
+                    {
+                        added.add(e);
+                        adds.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        workers.add(new Thread(() -> {
+            Random random = new Random(-1);
+            while (System.nanoTime() < deadline)
+            {
+                long day = today - 365 + random.nextInt(730);
+                LocalDate date = LocalDate.ofEpochDay(day);
+                cleared.add(day);
+                model.removeAll(new GregorianCalendar(date.getYear(), date.getMonthValue() - 1,
+                        date.getDayOfMonth()));
+                Thread.yield();
+            }
+        }));
+        for (int t = 0; t < 2; t++)
+        {
+            workers.add(new Thread(() -> {
+                while (System.nanoTime() < deadline)
+                {
+                    List<Event> day = model.getEvents();
+                    for (Event e : day)
+                    {
+                        // A day's Events must all start on that day
+                        if (e.getEpochDay() != day.get(0).getEpochDay())
+                            failed.set(true);
+                    }
+                    model.printEventCalendar();
+                    model.nextDay();
+                    reads.incrementAndGet();
+                }
+            }));
+        }
+        workers.add(new Thread(() -> {
+            while (System.nanoTime() < deadline)
+            {
+                List<Event> snapshot = model.snapshot();
+                for (int i = 1; i < snapshot.size(); i++)
+                {
+                    if (CalendarModel.eventComparator.compare(snapshot.get(i - 1), snapshot.get(i)) > 0)
+                        failed.set(true);
+                }
+                model.prevMonth();
+            }
+        }));
+        for (Thread worker : workers)
+        {
+            worker.setUncaughtExceptionHandler((th, ex) -> {
+                ex.printStackTrace(OUT);
+                failed.set(true);
+            });
+            worker.start();
+        }
+        for (Thread worker : workers)
+            worker.join();
+        System.setOut(OUT);
+
+        List<Event> stored = model.snapshot();
+        for (int i = 1; i < stored.size(); i++)
+        {
+            Event a = stored.get(i - 1);
+            Event b = stored.get(i);
+            if (a.eventConflicts(b))
+            {
+                OUT.println("Overlapping events: " + a + " / " + b);
+                failed.set(true);
+            }
+        }
+        HashSet<Long> clearedDays = new HashSet<>(cleared);
+        Set<Event> present = Collections.newSetFromMap(new IdentityHashMap<>());
+        present.addAll(stored);
+        int missing = 0;
+        for (Event e : added)
+        {
+            if (!present.contains(e) && !clearedDays.contains(e.getEpochDay()))
+                missing++;
+        }
+        if (missing > 0)
+        {
+            OUT.println(missing + " added events are missing");
+            failed.set(true);
+        }
+        if (stored.size() != model.getEventCount())
+        {
+            OUT.println("Count " + model.getEventCount() + " does not match " + stored.size() + " stored events");
+            failed.set(true);
+        }
+        OUT.printf("%d threads, %d s: %d adds, %d reads, %d events stored: %s%n", workers.size(), seconds,
+                adds.get(), reads.get(), stored.size(), failed.get() ? "FAILED" : "OK");
+        return !failed.get();
+    }
+}